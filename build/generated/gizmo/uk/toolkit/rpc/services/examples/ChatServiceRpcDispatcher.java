@@ -0,0 +1,106 @@
+package gizmo.uk.toolkit.rpc.services.examples;
+
+/**
+ * <p>RpcDispatcher for gizmo.uk.toolkit.rpc.services.examples.ChatService generated by RpcDispatcherProcessor</p>
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class ChatServiceRpcDispatcher implements gizmo.uk.toolkit.rpc.RpcDispatcher {
+
+    public int getIndex(String signature) {
+        switch(signature) {
+            case "getClass()java.lang.Class":
+                return 0;
+            case "hashCode()int":
+                return 1;
+            case "equals(java.lang.Object)boolean":
+                return 2;
+            case "toString()java.lang.String":
+                return 3;
+            case "notify()void":
+                return 4;
+            case "notifyAll()void":
+                return 5;
+            case "wait()void":
+                return 6;
+            case "wait(long)void":
+                return 7;
+            case "wait(long,int)void":
+                return 8;
+            case "_configure(gizmo.uk.toolkit.rpc.RpcHandlers)void":
+                return 9;
+            case "_configure(gizmo.uk.toolkit.rpc.RpcHandlers,gizmo.uk.toolkit.rpc.RpcLockPolicy)void":
+                return 10;
+            case "_describe()java.util.List":
+                return 11;
+            case "validUsername(java.lang.String)boolean":
+                return 12;
+            case "login(java.lang.String)boolean":
+                return 13;
+            case "logout(java.lang.String)boolean":
+                return 14;
+            case "post(java.lang.String,java.lang.String)boolean":
+                return 15;
+            case "getPosts(int,int)java.util.List":
+                return 16;
+            case "getPosts(java.lang.String,int,int)java.util.List":
+                return 17;
+            case "getUsers(int,int)java.util.List":
+                return 18;
+            default:
+                return -1;
+        }
+    }
+
+    public Object invoke(int index, Object target, Object[] arguments) throws Throwable {
+        switch(index) {
+            case 0:
+                return ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target).getClass();
+            case 1:
+                return ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target).hashCode();
+            case 2:
+                return ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target).equals((java.lang.Object) arguments[0]);
+            case 3:
+                return ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target).toString();
+            case 4:
+                ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target).notify();
+                return null;
+            case 5:
+                ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target).notifyAll();
+                return null;
+            case 6:
+                ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target).wait();
+                return null;
+            case 7:
+                ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target).wait((java.lang.Long) arguments[0]);
+                return null;
+            case 8:
+                ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target).wait((java.lang.Long) arguments[0], (java.lang.Integer) arguments[1]);
+                return null;
+            case 9:
+                gizmo.uk.toolkit.rpc.services.examples.ChatService._configure((gizmo.uk.toolkit.rpc.RpcHandlers) arguments[0]);
+                return null;
+            case 10:
+                gizmo.uk.toolkit.rpc.services.examples.ChatService._configure((gizmo.uk.toolkit.rpc.RpcHandlers) arguments[0], (gizmo.uk.toolkit.rpc.RpcLockPolicy) arguments[1]);
+                return null;
+            case 11:
+                return ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target)._describe();
+            case 12:
+                return ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target).validUsername((java.lang.String) arguments[0]);
+            case 13:
+                return ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target).login((java.lang.String) arguments[0]);
+            case 14:
+                return ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target).logout((java.lang.String) arguments[0]);
+            case 15:
+                return ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target).post((java.lang.String) arguments[0], (java.lang.String) arguments[1]);
+            case 16:
+                return ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target).getPosts((java.lang.Integer) arguments[0], (java.lang.Integer) arguments[1]);
+            case 17:
+                return ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target).getPosts((java.lang.String) arguments[0], (java.lang.Integer) arguments[1], (java.lang.Integer) arguments[2]);
+            case 18:
+                return ((gizmo.uk.toolkit.rpc.services.examples.ChatService) target).getUsers((java.lang.Integer) arguments[0], (java.lang.Integer) arguments[1]);
+            default:
+                throw new IllegalArgumentException("no method with index " + index);
+        }
+    }
+
+}
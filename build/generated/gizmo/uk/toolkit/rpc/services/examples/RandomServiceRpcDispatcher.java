@@ -0,0 +1,81 @@
+package gizmo.uk.toolkit.rpc.services.examples;
+
+/**
+ * <p>RpcDispatcher for gizmo.uk.toolkit.rpc.services.examples.RandomService generated by RpcDispatcherProcessor</p>
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class RandomServiceRpcDispatcher implements gizmo.uk.toolkit.rpc.RpcDispatcher {
+
+    public int getIndex(String signature) {
+        switch(signature) {
+            case "getClass()java.lang.Class":
+                return 0;
+            case "hashCode()int":
+                return 1;
+            case "equals(java.lang.Object)boolean":
+                return 2;
+            case "toString()java.lang.String":
+                return 3;
+            case "notify()void":
+                return 4;
+            case "notifyAll()void":
+                return 5;
+            case "wait()void":
+                return 6;
+            case "wait(long)void":
+                return 7;
+            case "wait(long,int)void":
+                return 8;
+            case "_configure(gizmo.uk.toolkit.rpc.RpcHandlers)void":
+                return 9;
+            case "_describe()java.util.List":
+                return 10;
+            case "createRandomString(int)java.util.Map":
+                return 11;
+            case "getLastRandomString()java.lang.String":
+                return 12;
+            default:
+                return -1;
+        }
+    }
+
+    public Object invoke(int index, Object target, Object[] arguments) throws Throwable {
+        switch(index) {
+            case 0:
+                return ((gizmo.uk.toolkit.rpc.services.examples.RandomService) target).getClass();
+            case 1:
+                return ((gizmo.uk.toolkit.rpc.services.examples.RandomService) target).hashCode();
+            case 2:
+                return ((gizmo.uk.toolkit.rpc.services.examples.RandomService) target).equals((java.lang.Object) arguments[0]);
+            case 3:
+                return ((gizmo.uk.toolkit.rpc.services.examples.RandomService) target).toString();
+            case 4:
+                ((gizmo.uk.toolkit.rpc.services.examples.RandomService) target).notify();
+                return null;
+            case 5:
+                ((gizmo.uk.toolkit.rpc.services.examples.RandomService) target).notifyAll();
+                return null;
+            case 6:
+                ((gizmo.uk.toolkit.rpc.services.examples.RandomService) target).wait();
+                return null;
+            case 7:
+                ((gizmo.uk.toolkit.rpc.services.examples.RandomService) target).wait((java.lang.Long) arguments[0]);
+                return null;
+            case 8:
+                ((gizmo.uk.toolkit.rpc.services.examples.RandomService) target).wait((java.lang.Long) arguments[0], (java.lang.Integer) arguments[1]);
+                return null;
+            case 9:
+                gizmo.uk.toolkit.rpc.services.examples.RandomService._configure((gizmo.uk.toolkit.rpc.RpcHandlers) arguments[0]);
+                return null;
+            case 10:
+                return ((gizmo.uk.toolkit.rpc.services.examples.RandomService) target)._describe();
+            case 11:
+                return ((gizmo.uk.toolkit.rpc.services.examples.RandomService) target).createRandomString((java.lang.Integer) arguments[0]);
+            case 12:
+                return ((gizmo.uk.toolkit.rpc.services.examples.RandomService) target).getLastRandomString();
+            default:
+                throw new IllegalArgumentException("no method with index " + index);
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+package gizmo.uk.toolkit.rpc.services.examples;
+
+/**
+ * <p>RpcDispatcher for gizmo.uk.toolkit.rpc.services.examples.TestService generated by RpcDispatcherProcessor</p>
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class TestServiceRpcDispatcher implements gizmo.uk.toolkit.rpc.RpcDispatcher {
+
+    public int getIndex(String signature) {
+        switch(signature) {
+            case "getClass()java.lang.Class":
+                return 0;
+            case "hashCode()int":
+                return 1;
+            case "equals(java.lang.Object)boolean":
+                return 2;
+            case "toString()java.lang.String":
+                return 3;
+            case "notify()void":
+                return 4;
+            case "notifyAll()void":
+                return 5;
+            case "wait()void":
+                return 6;
+            case "wait(long)void":
+                return 7;
+            case "wait(long,int)void":
+                return 8;
+            case "_configure(gizmo.uk.toolkit.rpc.RpcHandlers)void":
+                return 9;
+            case "_describe()java.util.List":
+                return 10;
+            case "echo(int)int":
+                return 11;
+            case "echo(double)double":
+                return 12;
+            case "echo(long)long":
+                return 13;
+            case "echo(boolean)boolean":
+                return 14;
+            case "echo(java.lang.String)java.lang.String":
+                return 15;
+            case "echo(java.util.Map)java.util.Map":
+                return 16;
+            case "echo(java.util.List)java.util.List":
+                return 17;
+            case "echo(int,double,long,boolean,java.lang.String)java.util.List":
+                return 18;
+            case "echoWrappr(java.lang.Integer)java.lang.Integer":
+                return 19;
+            case "echoWrappr(java.lang.Double)java.lang.Double":
+                return 20;
+            case "echoWrappr(java.lang.Long)java.lang.Long":
+                return 21;
+            case "echoWrappr(java.lang.Boolean)java.lang.Boolean":
+                return 22;
+            case "returnVoid()void":
+                return 23;
+            case "returnNull()java.lang.String":
+                return 24;
+            case "throwException()void":
+                return 25;
+            case "throwError()void":
+                return 26;
+            case "saveValue(java.lang.String)void":
+                return 27;
+            case "retrieveValue()java.lang.String":
+                return 28;
+            case "hasValue()boolean":
+                return 29;
+            case "deleteValue()void":
+                return 30;
+            default:
+                return -1;
+        }
+    }
+
+    public Object invoke(int index, Object target, Object[] arguments) throws Throwable {
+        switch(index) {
+            case 0:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).getClass();
+            case 1:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).hashCode();
+            case 2:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).equals((java.lang.Object) arguments[0]);
+            case 3:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).toString();
+            case 4:
+                ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).notify();
+                return null;
+            case 5:
+                ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).notifyAll();
+                return null;
+            case 6:
+                ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).wait();
+                return null;
+            case 7:
+                ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).wait((java.lang.Long) arguments[0]);
+                return null;
+            case 8:
+                ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).wait((java.lang.Long) arguments[0], (java.lang.Integer) arguments[1]);
+                return null;
+            case 9:
+                gizmo.uk.toolkit.rpc.services.examples.TestService._configure((gizmo.uk.toolkit.rpc.RpcHandlers) arguments[0]);
+                return null;
+            case 10:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target)._describe();
+            case 11:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).echo((java.lang.Integer) arguments[0]);
+            case 12:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).echo((java.lang.Double) arguments[0]);
+            case 13:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).echo((java.lang.Long) arguments[0]);
+            case 14:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).echo((java.lang.Boolean) arguments[0]);
+            case 15:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).echo((java.lang.String) arguments[0]);
+            case 16:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).echo((java.util.Map) arguments[0]);
+            case 17:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).echo((java.util.List) arguments[0]);
+            case 18:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).echo((java.lang.Integer) arguments[0], (java.lang.Double) arguments[1], (java.lang.Long) arguments[2], (java.lang.Boolean) arguments[3], (java.lang.String) arguments[4]);
+            case 19:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).echoWrappr((java.lang.Integer) arguments[0]);
+            case 20:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).echoWrappr((java.lang.Double) arguments[0]);
+            case 21:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).echoWrappr((java.lang.Long) arguments[0]);
+            case 22:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).echoWrappr((java.lang.Boolean) arguments[0]);
+            case 23:
+                ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).returnVoid();
+                return null;
+            case 24:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).returnNull();
+            case 25:
+                ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).throwException();
+                return null;
+            case 26:
+                ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).throwError();
+                return null;
+            case 27:
+                ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).saveValue((java.lang.String) arguments[0]);
+                return null;
+            case 28:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).retrieveValue();
+            case 29:
+                return ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).hasValue();
+            case 30:
+                ((gizmo.uk.toolkit.rpc.services.examples.TestService) target).deleteValue();
+                return null;
+            default:
+                throw new IllegalArgumentException("no method with index " + index);
+        }
+    }
+
+}
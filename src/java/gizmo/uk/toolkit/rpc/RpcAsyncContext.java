@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * <p>RpcAsyncContext wraps a Servlet 3 AsyncContext so that RpcServlet can complete a response on another
+ * thread while still compiling against the Servlet 2.5 API</p>
+ *
+ * <p>The Servlet 3 methods are looked up reflectively once, if the container does not provide them then
+ * isSupported(HttpServletRequest) returns false and requests are handled on the container thread</p>
+ *
+ * <p>An AsyncListener, also created reflectively, records when the container completes the response itself
+ * after a timeout or an error, after which the response must not be written to or completed again</p>
+ *
+ * <p>Note that the servlet must be declared with async-supported in a Servlet 3 web.xml</p>
+ *
+ * @author gareth bond
+ */
+public class RpcAsyncContext {
+
+    /**
+     * <p>ServletRequest.isAsyncSupported() or null if not available</p>
+     */
+    protected static final Method IS_ASYNC_SUPPORTED;
+
+    /**
+     * <p>ServletRequest.startAsync() or null if not available</p>
+     */
+    protected static final Method START_ASYNC;
+
+    /**
+     * <p>AsyncContext.setTimeout(long) or null if not available</p>
+     */
+    protected static final Method SET_TIMEOUT;
+
+    /**
+     * <p>AsyncContext.complete() or null if not available</p>
+     */
+    protected static final Method COMPLETE;
+
+    /**
+     * <p>AsyncContext.addListener(AsyncListener) or null if not available</p>
+     */
+    protected static final Method ADD_LISTENER;
+
+    /**
+     * <p>The AsyncListener interface or null if not available</p>
+     */
+    protected static final Class LISTENER_CLASS;
+
+    static {
+        Method isAsyncSupported = null;
+        Method startAsync = null;
+        Method setTimeout = null;
+        Method complete = null;
+        Method addListener = null;
+        Class listenerClass = null;
+        try {
+            Class asyncContextClass = Class.forName("javax.servlet.AsyncContext", false,
+                    ServletRequest.class.getClassLoader());
+            listenerClass = Class.forName("javax.servlet.AsyncListener", false,
+                    ServletRequest.class.getClassLoader());
+            isAsyncSupported = ServletRequest.class.getMethod("isAsyncSupported");
+            startAsync = ServletRequest.class.getMethod("startAsync");
+            setTimeout = asyncContextClass.getMethod("setTimeout", Long.TYPE);
+            complete = asyncContextClass.getMethod("complete");
+            addListener = asyncContextClass.getMethod("addListener", listenerClass);
+        }
+        catch(Exception e) {
+            //pre Servlet 3 container
+            isAsyncSupported = null;
+        }
+        IS_ASYNC_SUPPORTED = isAsyncSupported;
+        START_ASYNC = startAsync;
+        SET_TIMEOUT = setTimeout;
+        COMPLETE = complete;
+        ADD_LISTENER = addListener;
+        LISTENER_CLASS = listenerClass;
+    }
+
+    /**
+     * <p>The underlying AsyncContext</p>
+     */
+    protected final Object asyncContext;
+
+    /**
+     * <p>Has the response been completed, either by complete() or by the container after a timeout or an
+     * error</p>
+     */
+    protected final AtomicBoolean finished = new AtomicBoolean();
+
+    /**
+     * <p>Construct a new RpcAsyncContext for the underlying AsyncContext</p>
+     *
+     * @param asyncContext
+     */
+    protected RpcAsyncContext(Object asyncContext) {
+        this.asyncContext = asyncContext;
+    }
+
+    /**
+     * <p>Can the request be put into asynchronous mode</p>
+     *
+     * @param request
+     */
+    public static boolean isSupported(HttpServletRequest request) {
+        if(IS_ASYNC_SUPPORTED == null) {
+            return false;
+        }
+        try {
+            return ((Boolean) IS_ASYNC_SUPPORTED.invoke(request)).booleanValue();
+        }
+        catch(Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * <p>Put the request into asynchronous mode</p>
+     *
+     * <p>A timeout of zero or less keeps the containers default timeout</p>
+     *
+     * @param request
+     * @param timeout
+     */
+    public static RpcAsyncContext start(HttpServletRequest request, long timeout) {
+        try {
+            Object asyncContext = START_ASYNC.invoke(request);
+            if(timeout > 0) {
+                SET_TIMEOUT.invoke(asyncContext, Long.valueOf(timeout));
+            }
+            RpcAsyncContext rpcAsyncContext = new RpcAsyncContext(asyncContext);
+            ADD_LISTENER.invoke(asyncContext, rpcAsyncContext.createListener());
+            return rpcAsyncContext;
+        }
+        catch(InvocationTargetException e) {
+            throw new RpcError(e.getTargetException());
+        }
+        catch(IllegalAccessException e) {
+            throw new RpcError(e);
+        }
+    }
+
+    /**
+     * <p>Create the AsyncListener that records when the container completes the response</p>
+     */
+    protected Object createListener() {
+        return Proxy.newProxyInstance(LISTENER_CLASS.getClassLoader(), new Class[] {LISTENER_CLASS},
+                new InvocationHandler() {
+
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if(name.equals("onTimeout") || name.equals("onError") || name.equals("onComplete")) {
+                            finished.set(true);
+                        }
+                        else if(name.equals("equals")) {
+                            return Boolean.valueOf(proxy == args[0]);
+                        }
+                        else if(name.equals("hashCode")) {
+                            return Integer.valueOf(System.identityHashCode(proxy));
+                        }
+                        else if(name.equals("toString")) {
+                            return "RpcAsyncListener@" + Integer.toHexString(System.identityHashCode(proxy));
+                        }
+                        return null;
+                    }
+
+                });
+    }
+
+    /**
+     * <p>Has the response been completed, in which case it must not be written to</p>
+     */
+    public boolean isFinished() {
+        return finished.get();
+    }
+
+    /**
+     * <p>Complete the response</p>
+     *
+     * <p>Does nothing if the response has already been completed, for example by the container after a
+     * timeout</p>
+     */
+    public void complete() {
+        if( ! finished.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            COMPLETE.invoke(asyncContext);
+        }
+        catch(InvocationTargetException e) {
+            //already completed or timed out
+        }
+        catch(IllegalAccessException e) {
+            throw new RpcError(e);
+        }
+    }
+
+}
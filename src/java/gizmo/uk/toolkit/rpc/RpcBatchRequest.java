@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+/**
+ * <p>RpcBatchRequest presents a single call from a batch request as if it were a request of its own</p>
+ *
+ * <p>The path info is replaced with the calls service and method names and the arguments parameter is
+ * replaced with the calls arguments, everything else comes from the batch request</p>
+ *
+ * <p>Calls from the same batch run concurrently so access to the session is guarded by a lock shared
+ * between them</p>
+ *
+ * <p>The batch requests If-None-Match header does not apply to its calls so it is hidden, as is its content
+ * type, so that a batch posted as a JSON request body is not mistaken for the body of each call, and its
+ * Accept header, as every call is answered as JSON within the batch response</p>
+ *
+ * @author gareth bond
+ */
+public class RpcBatchRequest extends RpcUnconditionalRequest {
+
+    /**
+     * <p>Path info for the call</p>
+     */
+    protected final String pathInfo;
+
+    /**
+     * <p>Name of the arguments parameter</p>
+     */
+    protected final String argumentsParam;
+
+    /**
+     * <p>Arguments for the call</p>
+     */
+    protected final String arguments;
+
+    /**
+     * <p>Lock shared by all calls of the batch guarding session access</p>
+     */
+    protected final Lock sessionLock;
+
+    /**
+     * <p>Construct a new RpcBatchRequest</p>
+     *
+     * @param request
+     * @param service
+     * @param method
+     * @param argumentsParam
+     * @param arguments
+     * @param sessionLock
+     */
+    public RpcBatchRequest(HttpServletRequest request, String service, String method,
+                           String argumentsParam, String arguments, Lock sessionLock) {
+        super(request);
+        this.pathInfo = "/" + service + "/" + method;
+        this.argumentsParam = argumentsParam;
+        this.arguments = arguments;
+        this.sessionLock = sessionLock;
+    }
+
+    public String getPathInfo() {
+        return pathInfo;
+    }
+
+    public String getContentType() {
+        return null;
+    }
+
+    public String getHeader(String name) {
+        if(name.equalsIgnoreCase(RpcMimeTypes.ACCEPT_HEADER)) {
+            return null;
+        }
+        return super.getHeader(name);
+    }
+
+    public String getParameter(String name) {
+        if(name.equals(argumentsParam)) {
+            return arguments;
+        }
+        return null;
+    }
+
+    public Enumeration getParameterNames() {
+        return Collections.enumeration(getParameterMap().keySet());
+    }
+
+    public String[] getParameterValues(String name) {
+        if(name.equals(argumentsParam) && arguments != null) {
+            return new String[] {arguments};
+        }
+        return null;
+    }
+
+    public Map getParameterMap() {
+        Map<String, String[]> map = new HashMap<String, String[]>();
+        if(arguments != null) {
+            map.put(argumentsParam, new String[] {arguments});
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    public HttpSession getSession() {
+        return getSession(true);
+    }
+
+    public HttpSession getSession(boolean create) {
+        sessionLock.lock();
+        try {
+            return super.getSession(create);
+        }
+        finally {
+            sessionLock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * <p>RpcBufferPool keeps a bounded number of byte and char buffers so they can be reused between
+ * requests</p>
+ *
+ * <p>Buffers are taken from and returned to bounded queues rather than held in thread locals, so the number of
+ * pooled buffers does not grow with the number of threads, which matters when invocations run on virtual
+ * threads</p>
+ *
+ * <p>A buffer larger than the maximum pooled size is left to the garbage collector rather than returned to
+ * the pool, as is any buffer returned while the pool is full</p>
+ *
+ * @author gareth bond
+ */
+public class RpcBufferPool {
+
+    /**
+     * <p>Default size of a new buffer</p>
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * <p>Default maximum number of pooled buffers of each kind</p>
+     */
+    public static final int DEFAULT_MAX_BUFFERS = 64;
+
+    /**
+     * <p>Default maximum size of a pooled buffer</p>
+     */
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * <p>Pool shared by RpcServlet and the supplied handlers</p>
+     */
+    protected static final RpcBufferPool SHARED = new RpcBufferPool();
+
+    /**
+     * <p>Size of a new buffer</p>
+     */
+    protected final int bufferSize;
+
+    /**
+     * <p>Maximum size of a pooled buffer</p>
+     */
+    protected final int maxBufferSize;
+
+    /**
+     * <p>Pooled byte buffers</p>
+     */
+    protected final BlockingQueue<byte[]> byteBuffers;
+
+    /**
+     * <p>Pooled char buffers</p>
+     */
+    protected final BlockingQueue<char[]> charBuffers;
+
+    /**
+     * <p>Construct a new RpcBufferPool with the default sizes</p>
+     */
+    public RpcBufferPool() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_BUFFERS, DEFAULT_MAX_BUFFER_SIZE);
+    }
+
+    /**
+     * <p>Construct a new RpcBufferPool</p>
+     *
+     * @param bufferSize
+     * @param maxBuffers
+     * @param maxBufferSize
+     */
+    public RpcBufferPool(int bufferSize, int maxBuffers, int maxBufferSize) {
+        this.bufferSize = bufferSize;
+        this.maxBufferSize = maxBufferSize;
+        byteBuffers = new ArrayBlockingQueue<byte[]>(maxBuffers);
+        charBuffers = new ArrayBlockingQueue<char[]>(maxBuffers);
+    }
+
+    /**
+     * <p>Get the pool shared by RpcServlet and the supplied handlers</p>
+     */
+    public static RpcBufferPool getShared() {
+        return SHARED;
+    }
+
+    /**
+     * <p>Take a byte buffer holding at least the given number of bytes from the pool, or allocate one if
+     * there is no pooled buffer large enough</p>
+     *
+     * @param minimum
+     */
+    public byte[] getBytes(int minimum) {
+        byte[] buffer = byteBuffers.poll();
+        if(buffer != null && buffer.length >= minimum) {
+            return buffer;
+        }
+        release(buffer);
+        return new byte[Math.max(minimum, bufferSize)];
+    }
+
+    /**
+     * <p>Take a char buffer holding at least the given number of chars from the pool, or allocate one if
+     * there is no pooled buffer large enough</p>
+     *
+     * @param minimum
+     */
+    public char[] getChars(int minimum) {
+        char[] buffer = charBuffers.poll();
+        if(buffer != null && buffer.length >= minimum) {
+            return buffer;
+        }
+        release(buffer);
+        return new char[Math.max(minimum, bufferSize)];
+    }
+
+    /**
+     * <p>Return a byte buffer to the pool, the buffer must not be used afterwards</p>
+     *
+     * @param buffer
+     */
+    public void release(byte[] buffer) {
+        if(buffer != null && buffer.length <= maxBufferSize) {
+            byteBuffers.offer(buffer);
+        }
+    }
+
+    /**
+     * <p>Return a char buffer to the pool, the buffer must not be used afterwards</p>
+     *
+     * @param buffer
+     */
+    public void release(char[] buffer) {
+        if(buffer != null && buffer.length <= maxBufferSize) {
+            charBuffers.offer(buffer);
+        }
+    }
+
+}
@@ -0,0 +1,368 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * <p>RpcBufferedResponse captures everything handlers write to an HTTP response in memory instead of passing
+ * it to the wrapped response</p>
+ *
+ * <p>This lets RpcServlet collect the output of a remote method invocation so it can be combined with other
+ * invocations or written more than once</p>
+ *
+ * <p>The status code, content type and ETag header are captured as well. Any other headers and cookies are
+ * held back, nothing is ever set on the wrapped response, so several RpcBufferedResponse instances can wrap
+ * the same response on different threads. The held back headers are set on a response by
+ * applyHeaders(HttpServletResponse) from the thread that owns it</p>
+ *
+ * <p>The content length is that of the captured output, the character encoding only applies to the captured
+ * output and the locale is ignored</p>
+ *
+ * @author gareth bond
+ */
+public class RpcBufferedResponse extends HttpServletResponseWrapper {
+
+    /**
+     * <p>Captured output</p>
+     */
+    protected final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    /**
+     * <p>ServletOutputStream writing to the buffer, created on demand</p>
+     */
+    protected ServletOutputStream outputStream;
+
+    /**
+     * <p>PrintWriter writing to the buffer, created on demand</p>
+     */
+    protected PrintWriter writer;
+
+    /**
+     * <p>Captured status code</p>
+     */
+    protected int status = SC_OK;
+
+    /**
+     * <p>Captured content type</p>
+     */
+    protected String contentType;
+
+    /**
+     * <p>Captured entity tag</p>
+     */
+    protected String etag;
+
+    /**
+     * <p>Captured character encoding, null to use the wrapped responses</p>
+     */
+    protected String characterEncoding;
+
+    /**
+     * <p>Headers held back in the order they were set</p>
+     */
+    protected final List<Header> headers = new ArrayList<Header>();
+
+    /**
+     * <p>Cookies held back in the order they were added</p>
+     */
+    protected final List<Cookie> cookies = new ArrayList<Cookie>();
+
+    /**
+     * <p>Construct a new RpcBufferedResponse wrapping the given response</p>
+     *
+     * @param response
+     */
+    public RpcBufferedResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    public ServletOutputStream getOutputStream() {
+        if(outputStream == null) {
+            outputStream = new ServletOutputStream() {
+
+                public void write(int b) {
+                    buffer.write(b);
+                }
+
+                public void write(byte[] b, int off, int len) {
+                    buffer.write(b, off, len);
+                }
+
+            };
+        }
+        return outputStream;
+    }
+
+    public PrintWriter getWriter() throws IOException {
+        if(writer == null) {
+            writer = new PrintWriter(new OutputStreamWriter(buffer, getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    public void setContentType(String type) {
+        contentType = type;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentLength(int len) {
+    }
+
+    public void setCharacterEncoding(String charset) {
+        characterEncoding = charset;
+    }
+
+    public String getCharacterEncoding() {
+        return characterEncoding == null ? super.getCharacterEncoding() : characterEncoding;
+    }
+
+    public void setLocale(Locale loc) {
+    }
+
+    public void setBufferSize(int size) {
+    }
+
+    public void setHeader(String name, String value) {
+        if(name.equalsIgnoreCase(RpcETag.ETAG_HEADER)) {
+            etag = value;
+        }
+        else {
+            headers.add(new Header(name, value, false));
+        }
+    }
+
+    public void addHeader(String name, String value) {
+        if(name.equalsIgnoreCase(RpcETag.ETAG_HEADER)) {
+            etag = value;
+        }
+        else {
+            headers.add(new Header(name, value, true));
+        }
+    }
+
+    public void setDateHeader(String name, long date) {
+        headers.add(new Header(name, Long.valueOf(date), false));
+    }
+
+    public void addDateHeader(String name, long date) {
+        headers.add(new Header(name, Long.valueOf(date), true));
+    }
+
+    public void setIntHeader(String name, int value) {
+        headers.add(new Header(name, Integer.valueOf(value), false));
+    }
+
+    public void addIntHeader(String name, int value) {
+        headers.add(new Header(name, Integer.valueOf(value), true));
+    }
+
+    public boolean containsHeader(String name) {
+        if(name.equalsIgnoreCase(RpcETag.ETAG_HEADER)) {
+            return etag != null;
+        }
+        for(int i = 0; i < headers.size();  ++ i) {
+            if(headers.get(i).name.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void addCookie(Cookie cookie) {
+        cookies.add(cookie);
+    }
+
+    public void sendRedirect(String location) {
+        status = SC_FOUND;
+        headers.add(new Header("Location", location, false));
+    }
+
+    public void setStatus(int sc) {
+        status = sc;
+    }
+
+    public void setStatus(int sc, String sm) {
+        status = sc;
+    }
+
+    public void sendError(int sc) {
+        status = sc;
+    }
+
+    public void sendError(int sc, String msg) {
+        status = sc;
+    }
+
+    public void flushBuffer() {
+        if(writer != null) {
+            writer.flush();
+        }
+    }
+
+    public void resetBuffer() {
+        buffer.reset();
+    }
+
+    public void reset() {
+        buffer.reset();
+        status = SC_OK;
+        contentType = null;
+        etag = null;
+        headers.clear();
+        cookies.clear();
+    }
+
+    public boolean isCommitted() {
+        return false;
+    }
+
+    /**
+     * <p>Get the captured status code</p>
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * <p>Get the captured entity tag</p>
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * <p>Get the captured output</p>
+     */
+    public byte[] toByteArray() {
+        flushBuffer();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * <p>Get the captured status code, content type, entity tag and output as an immutable
+     * RpcCapturedResponse</p>
+     *
+     * @param exception did the invocation end with an exception
+     */
+    public RpcCapturedResponse toCapturedResponse(boolean exception) {
+        return new RpcCapturedResponse(status, contentType, etag, toByteArray(), exception);
+    }
+
+    /**
+     * <p>Set the held back headers and cookies on a response in the order they were set</p>
+     *
+     * <p>This must only be called from the thread that owns the response</p>
+     *
+     * @param response
+     */
+    public void applyHeaders(HttpServletResponse response) {
+        for(int i = 0; i < headers.size();  ++ i) {
+            headers.get(i).applyTo(response);
+        }
+        for(int i = 0; i < cookies.size();  ++ i) {
+            response.addCookie(cookies.get(i));
+        }
+    }
+
+    /**
+     * <p>A header held back, its value is a String, a Long date or an Integer</p>
+     */
+    protected static class Header {
+
+        /**
+         * <p>Header name</p>
+         */
+        protected final String name;
+
+        /**
+         * <p>Header value</p>
+         */
+        protected final Object value;
+
+        /**
+         * <p>Was the header added rather than set</p>
+         */
+        protected final boolean add;
+
+        /**
+         * <p>Construct a new Header</p>
+         *
+         * @param name
+         * @param value
+         * @param add
+         */
+        protected Header(String name, Object value, boolean add) {
+            this.name = name;
+            this.value = value;
+            this.add = add;
+        }
+
+        /**
+         * <p>Set or add the header on a response</p>
+         *
+         * @param response
+         */
+        protected void applyTo(HttpServletResponse response) {
+            if(value instanceof Long) {
+                long date = ((Long) value).longValue();
+                if(add) {
+                    response.addDateHeader(name, date);
+                }
+                else {
+                    response.setDateHeader(name, date);
+                }
+            }
+            else if(value instanceof Integer) {
+                int number = ((Integer) value).intValue();
+                if(add) {
+                    response.addIntHeader(name, number);
+                }
+                else {
+                    response.setIntHeader(name, number);
+                }
+            }
+            else if(add) {
+                response.addHeader(name, (String) value);
+            }
+            else {
+                response.setHeader(name, (String) value);
+            }
+        }
+
+    }
+
+}
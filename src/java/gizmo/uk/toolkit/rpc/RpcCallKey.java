@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>RpcCallKey identifies a remote method invocation by a scope, the MIME type and envelope of its response,
+ * the resolved method and its arguments</p>
+ *
+ * <p>Two keys are equal when their scopes, response types and envelopes are equal, they refer to the same
+ * RpcMethod instance and their argument lists are equal, so identical calls made by different requests share
+ * a key while calls answered in different formats do not</p>
+ *
+ * <p>The scope is the service object when coalescing invocations, which keeps calls on session and request
+ * scoped services apart, and the session id or null when caching responses</p>
+ *
+ * @author gareth bond
+ */
+public class RpcCallKey {
+
+    /**
+     * <p>Scope of the invocation, may be null</p>
+     */
+    protected final Object scope;
+
+    /**
+     * <p>MIME type of the response, may be null</p>
+     */
+    protected final String responseType;
+
+    /**
+     * <p>Is the response written in the compact envelope</p>
+     */
+    protected final boolean compact;
+
+    /**
+     * <p>Resolved method</p>
+     */
+    protected final RpcMethod method;
+
+    /**
+     * <p>Method arguments</p>
+     */
+    protected final List<Object> arguments;
+
+    /**
+     * <p>Hash code computed once on construction</p>
+     */
+    protected final int hash;
+
+    /**
+     * <p>Construct a new RpcCallKey</p>
+     *
+     * <p>The arguments list must not be modified while the key is in use</p>
+     *
+     * @param scope
+     * @param method
+     * @param arguments
+     */
+    public RpcCallKey(Object scope, RpcMethod method, List<Object> arguments) {
+        this(scope, null, method, arguments);
+    }
+
+    /**
+     * <p>Construct a new RpcCallKey for a response of a MIME type</p>
+     *
+     * <p>The arguments list must not be modified while the key is in use</p>
+     *
+     * @param scope
+     * @param responseType
+     * @param method
+     * @param arguments
+     */
+    public RpcCallKey(Object scope, String responseType, RpcMethod method, List<Object> arguments) {
+        this(scope, responseType, false, method, arguments);
+    }
+
+    /**
+     * <p>Construct a new RpcCallKey for a response of a MIME type and envelope</p>
+     *
+     * <p>The arguments list must not be modified while the key is in use</p>
+     *
+     * @param scope
+     * @param responseType
+     * @param compact
+     * @param method
+     * @param arguments
+     */
+    public RpcCallKey(Object scope, String responseType, boolean compact, RpcMethod method,
+                      List<Object> arguments) {
+        this.scope = scope;
+        this.responseType = responseType;
+        this.compact = compact;
+        this.method = method;
+        if(arguments == null) {
+            this.arguments = Collections.emptyList();
+        }
+        else {
+            this.arguments = arguments;
+        }
+        hash = ((((scope == null ? 0 : scope.hashCode()) * 31 +
+                (responseType == null ? 0 : responseType.hashCode())) * 31 + (compact ? 1 : 0)) * 31 +
+                method.hashCode()) * 31 + this.arguments.hashCode();
+    }
+
+    /**
+     * <p>Get the scope of the invocation</p>
+     */
+    public Object getScope() {
+        return scope;
+    }
+
+    /**
+     * <p>Get the MIME type of the response</p>
+     */
+    public String getResponseType() {
+        return responseType;
+    }
+
+    /**
+     * <p>Is the response written in the compact envelope</p>
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * <p>Get the resolved method</p>
+     */
+    public RpcMethod getMethod() {
+        return method;
+    }
+
+    /**
+     * <p>Get the method arguments</p>
+     */
+    public List<Object> getArguments() {
+        return arguments;
+    }
+
+    public int hashCode() {
+        return hash;
+    }
+
+    public boolean equals(Object object) {
+        if(object == this) {
+            return true;
+        }
+        if( ! (object instanceof RpcCallKey)) {
+            return false;
+        }
+        RpcCallKey key = (RpcCallKey) object;
+        return hash == key.hash && method == key.method && compact == key.compact &&
+               (scope == null ? key.scope == null : scope.equals(key.scope)) &&
+               (responseType == null ? key.responseType == null : responseType.equals(key.responseType)) &&
+               arguments.equals(key.arguments);
+    }
+
+}
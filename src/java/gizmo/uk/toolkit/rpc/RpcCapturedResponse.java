@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * <p>RpcCapturedResponse holds the status code, content type, entity tag and output of a remote method
+ * invocation that has already been written</p>
+ *
+ * <p>RpcCapturedResponse instances are immutable so the same response can be written to any number of
+ * HTTP responses, from several threads, for coalesced invocations and cached responses</p>
+ *
+ * <p>The output compressed with each content coding is kept once it has been needed so a cached response is
+ * only compressed once, as compressing is repeatable concurrent writers may compress it twice without
+ * harm</p>
+ *
+ * @author gareth bond
+ */
+public class RpcCapturedResponse {
+
+    /**
+     * <p>Captured status code</p>
+     */
+    protected final int status;
+
+    /**
+     * <p>Captured content type, may be null</p>
+     */
+    protected final String contentType;
+
+    /**
+     * <p>Captured entity tag, may be null</p>
+     */
+    protected final String etag;
+
+    /**
+     * <p>Captured output</p>
+     */
+    protected final byte[] body;
+
+    /**
+     * <p>Did the invocation end with an exception</p>
+     */
+    protected final boolean exception;
+
+    /**
+     * <p>Output compressed with gzip, null until it is needed</p>
+     */
+    protected volatile byte[] gzipBody;
+
+    /**
+     * <p>Output compressed with deflate, null until it is needed</p>
+     */
+    protected volatile byte[] deflateBody;
+
+    /**
+     * <p>Construct a new RpcCapturedResponse, the body must not be modified afterwards</p>
+     *
+     * @param status
+     * @param contentType
+     * @param etag
+     * @param body
+     * @param exception
+     */
+    public RpcCapturedResponse(int status, String contentType, String etag, byte[] body, boolean exception) {
+        this.status = status;
+        this.contentType = contentType;
+        this.etag = etag;
+        this.body = body;
+        this.exception = exception;
+    }
+
+    /**
+     * <p>Get the captured status code</p>
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * <p>Get the captured content type</p>
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * <p>Get the captured entity tag</p>
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * <p>Get the length of the captured output in bytes</p>
+     */
+    public int getLength() {
+        return body.length;
+    }
+
+    /**
+     * <p>Did the invocation end with an exception</p>
+     */
+    public boolean isException() {
+        return exception;
+    }
+
+    /**
+     * <p>Can the response be stored and replayed to later requests, i.e. the invocation returned normally
+     * and the status code is HTTP 200</p>
+     */
+    public boolean isCacheable() {
+        return  ! exception && status == HttpServletResponse.SC_OK;
+    }
+
+    /**
+     * <p>Write the captured status code, content type, entity tag and output to an HTTP response, the output
+     * is written in one go with its Content-Length</p>
+     *
+     * <p>If the HTTP response is an RpcCompressedResponse and the output is large enough it is written
+     * compressed</p>
+     *
+     * <p>If the requests If-None-Match header matches the entity tag then HTTP 304 is sent with no
+     * output</p>
+     *
+     * @param request
+     * @param response
+     * @throws IOException
+     */
+    public void writeTo(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if(etag != null) {
+            response.setHeader(RpcETag.ETAG_HEADER, etag);
+            if(status == HttpServletResponse.SC_OK && RpcETag.isNotModified(request, etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+        if(status != HttpServletResponse.SC_OK) {
+            response.setStatus(status);
+        }
+        if(contentType != null) {
+            response.setContentType(contentType);
+        }
+        if(response instanceof RpcCompressedResponse) {
+            RpcCompressedResponse compressedResponse = (RpcCompressedResponse) response;
+            if(compressedResponse.shouldCompress(body.length)) {
+                compressedResponse.writeEncoded(getEncodedBody(compressedResponse.getCompressor(),
+                        compressedResponse.getEncoding()));
+                return;
+            }
+        }
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    /**
+     * <p>Get the output compressed with a content coding, compressing it the first time it is needed</p>
+     *
+     * @param compressor
+     * @param encoding
+     */
+    public byte[] getEncodedBody(RpcCompressor compressor, String encoding) {
+        if(encoding.equals(RpcCompressor.GZIP)) {
+            byte[] encoded = gzipBody;
+            if(encoded == null) {
+                encoded = compressor.compress(encoding, body, 0, body.length);
+                gzipBody = encoded;
+            }
+            return encoded;
+        }
+        byte[] encoded = deflateBody;
+        if(encoded == null) {
+            encoded = compressor.compress(encoding, body, 0, body.length);
+            deflateBody = encoded;
+        }
+        return encoded;
+    }
+
+}
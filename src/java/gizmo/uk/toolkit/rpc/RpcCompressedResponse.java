@@ -0,0 +1,256 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * <p>RpcCompressedResponse compresses a response with the content coding negotiated for the request once it
+ * is large enough to be worth it</p>
+ *
+ * <p>When a handler sets a Content-Length below the compression threshold its output goes straight through
+ * uncompressed, otherwise output is held back until finish() is called and then either compressed and sent
+ * with the compressed Content-Length or, if it turned out to be small, sent as it is</p>
+ *
+ * <p>A compressed response is a different representation of the same content so its ETag is made weak, as
+ * RpcETag compares If-None-Match weakly conditional requests still match it</p>
+ *
+ * @author gareth bond
+ */
+public class RpcCompressedResponse extends HttpServletResponseWrapper {
+
+    /**
+     * <p>Compressor used for the response</p>
+     */
+    protected final RpcCompressor compressor;
+
+    /**
+     * <p>Negotiated content coding</p>
+     */
+    protected final String encoding;
+
+    /**
+     * <p>Output held back until finish() is called, null if there is none</p>
+     */
+    protected RpcOutputBuffer buffer;
+
+    /**
+     * <p>Does output go straight to the wrapped response</p>
+     */
+    protected boolean passThrough;
+
+    /**
+     * <p>Entity tag set on the response</p>
+     */
+    protected String etag;
+
+    /**
+     * <p>ServletOutputStream for the response, created on demand</p>
+     */
+    protected ServletOutputStream outputStream;
+
+    /**
+     * <p>PrintWriter for the response, created on demand</p>
+     */
+    protected PrintWriter writer;
+
+    /**
+     * <p>Construct a new RpcCompressedResponse</p>
+     *
+     * @param response
+     * @param compressor
+     * @param encoding
+     */
+    public RpcCompressedResponse(HttpServletResponse response, RpcCompressor compressor, String encoding) {
+        super(response);
+        this.compressor = compressor;
+        this.encoding = encoding;
+    }
+
+    /**
+     * <p>Get the compressor used for the response</p>
+     */
+    public RpcCompressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * <p>Get the negotiated content coding</p>
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * <p>Is a response body of the given size compressed</p>
+     *
+     * @param length
+     */
+    public boolean shouldCompress(int length) {
+        return compressor.shouldCompress(length);
+    }
+
+    public void setContentLength(int len) {
+        if(buffer == null &&  ! compressor.shouldCompress(len)) {
+            passThrough = true;
+            super.setContentLength(len);
+        }
+    }
+
+    public void setHeader(String name, String value) {
+        if(name.equalsIgnoreCase(RpcETag.ETAG_HEADER)) {
+            etag = value;
+        }
+        super.setHeader(name, value);
+    }
+
+    public void addHeader(String name, String value) {
+        if(name.equalsIgnoreCase(RpcETag.ETAG_HEADER)) {
+            etag = value;
+        }
+        super.addHeader(name, value);
+    }
+
+    public ServletOutputStream getOutputStream() {
+        if(outputStream == null) {
+            outputStream = new ServletOutputStream() {
+
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if(passThrough) {
+                        getResponse().getOutputStream().write(b, off, len);
+                    }
+                    else {
+                        if(buffer == null) {
+                            buffer = new RpcOutputBuffer(RpcBufferPool.getShared(), len);
+                        }
+                        buffer.writeBytes(b, off, len);
+                    }
+                }
+
+            };
+        }
+        return outputStream;
+    }
+
+    public PrintWriter getWriter() throws IOException {
+        if(writer == null) {
+            writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    public void flushBuffer() throws IOException {
+        if(writer != null) {
+            writer.flush();
+        }
+        if(passThrough) {
+            super.flushBuffer();
+        }
+    }
+
+    public void resetBuffer() {
+        discard();
+        super.resetBuffer();
+    }
+
+    public void reset() {
+        discard();
+        super.reset();
+    }
+
+    public void sendError(int sc) throws IOException {
+        discard();
+        super.sendError(sc);
+    }
+
+    public void sendError(int sc, String msg) throws IOException {
+        discard();
+        super.sendError(sc, msg);
+    }
+
+    /**
+     * <p>Send output that is already compressed with the negotiated content coding</p>
+     *
+     * @param encoded
+     * @throws IOException
+     */
+    public void writeEncoded(byte[] encoded) throws IOException {
+        super.setHeader(RpcCompressor.CONTENT_ENCODING_HEADER, encoding);
+        if(etag != null &&  ! etag.startsWith("W/")) {
+            super.setHeader(RpcETag.ETAG_HEADER, "W/" + etag);
+        }
+        super.setContentLength(encoded.length);
+        getResponse().getOutputStream().write(encoded);
+        passThrough = true;
+    }
+
+    /**
+     * <p>Send any output held back, compressed if it is large enough</p>
+     *
+     * <p>Anything written afterwards goes straight to the wrapped response</p>
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        if(writer != null) {
+            writer.flush();
+        }
+        if(buffer == null) {
+            passThrough = true;
+            return;
+        }
+        try {
+            int size = buffer.size();
+            if(compressor.shouldCompress(size)) {
+                writeEncoded(compressor.compress(encoding, buffer.getBuffer(), 0, size));
+            }
+            else {
+                buffer.writeTo(getResponse());
+            }
+        }
+        finally {
+            discard();
+            passThrough = true;
+        }
+    }
+
+    /**
+     * <p>Discard any output held back</p>
+     */
+    protected void discard() {
+        if(buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
+    }
+
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <p>RpcCompressor compresses responses with the gzip or deflate content coding</p>
+ *
+ * <p>Only responses of at least the threshold size are compressed, smaller responses gain little and cost a
+ * compression each</p>
+ *
+ * <p>Deflater instances are expensive to create so a bounded number of them are pooled and reused, output is
+ * compressed into pooled buffers and only the compressed bytes are copied out</p>
+ *
+ * @author gareth bond
+ */
+public class RpcCompressor {
+
+    /**
+     * <p>The gzip content coding</p>
+     */
+    public static final String GZIP = "gzip";
+
+    /**
+     * <p>The deflate content coding, zlib format</p>
+     */
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * <p>HTTP request header listing the content codings a client accepts</p>
+     */
+    public static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+
+    /**
+     * <p>HTTP response header naming the content coding of the response</p>
+     */
+    public static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+
+    /**
+     * <p>HTTP response header naming the request headers a response depends on</p>
+     */
+    public static final String VARY_HEADER = "Vary";
+
+    /**
+     * <p>Default size in bytes a response must reach to be compressed</p>
+     */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    /**
+     * <p>Default compression level</p>
+     */
+    public static final int DEFAULT_LEVEL = 6;
+
+    /**
+     * <p>Maximum number of pooled Deflater instances of each kind</p>
+     */
+    protected static final int MAX_POOLED_DEFLATERS = 16;
+
+    /**
+     * <p>gzip header with no file name, modification time or extra fields</p>
+     */
+    protected static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    /**
+     * <p>Compression level</p>
+     */
+    protected final int level;
+
+    /**
+     * <p>Size in bytes a response must reach to be compressed</p>
+     */
+    protected final int threshold;
+
+    /**
+     * <p>Pooled Deflater instances writing raw deflate data for gzip</p>
+     */
+    protected final BlockingQueue<Deflater> gzipDeflaters =
+            new ArrayBlockingQueue<Deflater>(MAX_POOLED_DEFLATERS);
+
+    /**
+     * <p>Pooled Deflater instances writing zlib data for deflate</p>
+     */
+    protected final BlockingQueue<Deflater> deflateDeflaters =
+            new ArrayBlockingQueue<Deflater>(MAX_POOLED_DEFLATERS);
+
+    /**
+     * <p>Construct a new RpcCompressor</p>
+     *
+     * @param level
+     * @param threshold
+     */
+    public RpcCompressor(int level, int threshold) {
+        this.level = level;
+        this.threshold = threshold;
+    }
+
+    /**
+     * <p>Get the size in bytes a response must reach to be compressed</p>
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * <p>Is a response of the given size worth compressing</p>
+     *
+     * @param length
+     */
+    public boolean shouldCompress(int length) {
+        return length >= threshold;
+    }
+
+    /**
+     * <p>Choose the content coding to use for an Accept-Encoding header, gzip is preferred over deflate unless
+     * the client gives deflate a higher quality, returns null if the client accepts neither</p>
+     *
+     * @param acceptEncoding
+     */
+    public static String negotiate(String acceptEncoding) {
+        if(acceptEncoding == null || acceptEncoding.length() == 0) {
+            return null;
+        }
+        float gzip = -1;
+        float deflate = -1;
+        float any = -1;
+        String[] codings = acceptEncoding.split(",");
+        for(int i = 0; i < codings.length;  ++ i) {
+            String coding = codings[i];
+            float quality = 1;
+            int index = coding.indexOf(';');
+            if(index != -1) {
+                String parameter = coding.substring(index + 1).trim();
+                coding = coding.substring(0, index);
+                if(parameter.startsWith("q=")) {
+                    try {
+                        quality = Float.parseFloat(parameter.substring(2).trim());
+                    }
+                    catch(NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            coding = coding.trim();
+            if(coding.equalsIgnoreCase(GZIP) || coding.equalsIgnoreCase("x-gzip")) {
+                gzip = quality;
+            }
+            else if(coding.equalsIgnoreCase(DEFLATE)) {
+                deflate = quality;
+            }
+            else if(coding.equals("*")) {
+                any = quality;
+            }
+        }
+
+        //codings not named explicitly take the quality of '*'
+        if(gzip < 0) {
+            gzip = any;
+        }
+        if(deflate < 0) {
+            deflate = any;
+        }
+        if(gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        if(deflate > 0) {
+            return DEFLATE;
+        }
+        return null;
+    }
+
+    /**
+     * <p>Compress a range of bytes with a content coding and return the compressed bytes</p>
+     *
+     * @param encoding
+     * @param bytes
+     * @param offset
+     * @param length
+     */
+    public byte[] compress(String encoding, byte[] bytes, int offset, int length) {
+
+        boolean gzip = encoding.equals(GZIP);
+        BlockingQueue<Deflater> deflaters = gzip ? gzipDeflaters : deflateDeflaters;
+        Deflater deflater = deflaters.poll();
+        if(deflater == null) {
+            deflater = new Deflater(level, gzip);
+        }
+        RpcBufferPool pool = RpcBufferPool.getShared();
+        byte[] buffer = pool.getBytes(length / 2 + GZIP_HEADER.length + 8);
+        try {
+            int count = 0;
+            if(gzip) {
+                System.arraycopy(GZIP_HEADER, 0, buffer, 0, GZIP_HEADER.length);
+                count = GZIP_HEADER.length;
+            }
+
+            //deflate, doubling the buffer whenever it fills up
+            deflater.setInput(bytes, offset, length);
+            deflater.finish();
+            while( ! deflater.finished()) {
+                if(count == buffer.length) {
+                    byte[] grown = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, grown, 0, count);
+                    pool.release(buffer);
+                    buffer = grown;
+                }
+                count += deflater.deflate(buffer, count, buffer.length - count);
+            }
+
+            //gzip trailer holds the crc and length of the uncompressed bytes
+            if(gzip) {
+                if(count + 8 > buffer.length) {
+                    byte[] grown = new byte[count + 8];
+                    System.arraycopy(buffer, 0, grown, 0, count);
+                    pool.release(buffer);
+                    buffer = grown;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(bytes, offset, length);
+                count = writeInt(buffer, count, (int) crc.getValue());
+                count = writeInt(buffer, count, length);
+            }
+            byte[] compressed = new byte[count];
+            System.arraycopy(buffer, 0, compressed, 0, count);
+            return compressed;
+        }
+        finally {
+            pool.release(buffer);
+            deflater.reset();
+            if( ! deflaters.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * <p>Write an int in little endian byte order and return the index after it</p>
+     *
+     * @param buffer
+     * @param index
+     * @param value
+     */
+    protected static int writeInt(byte[] buffer, int index, int value) {
+        buffer[index ++] = (byte) value;
+        buffer[index ++] = (byte) (value >> 8);
+        buffer[index ++] = (byte) (value >> 16);
+        buffer[index ++] = (byte) (value >> 24);
+        return index;
+    }
+
+}
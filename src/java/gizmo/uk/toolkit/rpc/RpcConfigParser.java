@@ -48,6 +48,10 @@ import javax.servlet.ServletConfig;
  * 
  * <p>This method is then be used to configure the service by adding appropriate handlers</p>
  *
+ * <p>If the RpcDispatcherProcessor annotation processor generated an RpcDispatcher for the service class, found
+ * by appending 'RpcDispatcher' to its name, it is set on the services RpcHandlers instance before the dispatch
+ * table is built</p>
+ *
  * @author gareth bond
  */
 public class RpcConfigParser {
@@ -62,6 +66,11 @@ public class RpcConfigParser {
      */
     protected final String CONFIG_ARG_PROPS_FILE = "rpc-services-config";
 
+    /**
+     * <p>Suffix appended to a service class name to find its generated RpcDispatcher</p>
+     */
+    protected final String DISPATCHER_SUFFIX = "RpcDispatcher";
+
     /**
      * <p>Pass the services properties file and configures each service found</p>
      * 
@@ -118,6 +127,17 @@ public class RpcConfigParser {
                 //invoke the serice classes static '_config' method
                 configMethod.invoke(null, rpcHandlers);
 
+                //use the generated dispatcher unless '_configure' set one
+                if(rpcHandlers.getDispatcher() == null) {
+                    rpcHandlers.setDispatcher(loadDispatcher(serviceClass));
+                }
+
+                //build the dispatch table now the method declarations are known
+                rpcHandlers.setDispatchTable(new RpcDispatchTable(rpcHandlers));
+
+                //freeze the handlers into the pipeline invocations go through
+                rpcHandlers.freeze();
+
                 //add this serice and its RpcHandlers instance to the services map
                 handlers.put(serviceName, rpcHandlers);
             }
@@ -127,4 +147,24 @@ public class RpcConfigParser {
         }
     }
 
+    /**
+     * <p>Load the RpcDispatcher generated for a service class</p>
+     *
+     * <p>Returns null if no dispatcher was generated for the service class</p>
+     *
+     * @param serviceClass
+     * @throws Exception
+     */
+    protected RpcDispatcher loadDispatcher(Class serviceClass) throws Exception {
+        Class dispatcherClass;
+        try {
+            String dispatcherClassString = serviceClass.getName() + DISPATCHER_SUFFIX;
+            dispatcherClass = serviceClass.getClassLoader().loadClass(dispatcherClassString);
+        }
+        catch(ClassNotFoundException e) {
+            return null;
+        }
+        return (RpcDispatcher) dispatcherClass.newInstance();
+    }
+
 }
@@ -22,7 +22,6 @@
 package gizmo.uk.toolkit.rpc;
 
 import java.lang.reflect.Method;
-import java.util.Collections;
 import java.util.List;
 
 import javax.servlet.ServletConfig;
@@ -35,10 +34,12 @@ import javax.servlet.http.HttpServletResponse;
  * <p>An RpcContext instance is passed to all handlers registered with a service during a remote method
  * invocation</p>
  *
- * <p>The handler lists available here are unmodifiable<p>
+ * <p>An RpcContext only holds the fields that are specific to one invocation, everything else is read from
+ * the services RpcPipeline which is shared by all of its invocations. The handler lists and maps available
+ * here are therefore unmodifiable<p>
  * 
- * <p>Once a remote method invocation has occured the 'invoked' member will retain a reference to the method
- * that was invoked</p>
+ * <p>Once the requested method has been resolved the 'invoked' and 'rpcMethod' members will retain a reference
+ * to the method that is invoked</p>
  * 
  * @author gareth bond
  */
@@ -49,16 +50,6 @@ public class RpcContext {
      */
     protected ServletConfig servletConfig;
 
-    /**
-     * <p>Service name associated with this RpcContext instance</p>
-     */
-    protected String service;
-
-    /**
-     * <p>Service class associated with this RpcContext instance</p>
-     */
-    protected Class serviceClass;
-
     /**
      * <p>Method name associated with this RpcContext instance</p>
      */
@@ -75,34 +66,39 @@ public class RpcContext {
     protected HttpServletResponse response;
 
     /**
-     * <p>List of RpcTargetHandler instances associated with the service</p>
+     * <p>Pipeline of the service, the shared snapshot of its configuration</p>
      */
-    protected List<RpcTargetHandler> targetHandlers;
+    protected RpcPipeline pipeline;
 
     /**
-     * <p>List of RpcArgumentsHandler instances associated with the service</p>
+     * <p>MIME type the response is written as, null if the handler lists decide</p>
      */
-    protected List<RpcArgumentsHandler> argumentsHandlers;
+    protected String responseType;
 
     /**
-     * <p>List of RpcReturnValueHandler instances associated with the service</p>
+     * <p>Is the response written in the compact envelope</p>
      */
-    protected List<RpcReturnValueHandler> returnValueHandlers;
+    protected boolean compact;
 
     /**
-     * <p>List of RpcExceptionHandler instances associated with the service</p>
+     * <p>Invoked method reference retained</p>
      */
-    protected List<RpcExceptionHandler> exceptionHandlers;
+    protected Method invoked;
 
     /**
-     * <p>List of filter method names associated with the service</p>
+     * <p>Dispatch metadata of the method resolved for this invocation</p>
      */
-    protected List<String> filterMethods;
+    protected RpcMethod rpcMethod;
 
     /**
-     * <p>Invoked method reference retained</p>
+     * <p>AsyncContext the response is completed through, null when dispatching on the container thread</p>
      */
-    protected Method invoked;
+    protected RpcAsyncContext asyncContext;
+
+    /**
+     * <p>Maximum length of the request body in bytes</p>
+     */
+    protected int maxRequestBody = RpcRequestBody.DEFAULT_MAX_LENGTH;
 
     /**
      * <p>Contruct a new RpcContext</p>
@@ -118,16 +114,10 @@ public class RpcContext {
                          RpcHandlers handlers) {
 
         this.servletConfig = servletConfig;
-        service = handlers.getServiceName();
-        serviceClass = handlers.getServiceClass();
         this.method = method;
         this.request = request;
         this.response = response;
-        targetHandlers = Collections.unmodifiableList(handlers.getTargetHandlers());
-        argumentsHandlers = Collections.unmodifiableList(handlers.getArgumentsHandlers());
-        returnValueHandlers = Collections.unmodifiableList(handlers.getReturnValueHandlers());
-        exceptionHandlers = Collections.unmodifiableList(handlers.getExceptionHandlers());
-        filterMethods = Collections.unmodifiableList(handlers.getFilterMethods());
+        pipeline = handlers.getPipeline();
     }
 
     /**
@@ -144,11 +134,33 @@ public class RpcContext {
         return response;
     }
 
+    /**
+     * <p>Set the HttpServletRequest</p>
+     *
+     * <p>Used by RpcServlet to hide conditional headers while capturing the response of an invocation</p>
+     *
+     * @param request
+     */
+    protected void setRequest(HttpServletRequest request) {
+        this.request = request;
+    }
+
+    /**
+     * <p>Set the HttpServletResponse</p>
+     *
+     * <p>Used by RpcServlet to capture the response of a coalesced invocation</p>
+     *
+     * @param response
+     */
+    protected void setResponse(HttpServletResponse response) {
+        this.response = response;
+    }
+
     /**
      * <p>Get the service name</p>
      */
     public String getService() {
-        return service;
+        return pipeline.getServiceName();
     }
 
     /**
@@ -162,42 +174,118 @@ public class RpcContext {
      * <p>Get the list of RpcTargetHandler instances</p>
      */
     public List<RpcTargetHandler> getTargetHandlers() {
-        return targetHandlers;
+        return pipeline.getTargetHandlers();
     }
 
     /**
      * <p>Get the list of RpcArgumentsHandler instances</p>
      */
     public List<RpcArgumentsHandler> getArgumentsHandlers() {
-        return argumentsHandlers;
+        return pipeline.getArgumentsHandlers();
     }
 
     /**
      * <p>Get the list of RpcReturnValueHandler instances</p>
      */
     public List<RpcReturnValueHandler> getReturnValueHandlers() {
-        return returnValueHandlers;
+        return pipeline.getReturnValueHandlers();
     }
 
     /**
      * <p>Get the list of RpcExceptionHandler instances</p>
      */
     public List<RpcExceptionHandler> getExceptionHandlers() {
-        return exceptionHandlers;
+        return pipeline.getExceptionHandlers();
+    }
+
+    /**
+     * <p>Get the RpcArgumentsHandler instance registered for a MIME type, null if there is none</p>
+     *
+     * @param mimeType
+     */
+    public RpcArgumentsHandler getArgumentsHandler(String mimeType) {
+        return pipeline.getArgumentsHandler(mimeType);
+    }
+
+    /**
+     * <p>Get the RpcReturnValueHandler instance registered for a MIME type, null if there is none</p>
+     *
+     * @param mimeType
+     */
+    public RpcReturnValueHandler getReturnValueHandler(String mimeType) {
+        return pipeline.getReturnValueHandler(mimeType);
+    }
+
+    /**
+     * <p>Get the RpcExceptionHandler instance registered for a MIME type, null if there is none</p>
+     *
+     * @param mimeType
+     */
+    public RpcExceptionHandler getExceptionHandler(String mimeType) {
+        return pipeline.getExceptionHandler(mimeType);
+    }
+
+    /**
+     * <p>Get the MIME type the response is written as</p>
+     *
+     * <p>Returns null if the response is written by whichever handler in the handler lists accepts it</p>
+     */
+    public String getResponseType() {
+        return responseType;
+    }
+
+    /**
+     * <p>Set the MIME type the response is written as</p>
+     *
+     * @param responseType
+     */
+    public void setResponseType(String responseType) {
+        this.responseType = responseType;
+    }
+
+    /**
+     * <p>Is the response written in the compact envelope described by RpcEnvelope, without the service, method
+     * and timestamp</p>
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * <p>Set whether the response is written in the compact envelope</p>
+     *
+     * @param compact
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
     }
 
     /**
      * <p>Get the list of filtered method names</p>
      */
     public List<String> getFilterMethods() {
-        return filterMethods;
+        return pipeline.getFilterMethods();
+    }
+
+    /**
+     * <p>Get the dispatch table of the service classes methods</p>
+     */
+    public RpcDispatchTable getDispatchTable() {
+        return pipeline.getDispatchTable();
+    }
+
+    /**
+     * <p>Get the pipeline of the service</p>
+     */
+    public RpcPipeline getPipeline() {
+        return pipeline;
     }
 
     /**
      * <p>Get the service class</p>
      */
     public Class getServiceClass() {
-        return serviceClass;
+        return pipeline.getServiceClass();
     }
 
     /**
@@ -216,4 +304,66 @@ public class RpcContext {
         this.invoked = invoked;
     }
 
+    /**
+     * <p>Get the dispatch metadata of the resolved method</p>
+     *
+     * <p>Returns null until the method has been resolved</p>
+     */
+    public RpcMethod getRpcMethod() {
+        return rpcMethod;
+    }
+
+    /**
+     * <p>Set the dispatch metadata of the resolved method, also setting the invoked method reference</p>
+     *
+     * @param rpcMethod
+     */
+    public void setRpcMethod(RpcMethod rpcMethod) {
+        this.rpcMethod = rpcMethod;
+        this.invoked = rpcMethod.getMethod();
+    }
+
+    /**
+     * <p>Get the maximum length of the request body in bytes, arguments handlers pass this to
+     * RpcRequestBody</p>
+     */
+    public int getMaxRequestBody() {
+        return maxRequestBody;
+    }
+
+    /**
+     * <p>Set the maximum length of the request body in bytes</p>
+     *
+     * @param maxRequestBody
+     */
+    public void setMaxRequestBody(int maxRequestBody) {
+        this.maxRequestBody = maxRequestBody;
+    }
+
+    /**
+     * <p>Get the AsyncContext the response is completed through</p>
+     *
+     * <p>Returns null when dispatching on the container thread</p>
+     */
+    public RpcAsyncContext getAsyncContext() {
+        return asyncContext;
+    }
+
+    /**
+     * <p>Set the AsyncContext the response is completed through</p>
+     *
+     * @param asyncContext
+     */
+    public void setAsyncContext(RpcAsyncContext asyncContext) {
+        this.asyncContext = asyncContext;
+    }
+
+    /**
+     * <p>Has the response already been completed by the container, after an asynchronous timeout or error,
+     * in which case it must not be written to</p>
+     */
+    public boolean isResponseFinished() {
+        return asyncContext != null && asyncContext.isFinished();
+    }
+
 }
@@ -0,0 +1,379 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+/**
+ * <p>RpcDispatchTable is an immutable index of a service classes public methods keyed by method name and
+ * arity</p>
+ *
+ * <p>The table is built once when a service is registered so that a remote method invocation only needs a
+ * hash lookup followed by a parameter type check against each overload of the same arity</p>
+ *
+ * <p>Overloads are sorted so that primitive parameters are tried first, followed by concrete classes,
+ * interfaces and finally Object, which keeps overload resolution deterministic</p>
+ *
+ * <p>Each method is also given a numeric id, its position when the methods are ordered by name and then in
+ * overload order, so the ids only change when the service classes public methods do. Together with a schema
+ * version computed from every methods signature they let a client call a method by id</p>
+ *
+ * <p>The only mutable part of the table is a concurrent cache of resolved overloads keyed by method name and
+ * argument classes, so a call only scans the overloads the first time its argument classes are seen. Argument
+ * classes that match no overload of a known name are cached too, so repeated bad calls are not rescanned, but
+ * names the service class has no method for are never cached. The cache is emptied whenever it reaches
+ * MAX_RESOLVED entries, so clients sending ever different argument classes cannot grow it without bound and
+ * the signatures in use are cached again straight after</p>
+ *
+ * @author gareth bond
+ */
+public class RpcDispatchTable {
+
+    /**
+     * <p>Map of method names corresponding to overloads indexed by arity</p>
+     */
+    protected final Map<String, RpcMethod[][]> methods;
+
+    /**
+     * <p>Methods indexed by id</p>
+     */
+    protected final RpcMethod[] methodsById;
+
+    /**
+     * <p>Version of the schema the method ids belong to</p>
+     */
+    protected final int schemaVersion;
+
+    /**
+     * <p>Map of method names and argument classes corresponding to the method they resolve to, or UNRESOLVED if
+     * no method matches</p>
+     */
+    protected final ConcurrentMap<ResolutionKey, Object> resolved =
+            new ConcurrentHashMap<ResolutionKey, Object>();
+
+    /**
+     * <p>Construct a new RpcDispatchTable for the service class of an RpcHandlers instance excluding any
+     * filtered method names</p>
+     *
+     * @param handlers
+     */
+    protected RpcDispatchTable(RpcHandlers handlers) {
+
+        List<String> filterMethods = handlers.getFilterMethods();
+
+        //group public methods by name
+        Map<String, List<RpcMethod>> grouped = new HashMap<String, List<RpcMethod>>();
+        Method[] reflected = handlers.getServiceClass().getMethods();
+        for(int j = 0; j < reflected.length;  ++ j) {
+            String name = reflected[j].getName();
+            if(filterMethods.contains(name)) {
+                continue;
+            }
+            List<RpcMethod> overloads = grouped.get(name);
+            if(overloads == null) {
+                overloads = new ArrayList<RpcMethod>();
+                grouped.put(name, overloads);
+            }
+            overloads.add(new RpcMethod(reflected[j], handlers));
+        }
+
+        //index each group by arity
+        Map<String, RpcMethod[][]> index = new HashMap<String, RpcMethod[][]>();
+        Iterator<String> i = grouped.keySet().iterator();
+        while(i.hasNext()) {
+            String name = i.next();
+            List<RpcMethod> overloads = grouped.get(name);
+            Collections.sort(overloads, OVERLOAD_ORDER);
+
+            //overloads are sorted by arity so the last has the highest
+            int maxArity = overloads.get(overloads.size() - 1).getArity();
+            RpcMethod[][] byArity = new RpcMethod[maxArity + 1][];
+            int start = 0;
+            for(int arity = 0; arity <= maxArity;  ++ arity) {
+                int end = start;
+                while(end < overloads.size() && overloads.get(end).getArity() == arity) {
+                    end ++;
+                }
+                List<RpcMethod> selection = overloads.subList(start, end);
+                byArity[arity] = selection.toArray(new RpcMethod[selection.size()]);
+                start = end;
+            }
+            index.put(name, byArity);
+        }
+        methods = Collections.unmodifiableMap(index);
+
+        //number the methods in name and overload order
+        List<String> names = new ArrayList<String>(grouped.keySet());
+        Collections.sort(names);
+        List<RpcMethod> ordered = new ArrayList<RpcMethod>();
+        for(int j = 0; j < names.size();  ++ j) {
+            ordered.addAll(grouped.get(names.get(j)));
+        }
+        methodsById = ordered.toArray(new RpcMethod[ordered.size()]);
+        CRC32 signatures = new CRC32();
+        for(int id = 0; id < methodsById.length;  ++ id) {
+            methodsById[id].id = id;
+            String signature = methodsById[id].getSignature();
+            for(int x = 0; x < signature.length();  ++ x) {
+                char c = signature.charAt(x);
+                signatures.update(c >> 8);
+                signatures.update(c);
+            }
+        }
+        schemaVersion = (int) (signatures.getValue() & 0x7fffffff);
+    }
+
+    /**
+     * <p>Find the method matching the supplied name and argument classes</p>
+     *
+     * <p>Returns null if no matching method can be found</p>
+     *
+     * <p>The result is taken from the resolution cache when the same name and argument classes have been
+     * resolved before, names the service class has no method for are not cached as they are answered by a
+     * single lookup. The cache is emptied once it is full so the signatures in use are cached again</p>
+     *
+     * @param name
+     * @param argClasses
+     */
+    public RpcMethod getMethod(String name, Class[] argClasses) {
+        if( ! methods.containsKey(name)) {
+            return null;
+        }
+        Object method = resolved.get(new ResolutionKey(name, argClasses));
+        if(method == null) {
+            method = findMethod(name, argClasses);
+            if(method == null) {
+                method = UNRESOLVED;
+            }
+            //the size check is racy so the cache may overshoot its bound by the number of concurrent callers
+            if(resolved.size() >= MAX_RESOLVED) {
+                resolved.clear();
+            }
+            resolved.putIfAbsent(new ResolutionKey(name, argClasses.clone()), method);
+        }
+        return method == UNRESOLVED ? null : (RpcMethod) method;
+    }
+
+    /**
+     * <p>Find the method matching the supplied name and argument classes by testing each overload of the same
+     * arity in resolution order</p>
+     *
+     * <p>Returns null if no matching method can be found</p>
+     *
+     * @param name
+     * @param argClasses
+     */
+    protected RpcMethod findMethod(String name, Class[] argClasses) {
+        RpcMethod[] overloads = getOverloads(name, argClasses.length);
+        for(int i = 0; i < overloads.length;  ++ i) {
+            if(overloads[i].matches(argClasses)) {
+                return overloads[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * <p>Get the method with the given id</p>
+     *
+     * <p>Returns null if there is no method with the id</p>
+     *
+     * @param id
+     */
+    public RpcMethod getMethod(int id) {
+        if(id < 0 || id >= methodsById.length) {
+            return null;
+        }
+        return methodsById[id];
+    }
+
+    /**
+     * <p>Get all methods indexed by id, the returned array must not be modified</p>
+     */
+    public RpcMethod[] getMethods() {
+        return methodsById;
+    }
+
+    /**
+     * <p>Get the version of the schema the method ids belong to</p>
+     *
+     * <p>The version is computed from the signatures of all methods in id order, so a client holding method
+     * ids of an older version of the service can be told apart</p>
+     */
+    public int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    /**
+     * <p>Get the overloads for a method name and arity in resolution order</p>
+     *
+     * <p>Returns an empty array if there are no such overloads, the returned array must not be modified</p>
+     *
+     * @param name
+     * @param arity
+     */
+    public RpcMethod[] getOverloads(String name, int arity) {
+        RpcMethod[][] byArity = methods.get(name);
+        if(byArity == null || arity >= byArity.length) {
+            return NO_METHODS;
+        }
+        return byArity[arity];
+    }
+
+    /**
+     * <p>Does the service class have a public method with the given name</p>
+     *
+     * @param name
+     */
+    public boolean hasMethod(String name) {
+        return methods.containsKey(name);
+    }
+
+    /**
+     * <p>Empty overloads array</p>
+     */
+    protected static final RpcMethod[] NO_METHODS = new RpcMethod[0];
+
+    /**
+     * <p>Maximum number of resolutions cached before the cache is emptied</p>
+     */
+    protected static final int MAX_RESOLVED = 1024;
+
+    /**
+     * <p>Cached in place of a method for a name and argument classes that match no method</p>
+     */
+    protected static final Object UNRESOLVED = new Object();
+
+    /**
+     * <p>Key of the resolution cache, a method name and the classes of the arguments it is called with where a
+     * null class stands for a null argument</p>
+     */
+    protected static class ResolutionKey {
+
+        /**
+         * <p>Method name</p>
+         */
+        protected final String name;
+
+        /**
+         * <p>Argument classes</p>
+         */
+        protected final Class[] argClasses;
+
+        /**
+         * <p>Hash code computed once</p>
+         */
+        protected final int hash;
+
+        /**
+         * <p>Construct a new ResolutionKey</p>
+         *
+         * @param name
+         * @param argClasses
+         */
+        protected ResolutionKey(String name, Class[] argClasses) {
+            this.name = name;
+            this.argClasses = argClasses;
+            int h = name.hashCode();
+            for(int i = 0; i < argClasses.length;  ++ i) {
+                h = 31 * h + (argClasses[i] == null ? 0 : argClasses[i].hashCode());
+            }
+            hash = h;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if( ! (o instanceof ResolutionKey)) {
+                return false;
+            }
+            ResolutionKey other = (ResolutionKey) o;
+            if(hash != other.hash || argClasses.length != other.argClasses.length ||
+                ! name.equals(other.name)) {
+                return false;
+            }
+            for(int i = 0; i < argClasses.length;  ++ i) {
+                if(argClasses[i] != other.argClasses[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+    /**
+     * <p>Orders overloads of the same name by arity and then by parameter types, comparing each parameter by
+     * kind (primitive, class, interface, Object) and then by class name</p>
+     */
+    protected static final Comparator<RpcMethod> OVERLOAD_ORDER = new Comparator<RpcMethod>() {
+
+        public int compare(RpcMethod a, RpcMethod b) {
+            if(a.getArity() != b.getArity()) {
+                return a.getArity() < b.getArity() ? -1 : 1;
+            }
+            for(int i = 0; i < a.parameterTypes.length;  ++ i) {
+                Class typeA = a.parameterTypes[i];
+                Class typeB = b.parameterTypes[i];
+                int rank = getRank(typeA) - getRank(typeB);
+                if(rank != 0) {
+                    return rank;
+                }
+                int name = typeA.getName().compareTo(typeB.getName());
+                if(name != 0) {
+                    return name;
+                }
+            }
+            return a.method.getReturnType().getName().compareTo(b.method.getReturnType().getName());
+        }
+
+        private int getRank(Class type) {
+            if(type.isPrimitive()) {
+                return 0;
+            }
+            if(type == Object.class) {
+                return 3;
+            }
+            if(type.isInterface()) {
+                return 2;
+            }
+            return 1;
+        }
+
+    };
+
+}
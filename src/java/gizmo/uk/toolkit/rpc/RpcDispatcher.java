@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+/**
+ * <p>RpcDispatcher invokes the methods of a service class directly, without reflection</p>
+ *
+ * <p>Dispatchers are generated at compile time by the RpcDispatcherProcessor annotation processor, which
+ * names the dispatcher of a service class after it with the suffix 'RpcDispatcher'. RpcConfigParser sets the
+ * dispatcher on the services RpcHandlers when the class is present, otherwise methods are invoked through
+ * method handles</p>
+ *
+ * <p>Each method is looked up by its signature once, when the service is registered, and is then invoked by
+ * the index returned</p>
+ *
+ * @author gareth bond
+ */
+public interface RpcDispatcher {
+
+    /**
+     * <p>Get the index a method is invoked by, -1 if the dispatcher cannot invoke the method</p>
+     *
+     * @param signature the method signature in the format returned by RpcMethod.getSignature()
+     */
+    public int getIndex(String signature);
+
+    /**
+     * <p>Invoke a method on a target with the supplied arguments</p>
+     *
+     * <p>Returns whatever the method returns, null for a void method, and throws whatever the method
+     * throws</p>
+     *
+     * @param index
+     * @param target
+     * @param arguments
+     * @throws Throwable
+     */
+    public Object invoke(int index, Object target, Object[] arguments) throws Throwable;
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * <p>RpcETag computes entity tags for responses and evaluates the If-None-Match header of conditional
+ * requests</p>
+ *
+ * <p>Entity tags are a 64 bit FNV-1a hash of the responses content written as a quoted hexadecimal string,
+ * which is cheap to compute and changes whenever the content changes</p>
+ *
+ * @author gareth bond
+ */
+public class RpcETag {
+
+    /**
+     * <p>HTTP response header an entity tag is sent in</p>
+     */
+    public static final String ETAG_HEADER = "ETag";
+
+    /**
+     * <p>HTTP request header holding the entity tags a client already has</p>
+     */
+    public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+    /**
+     * <p>FNV-1a 64 bit offset basis</p>
+     */
+    protected static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    /**
+     * <p>FNV-1a 64 bit prime</p>
+     */
+    protected static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * <p>Compute the entity tag for some content</p>
+     *
+     * @param content
+     */
+    public static String compute(CharSequence content) {
+        long hash = FNV_OFFSET;
+        for(int i = 0; i < content.length();  ++ i) {
+            char c = content.charAt(i);
+            hash ^= c & 0xff;
+            hash *= FNV_PRIME;
+            hash ^= c >>> 8;
+            hash *= FNV_PRIME;
+        }
+        return toETag(hash);
+    }
+
+    /**
+     * <p>Compute the entity tag for content that has already been encoded</p>
+     *
+     * @param content
+     * @param offset
+     * @param length
+     */
+    public static String compute(byte[] content, int offset, int length) {
+        long hash = FNV_OFFSET;
+        int end = offset + length;
+        for(int i = offset; i < end;  ++ i) {
+            hash ^= content[i] & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return toETag(hash);
+    }
+
+    /**
+     * <p>Write a hash as a quoted hexadecimal entity tag</p>
+     *
+     * @param hash
+     */
+    protected static String toETag(long hash) {
+        String hex = Long.toHexString(hash);
+        StringBuilder etag = new StringBuilder(18);
+        etag.append('"');
+        for(int i = hex.length(); i < 16;  ++ i) {
+            etag.append('0');
+        }
+        etag.append(hex);
+        etag.append('"');
+        return etag.toString();
+    }
+
+    /**
+     * <p>Does the requests If-None-Match header match an entity tag, in which case the client already has the
+     * response and it need not be sent again</p>
+     *
+     * @param request
+     * @param etag
+     */
+    public static boolean isNotModified(HttpServletRequest request, String etag) {
+        return matches(request.getHeader(IF_NONE_MATCH_HEADER), etag);
+    }
+
+    /**
+     * <p>Does an If-None-Match header value match an entity tag</p>
+     *
+     * <p>The header value can be '*' or a comma separated list of entity tags, weak entity tags are compared
+     * without their 'W/' prefix</p>
+     *
+     * @param ifNoneMatch
+     * @param etag
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if(ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        int start = 0;
+        while(start < ifNoneMatch.length()) {
+            int end = ifNoneMatch.indexOf(',', start);
+            if(end == -1) {
+                end = ifNoneMatch.length();
+            }
+            String candidate = ifNoneMatch.substring(start, end).trim();
+            if(candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if(candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+}
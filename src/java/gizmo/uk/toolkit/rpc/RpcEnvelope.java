@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+/**
+ * <p>RpcEnvelope holds the names and values that select and make up compact responses</p>
+ *
+ * <p>A compact response leaves out the service, method and timestamp a full response repeats and is just an
+ * array of a status followed by the payload:</p>
+ * <pre>
+ * [0, [return-value]]
+ * [0]
+ * [1 / 2, [Java-Class], [String]]
+ * </pre>
+ *
+ * <p>The status is 0 when the method returned, followed by the return value unless the method is void, 1 when
+ * it threw an exception and 2 when it threw an error, followed by the class and message of the Throwable</p>
+ *
+ * @author gareth bond
+ */
+public class RpcEnvelope {
+
+    /**
+     * <p>HTTP request header a client chooses the response envelope with</p>
+     */
+    public static final String ENVELOPE_HEADER = "X-Rpc-Envelope";
+
+    /**
+     * <p>ENVELOPE_HEADER value asking for compact responses</p>
+     */
+    public static final String COMPACT = "compact";
+
+    /**
+     * <p>ENVELOPE_HEADER value asking for full responses</p>
+     */
+    public static final String FULL = "full";
+
+    /**
+     * <p>Status of a response to a method that returned normally</p>
+     */
+    public static final int STATUS_RETURN = 0;
+
+    /**
+     * <p>Status of a response to a method that threw an exception</p>
+     */
+    public static final int STATUS_EXCEPTION = 1;
+
+    /**
+     * <p>Status of a response to a method that threw an error</p>
+     */
+    public static final int STATUS_ERROR = 2;
+
+    /**
+     * <p>Get the status of a response to a method that threw the given Throwable</p>
+     *
+     * @param exception
+     */
+    public static int getStatus(Throwable exception) {
+        return exception instanceof Error ? STATUS_ERROR : STATUS_EXCEPTION;
+    }
+
+}
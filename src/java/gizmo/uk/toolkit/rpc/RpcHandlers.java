@@ -22,19 +22,30 @@
 package gizmo.uk.toolkit.rpc;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * <p>RpcHandlers collects together lists of RpcTargetHandler, RpcArgumentsHandler, RpcReturnValueHandler and
- * RpcExceptionHandler instances specific to the handling of a service object</p>
+ * RpcExceptionHandler instances specific to the handling of a service object, along with the RpcLockHandler
+ * instance that decides how concurrent invocations are locked</p>
  *
- * <p>RpcHandlers also stores the services name and class, and a list of filtered method names</p>
+ * <p>Handlers can also be registered for a MIME type, the handler for a requests content type or accepted
+ * response type is then looked up directly and the lists are only walked when there is none</p>
+ *
+ * <p>RpcHandlers also stores the services name and class, lists of filtered, read, coalesced and cached
+ * method names, the cache tags methods read and invalidate and the dispatch table used to look up the
+ * services methods</p>
  *
  * <p>An RpcHandlers instance is passed to a services static '_configure' method before the service gets
  * registered with the RpcServlet so that the service can register appropriate handlers</p>
  *
- * <p>The same RpcHandlers instance is then used to access these handlers during a remote method
- * invocation</p>
+ * <p>Once the service has been configured and its dispatch table built the RpcHandlers instance is frozen
+ * into an immutable RpcPipeline which remote method invocations use to access the handlers. Handlers and
+ * method declarations can no longer be added after that</p>
  *
  * @author gareth bond
  */
@@ -70,11 +81,89 @@ public class RpcHandlers {
      */
     protected List<RpcExceptionHandler> exceptionHandlers = new ArrayList<RpcExceptionHandler>();
 
+    /**
+     * <p>Map of MIME types corresponding to the RpcArgumentsHandler instance for request bodies of the type</p>
+     */
+    protected Map<String, RpcArgumentsHandler> argumentsHandlersByType =
+            new HashMap<String, RpcArgumentsHandler>();
+
+    /**
+     * <p>Map of MIME types corresponding to the RpcReturnValueHandler instance for responses of the type</p>
+     */
+    protected Map<String, RpcReturnValueHandler> returnValueHandlersByType =
+            new HashMap<String, RpcReturnValueHandler>();
+
+    /**
+     * <p>Map of MIME types corresponding to the RpcExceptionHandler instance for responses of the type</p>
+     */
+    protected Map<String, RpcExceptionHandler> exceptionHandlersByType =
+            new HashMap<String, RpcExceptionHandler>();
+
     /**
      * <p>List of filtered method names associated with the service</p>
      */
     protected List<String> filterMethods = new ArrayList<String>();
 
+    /**
+     * <p>List of read method names associated with the service</p>
+     */
+    protected List<String> readMethods = new ArrayList<String>();
+
+    /**
+     * <p>List of coalesced method names associated with the service</p>
+     */
+    protected List<String> coalesceMethods = new ArrayList<String>();
+
+    /**
+     * <p>Map of cached method names corresponding to the number of milliseconds responses are cached for</p>
+     */
+    protected Map<String, Long> cacheMethods = new HashMap<String, Long>();
+
+    /**
+     * <p>List of cached method names whose responses are kept apart for each session</p>
+     */
+    protected List<String> sessionCacheMethods = new ArrayList<String>();
+
+    /**
+     * <p>Map of method names corresponding to the cache tags their responses read</p>
+     */
+    protected Map<String, List<String>> cacheTags = new HashMap<String, List<String>>();
+
+    /**
+     * <p>Map of method names corresponding to the cache tags they invalidate</p>
+     */
+    protected Map<String, List<String>> invalidateTags = new HashMap<String, List<String>>();
+
+    /**
+     * <p>Dispatch table of the service classes methods, built once the service has been configured</p>
+     */
+    protected RpcDispatchTable dispatchTable;
+
+    /**
+     * <p>RpcDispatcher generated for the service class, null if methods are invoked through method handles</p>
+     */
+    protected RpcDispatcher dispatcher;
+
+    /**
+     * <p>Pipeline the service is invoked through, null until the RpcHandlers instance has been frozen</p>
+     */
+    protected RpcPipeline pipeline;
+
+    /**
+     * <p>RpcLockHandler instance associated with the service</p>
+     */
+    protected RpcLockHandler lockHandler;
+
+    /**
+     * <p>Are the services responses compact unless a request asks for full ones</p>
+     */
+    protected boolean compactResponses;
+
+    /**
+     * <p>Lock used for all invocations on the service when no RpcLockHandler has been set</p>
+     */
+    protected final Lock serviceLock = new ReentrantLock();
+
     /**
      * <p>Construct a RpcHandlers instance for a given service name and class</p>
      * 
@@ -99,9 +188,161 @@ public class RpcHandlers {
      * @param method
      */
     public boolean addFilterMethod(String method) {
+        checkConfigurable();
         return filterMethods.add(method);
     }
 
+    /**
+     * <p>Get the list of read method names</p>
+     */
+    protected List<String> getReadMethods() {
+        return readMethods;
+    }
+
+    /**
+     * <p>Add a read method name</p>
+     *
+     * <p>Read methods only read the service objects state so RpcLockHandler instances may let them run
+     * concurrently, see RpcLockPolicy.READ_WRITE</p>
+     *
+     * @param method
+     */
+    public boolean addReadMethod(String method) {
+        checkConfigurable();
+        return readMethods.add(method);
+    }
+
+    /**
+     * <p>Get the list of coalesced method names</p>
+     */
+    protected List<String> getCoalesceMethods() {
+        return coalesceMethods;
+    }
+
+    /**
+     * <p>Add a coalesced method name</p>
+     *
+     * <p>Concurrent invocations of a coalesced method on the same service object with equal arguments are
+     * run once and the response is written to every waiting request, so coalesced methods should not
+     * change the service objects state</p>
+     *
+     * @param method
+     */
+    public boolean addCoalesceMethod(String method) {
+        checkConfigurable();
+        return coalesceMethods.add(method);
+    }
+
+    /**
+     * <p>Get the map of cached method names corresponding to their time to live in milliseconds</p>
+     */
+    protected Map<String, Long> getCacheMethods() {
+        return cacheMethods;
+    }
+
+    /**
+     * <p>Get the list of cached method names whose responses are kept apart for each session</p>
+     */
+    protected List<String> getSessionCacheMethods() {
+        return sessionCacheMethods;
+    }
+
+    /**
+     * <p>Add a cached method name</p>
+     *
+     * <p>Successful responses of a cached method are stored in the RpcServlets RpcResponseCache for the given
+     * number of milliseconds and written to identical invocations instead of invoking the service object,
+     * so cached methods should not change the service objects state</p>
+     *
+     * @param method
+     * @param ttl
+     */
+    public void addCacheMethod(String method, long ttl) {
+        addCacheMethod(method, ttl, false);
+    }
+
+    /**
+     * <p>Add a cached method name, optionally keeping cached responses apart for each session</p>
+     *
+     * <p>Session scoped services, or methods whose response depends on the session, should keep their cached
+     * responses apart for each session</p>
+     *
+     * @param method
+     * @param ttl
+     * @param perSession
+     */
+    public void addCacheMethod(String method, long ttl, boolean perSession) {
+        checkConfigurable();
+        cacheMethods.put(method, Long.valueOf(ttl));
+        if(perSession) {
+            sessionCacheMethods.add(method);
+        }
+        else {
+            sessionCacheMethods.remove(method);
+        }
+    }
+
+    /**
+     * <p>Get the map of method names corresponding to the cache tags their responses read</p>
+     */
+    protected Map<String, List<String>> getCacheTags() {
+        return cacheTags;
+    }
+
+    /**
+     * <p>Add cache tags read by a cached method</p>
+     *
+     * <p>Cached responses of the method are evicted whenever a method that invalidates one of its tags
+     * returns normally</p>
+     *
+     * @param method
+     * @param tags
+     */
+    public void addCacheTags(String method, String... tags) {
+        checkConfigurable();
+        addTags(cacheTags, method, tags);
+    }
+
+    /**
+     * <p>Get the map of method names corresponding to the cache tags they invalidate</p>
+     */
+    protected Map<String, List<String>> getInvalidateTags() {
+        return invalidateTags;
+    }
+
+    /**
+     * <p>Add cache tags invalidated by a method that changes the service objects state</p>
+     *
+     * <p>Each time the method returns normally all cached responses that read one of the tags are evicted</p>
+     *
+     * @param method
+     * @param tags
+     */
+    public void addInvalidateTags(String method, String... tags) {
+        checkConfigurable();
+        addTags(invalidateTags, method, tags);
+    }
+
+    /**
+     * <p>Add tags to the list held for a method name in a map of tags</p>
+     *
+     * @param map
+     * @param method
+     * @param tags
+     */
+    protected void addTags(Map<String, List<String>> map, String method, String[] tags) {
+        List<String> list = map.get(method);
+        if(list == null) {
+            list = new ArrayList<String>();
+            map.put(method, list);
+        }
+        for(int i = 0; i < tags.length;  ++ i) {
+            if( ! list.contains(tags[i])) {
+                list.add(tags[i]);
+            }
+        }
+    }
+
     /**
      * <p>Get the list of RpcTargetHandler instances</p>
      */
@@ -136,6 +377,7 @@ public class RpcHandlers {
      * @param handler
      */
     public boolean addExceptionHandler(RpcExceptionHandler handler) {
+        checkConfigurable();
         return exceptionHandlers.add(handler);
     }
 
@@ -145,6 +387,7 @@ public class RpcHandlers {
      * @param handler
      */
     public boolean addArgumentsHandler(RpcArgumentsHandler handler) {
+        checkConfigurable();
         return argumentsHandlers.add(handler);
     }
 
@@ -154,18 +397,192 @@ public class RpcHandlers {
      * @param handler
      */
     public boolean addReturnValueHandler(RpcReturnValueHandler handler) {
+        checkConfigurable();
         return returnValueHandlers.add(handler);
     }
 
+    /**
+     * <p>Get the map of MIME types corresponding to RpcArgumentsHandler instances</p>
+     */
+    protected Map<String, RpcArgumentsHandler> getArgumentsHandlersByType() {
+        return argumentsHandlersByType;
+    }
+
+    /**
+     * <p>Get the map of MIME types corresponding to RpcReturnValueHandler instances</p>
+     */
+    protected Map<String, RpcReturnValueHandler> getReturnValueHandlersByType() {
+        return returnValueHandlersByType;
+    }
+
+    /**
+     * <p>Get the map of MIME types corresponding to RpcExceptionHandler instances</p>
+     */
+    protected Map<String, RpcExceptionHandler> getExceptionHandlersByType() {
+        return exceptionHandlersByType;
+    }
+
+    /**
+     * <p>Add an RpcArgumentsHandler instance for request bodies posted with a MIME type</p>
+     *
+     * <p>It is used for requests of that content type instead of walking the list of RpcArgumentsHandler
+     * instances</p>
+     *
+     * @param mimeType
+     * @param handler
+     */
+    public void addArgumentsHandler(String mimeType, RpcArgumentsHandler handler) {
+        checkConfigurable();
+        argumentsHandlersByType.put(mimeType.toLowerCase(), handler);
+    }
+
+    /**
+     * <p>Add an RpcReturnValueHandler instance for responses of a MIME type</p>
+     *
+     * <p>It is used for requests that accept, or are posted with, that MIME type instead of walking the list
+     * of RpcReturnValueHandler instances</p>
+     *
+     * @param mimeType
+     * @param handler
+     */
+    public void addReturnValueHandler(String mimeType, RpcReturnValueHandler handler) {
+        checkConfigurable();
+        returnValueHandlersByType.put(mimeType.toLowerCase(), handler);
+    }
+
+    /**
+     * <p>Add an RpcExceptionHandler instance for responses of a MIME type</p>
+     *
+     * <p>It is used for requests whose return values are written with that MIME type instead of walking the
+     * list of RpcExceptionHandler instances</p>
+     *
+     * @param mimeType
+     * @param handler
+     */
+    public void addExceptionHandler(String mimeType, RpcExceptionHandler handler) {
+        checkConfigurable();
+        exceptionHandlersByType.put(mimeType.toLowerCase(), handler);
+    }
+
     /**
      * <p>Add an RpcTargetHandler instance</p>
      *
      * @param handler
      */
     public boolean addTargetHandler(RpcTargetHandler handler) {
+        checkConfigurable();
         return targetHandlers.add(handler);
     }
 
+    /**
+     * <p>Get the RpcLockHandler instance</p>
+     */
+    protected RpcLockHandler getLockHandler() {
+        return lockHandler;
+    }
+
+    /**
+     * <p>Set the RpcLockHandler instance</p>
+     *
+     * <p>If no RpcLockHandler is set then all invocations on the service are locked one at a time</p>
+     *
+     * @param handler
+     */
+    public void setLockHandler(RpcLockHandler handler) {
+        checkConfigurable();
+        this.lockHandler = handler;
+    }
+
+    /**
+     * <p>Are the services responses compact unless a request asks for full ones</p>
+     */
+    protected boolean isCompactResponses() {
+        return compactResponses;
+    }
+
+    /**
+     * <p>Set whether the services responses are compact, leaving out the service, method and timestamp, unless
+     * a request asks for full ones with its X-Rpc-Envelope header</p>
+     *
+     * @param compactResponses
+     */
+    public void setCompactResponses(boolean compactResponses) {
+        checkConfigurable();
+        this.compactResponses = compactResponses;
+    }
+
+    /**
+     * <p>Get the lock used for all invocations when no RpcLockHandler has been set</p>
+     */
+    protected Lock getServiceLock() {
+        return serviceLock;
+    }
+
+    /**
+     * <p>Get the dispatch table of the service classes methods</p>
+     */
+    public RpcDispatchTable getDispatchTable() {
+        return dispatchTable;
+    }
+
+    /**
+     * <p>Set the dispatch table of the service classes methods</p>
+     *
+     * @param dispatchTable
+     */
+    protected void setDispatchTable(RpcDispatchTable dispatchTable) {
+        this.dispatchTable = dispatchTable;
+    }
+
+    /**
+     * <p>Get the RpcDispatcher invoking the service classes methods</p>
+     *
+     * <p>Returns null if methods are invoked through method handles</p>
+     */
+    public RpcDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * <p>Set the RpcDispatcher invoking the service classes methods</p>
+     *
+     * <p>RpcConfigParser sets the dispatcher generated for the service class if there is one and none has been
+     * set in the services '_configure' method</p>
+     *
+     * @param dispatcher
+     */
+    public void setDispatcher(RpcDispatcher dispatcher) {
+        checkConfigurable();
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * <p>Get the pipeline the service is invoked through</p>
+     *
+     * <p>Returns null until the RpcHandlers instance has been frozen</p>
+     */
+    public RpcPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * <p>Freeze the handlers into the pipeline the service is invoked through</p>
+     *
+     * <p>Used by RpcConfigParser once the services dispatch table has been built</p>
+     */
+    protected void freeze() {
+        pipeline = new RpcPipeline(this);
+    }
+
+    /**
+     * <p>Throws an RpcError if the RpcHandlers instance has been frozen and can no longer be configured</p>
+     */
+    protected void checkConfigurable() {
+        if(pipeline != null) {
+            throw new RpcError(RpcMessages.getMessage("handlersFrozen", service));
+        }
+    }
+
     /**
      * <p>Get the service name</p>
      */
@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * <p>RpcLockHandler defines which lock, if any, must be held while a remote method is invoked on a service
+ * object</p>
+ *
+ * <p>Only the method invocation runs while the lock is held, argument handling, the target lookup and writing
+ * the HTTP response always happen outside of it, so an RpcTargetHandler must guard the creation of its own
+ * service objects</p>
+ *
+ * <p>Typically this is implemented by an RpcTargetHandler as the locking required depends on how service
+ * objects are shared between requests</p>
+ *
+ * @author gareth bond
+ */
+public interface RpcLockHandler {
+
+    /**
+     * <p>Get the lock to hold for the remote method invocation</p>
+     *
+     * <p>Return null if the invocation does not need to be locked</p>
+     *
+     * @param context
+     */
+    public Lock getLock(RpcContext context);
+
+}
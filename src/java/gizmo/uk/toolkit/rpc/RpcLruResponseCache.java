@@ -0,0 +1,301 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>RpcResponseCache implementation holding a bounded number of responses, evicting the least recently used
+ * response once full</p>
+ *
+ * <p>Each response expires after the time to live it was stored with, expired responses are removed when
+ * they are next looked up or evicted</p>
+ *
+ * <p>Keys are indexed by the cache tags their responses read so invalidating a tag only touches the affected
+ * responses</p>
+ *
+ * <p>The map is guarded by a java.util.concurrent lock rather than a monitor so that lookups from virtual
+ * threads do not pin their carrier thread</p>
+ *
+ * @author gareth bond
+ */
+public class RpcLruResponseCache implements RpcResponseCache {
+
+    /**
+     * <p>Default maximum number of responses</p>
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /**
+     * <p>Maximum number of responses</p>
+     */
+    protected final int maxEntries;
+
+    /**
+     * <p>Access ordered map of keys corresponding to cache entries</p>
+     */
+    protected final Map<RpcCallKey, Entry> entries;
+
+    /**
+     * <p>Map of cache tags corresponding to the keys of the responses that read them</p>
+     */
+    protected final Map<String, Set<RpcCallKey>> tagIndex = new HashMap<String, Set<RpcCallKey>>();
+
+    /**
+     * <p>Map of cache tags corresponding to the invalidation sequence they were last invalidated at</p>
+     */
+    protected final Map<String, Long> invalidated = new HashMap<String, Long>();
+
+    /**
+     * <p>Invalidation sequence the cache was last cleared at</p>
+     */
+    protected long cleared;
+
+    /**
+     * <p>Invalidation sequence, only incremented while holding the lock</p>
+     */
+    protected final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * <p>Lock guarding the entries map, tag index and invalidation sequences</p>
+     */
+    protected final Lock lock = new ReentrantLock();
+
+    /**
+     * <p>Number of lookups that found a response</p>
+     */
+    protected final AtomicLong hits = new AtomicLong();
+
+    /**
+     * <p>Number of lookups that did not find a response</p>
+     */
+    protected final AtomicLong misses = new AtomicLong();
+
+    /**
+     * <p>Construct a new RpcLruResponseCache holding up to DEFAULT_MAX_ENTRIES responses</p>
+     */
+    public RpcLruResponseCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * <p>Construct a new RpcLruResponseCache holding up to the given number of responses</p>
+     *
+     * @param maxEntries
+     */
+    public RpcLruResponseCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        entries = new LinkedHashMap<RpcCallKey, Entry>(16, 0.75f, true) {
+
+            protected boolean removeEldestEntry(Map.Entry<RpcCallKey, Entry> eldest) {
+                if(size() > RpcLruResponseCache.this.maxEntries) {
+                    unindex(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+
+        };
+    }
+
+    public RpcCapturedResponse get(RpcCallKey key) {
+        Entry entry;
+        lock.lock();
+        try {
+            entry = entries.get(key);
+            if(entry != null && entry.isExpired(System.currentTimeMillis())) {
+                entries.remove(key);
+                unindex(key, entry);
+                entry = null;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        if(entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.response;
+    }
+
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    public void put(RpcCallKey key, RpcCapturedResponse response, long ttl, String[] tags, long sequence) {
+        Entry entry = new Entry(response, System.currentTimeMillis() + ttl, tags);
+        lock.lock();
+        try {
+
+            //the response may be stale if one of its tags has been invalidated since it was read
+            if(sequence < cleared) {
+                return;
+            }
+            for(int i = 0; i < tags.length;  ++ i) {
+                Long last = invalidated.get(tags[i]);
+                if(last != null && sequence < last.longValue()) {
+                    return;
+                }
+            }
+            Entry previous = entries.put(key, entry);
+            if(previous != null) {
+                unindex(key, previous);
+            }
+            for(int i = 0; i < tags.length;  ++ i) {
+                Set<RpcCallKey> keys = tagIndex.get(tags[i]);
+                if(keys == null) {
+                    keys = new HashSet<RpcCallKey>();
+                    tagIndex.put(tags[i], keys);
+                }
+                keys.add(key);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(String tag) {
+        lock.lock();
+        try {
+            invalidated.put(tag, Long.valueOf(sequence.incrementAndGet()));
+            Set<RpcCallKey> keys = tagIndex.remove(tag);
+            if(keys != null) {
+                Iterator<RpcCallKey> i = keys.iterator();
+                while(i.hasNext()) {
+                    RpcCallKey key = i.next();
+                    Entry entry = entries.remove(key);
+                    if(entry != null) {
+                        unindex(key, entry);
+                    }
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            cleared = sequence.incrementAndGet();
+            entries.clear();
+            tagIndex.clear();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * <p>Remove a key from the tag index entries of the cache tags its response reads, must be called while
+     * holding the lock</p>
+     *
+     * @param key
+     * @param entry
+     */
+    protected void unindex(RpcCallKey key, Entry entry) {
+        for(int i = 0; i < entry.tags.length;  ++ i) {
+            Set<RpcCallKey> keys = tagIndex.get(entry.tags[i]);
+            if(keys != null) {
+                keys.remove(key);
+                if(keys.isEmpty()) {
+                    tagIndex.remove(entry.tags[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Cached response along with the time it expires and the cache tags it reads</p>
+     */
+    protected static class Entry {
+
+        /**
+         * <p>Cached response</p>
+         */
+        protected final RpcCapturedResponse response;
+
+        /**
+         * <p>Time the response expires in milliseconds</p>
+         */
+        protected final long expires;
+
+        /**
+         * <p>Cache tags the response reads</p>
+         */
+        protected final String[] tags;
+
+        /**
+         * <p>Construct a new Entry</p>
+         *
+         * @param response
+         * @param expires
+         * @param tags
+         */
+        protected Entry(RpcCapturedResponse response, long expires, String[] tags) {
+            this.response = response;
+            this.expires = expires;
+            this.tags = tags;
+        }
+
+        /**
+         * <p>Has the response expired at the given time</p>
+         *
+         * @param now
+         */
+        protected boolean isExpired(long now) {
+            return now >= expires;
+        }
+
+    }
+
+}
@@ -0,0 +1,453 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+/**
+ * <p>RpcMethod holds the dispatch metadata for a single public method of a service class</p>
+ *
+ * <p>RpcMethod instances are created once when a service is registered and are immutable, so they can be
+ * shared between concurrent remote method invocations</p>
+ *
+ * <p>The one exception is the estimate of the size of the methods responses, which is only a hint for sizing
+ * response buffers so concurrent updates may overwrite each other without harm</p>
+ *
+ * <p>The methods id is assigned by the RpcDispatchTable that creates it before the table is shared</p>
+ *
+ * <p>A method handle taking the target and an array of arguments is created for the method when it is
+ * registered, so invocations neither go through Method.invoke nor have exceptions wrapped in an
+ * InvocationTargetException, primitive parameters are unboxed and a primitive return value boxed by the
+ * handle itself</p>
+ *
+ * <p>If the service has an RpcDispatcher that can invoke the method it is used instead of the method handle,
+ * calling the method directly from generated code</p>
+ *
+ * @author gareth bond
+ */
+public class RpcMethod {
+
+    /**
+     * <p>Reflected method</p>
+     */
+    protected final Method method;
+
+    /**
+     * <p>Method parameter types</p>
+     */
+    protected final Class[] parameterTypes;
+
+    /**
+     * <p>Does the method have a void return type</p>
+     */
+    protected final boolean returnsVoid;
+
+    /**
+     * <p>Does the method only read the service objects state</p>
+     */
+    protected final boolean readMethod;
+
+    /**
+     * <p>Are concurrent identical invocations of the method coalesced into one</p>
+     */
+    protected final boolean coalesced;
+
+    /**
+     * <p>Number of milliseconds the methods responses are cached for, zero if they are not cached</p>
+     */
+    protected final long cacheTtl;
+
+    /**
+     * <p>Are cached responses kept apart for each session</p>
+     */
+    protected final boolean sessionCached;
+
+    /**
+     * <p>Cache tags the methods responses read</p>
+     */
+    protected final String[] cacheTags;
+
+    /**
+     * <p>Cache tags the method invalidates</p>
+     */
+    protected final String[] invalidateTags;
+
+    /**
+     * <p>Description of the method that handlers report in responses</p>
+     */
+    protected final String description;
+
+    /**
+     * <p>Method handle of type (Object, Object[])Object invoking the method, null if the method can only be
+     * invoked reflectively</p>
+     */
+    protected final MethodHandle invoker;
+
+    /**
+     * <p>RpcDispatcher invoking the method, null if the method is invoked through its method handle</p>
+     */
+    protected final RpcDispatcher dispatcher;
+
+    /**
+     * <p>Index the dispatcher invokes the method by</p>
+     */
+    protected final int dispatcherIndex;
+
+    /**
+     * <p>Estimated size in bytes of the methods responses</p>
+     */
+    protected volatile int responseSizeHint = INITIAL_RESPONSE_SIZE_HINT;
+
+    /**
+     * <p>Id of the method within its services dispatch table</p>
+     */
+    protected int id = -1;
+
+    /**
+     * <p>Construct a new RpcMethod for the given reflected method taking how the method is handled from the
+     * method names declared with the services RpcHandlers instance</p>
+     *
+     * @param method
+     * @param handlers
+     */
+    protected RpcMethod(Method method, RpcHandlers handlers) {
+        this.method = method;
+        String name = method.getName();
+        readMethod = handlers.getReadMethods().contains(name);
+        coalesced = handlers.getCoalesceMethods().contains(name);
+        Long ttl = handlers.getCacheMethods().get(name);
+        cacheTtl = ttl == null ? 0 : ttl.longValue();
+        sessionCached = handlers.getSessionCacheMethods().contains(name);
+        cacheTags = toArray(handlers.getCacheTags().get(name));
+        invalidateTags = toArray(handlers.getInvalidateTags().get(name));
+        parameterTypes = method.getParameterTypes();
+        returnsVoid = method.getReturnType().equals(Void.TYPE);
+        String genericString = method.toGenericString();
+        description = genericString.substring(genericString.indexOf(name));
+        invoker = createInvoker(method);
+
+        //use the generated dispatcher if it knows the method
+        RpcDispatcher serviceDispatcher = handlers.getDispatcher();
+        dispatcherIndex = serviceDispatcher == null ? -1 : serviceDispatcher.getIndex(getSignature());
+        dispatcher = dispatcherIndex < 0 ? null : serviceDispatcher;
+    }
+
+    /**
+     * <p>Invoke the method on a target with the supplied arguments</p>
+     *
+     * <p>Returns whatever the method returns, null for a void method, and throws whatever the method throws.
+     * Throws an RpcError if the method cannot be accessed</p>
+     *
+     * @param target
+     * @param arguments
+     * @throws Throwable
+     */
+    public Object invoke(Object target, Object[] arguments) throws Throwable {
+        if(dispatcher != null) {
+            return dispatcher.invoke(dispatcherIndex, target, arguments);
+        }
+        if(invoker != null) {
+            return (Object) invoker.invokeExact(target, arguments);
+        }
+        try {
+            return method.invoke(target, arguments);
+        }
+        catch(IllegalAccessException e) {
+            throw new RpcError(e);
+        }
+        catch(InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * <p>Do the supplied argument classes match this methods parameter types</p>
+     *
+     * <p>Primitive parameters only accept their corresponding primitive wrapper class and null arguments
+     * (indicated by a null class) only match non primitive parameters</p>
+     *
+     * @param argClasses
+     */
+    public boolean matches(Class[] argClasses) {
+        if(argClasses.length != parameterTypes.length) {
+            return false;
+        }
+        for(int i = 0; i < parameterTypes.length;  ++ i) {
+            Class type = parameterTypes[i];
+            Class argClass = argClasses[i];
+            if(type.isPrimitive()) {
+                if(argClass == null || getWrapper(type) != argClass) {
+                    return false;
+                }
+            }
+            else if(argClass != null &&  ! type.isAssignableFrom(argClass)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>Get the reflected method</p>
+     */
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * <p>Get the method name</p>
+     */
+    public String getName() {
+        return method.getName();
+    }
+
+    /**
+     * <p>Get the description of the method that handlers report in responses, its generic string from the
+     * method name on</p>
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * <p>Get the id of the method within its services dispatch table</p>
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * <p>Get the method signature in the format: name(parameter-types)return-type</p>
+     */
+    public String getSignature() {
+        StringBuilder signature = new StringBuilder();
+        signature.append(method.getName());
+        signature.append('(');
+        for(int i = 0; i < parameterTypes.length;  ++ i) {
+            if(i > 0) {
+                signature.append(',');
+            }
+            signature.append(parameterTypes[i].getName());
+        }
+        signature.append(')');
+        signature.append(method.getReturnType().getName());
+        return signature.toString();
+    }
+
+    /**
+     * <p>Get the method parameter types</p>
+     */
+    public Class[] getParameterTypes() {
+        return parameterTypes.clone();
+    }
+
+    /**
+     * <p>Get the type of a method parameter</p>
+     *
+     * @param index
+     */
+    public Class getParameterType(int index) {
+        return parameterTypes[index];
+    }
+
+    /**
+     * <p>Get the number of method parameters</p>
+     */
+    public int getArity() {
+        return parameterTypes.length;
+    }
+
+    /**
+     * <p>Does the method have a void return type</p>
+     */
+    public boolean returnsVoid() {
+        return returnsVoid;
+    }
+
+    /**
+     * <p>Does the method only read the service objects state</p>
+     */
+    public boolean isReadMethod() {
+        return readMethod;
+    }
+
+    /**
+     * <p>Are concurrent identical invocations of the method coalesced into one</p>
+     */
+    public boolean isCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * <p>Are the methods responses cached</p>
+     */
+    public boolean isCached() {
+        return cacheTtl > 0;
+    }
+
+    /**
+     * <p>Get the number of milliseconds the methods responses are cached for, zero if they are not
+     * cached</p>
+     */
+    public long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    /**
+     * <p>Are cached responses kept apart for each session</p>
+     */
+    public boolean isSessionCached() {
+        return sessionCached;
+    }
+
+    /**
+     * <p>Get the cache tags the methods responses read, the returned array must not be modified</p>
+     */
+    public String[] getCacheTags() {
+        return cacheTags;
+    }
+
+    /**
+     * <p>Get the cache tags the method invalidates, the returned array must not be modified</p>
+     */
+    public String[] getInvalidateTags() {
+        return invalidateTags;
+    }
+
+    /**
+     * <p>Get the estimated size in bytes of the methods responses</p>
+     */
+    public int getResponseSizeHint() {
+        return responseSizeHint;
+    }
+
+    /**
+     * <p>Update the estimated size of the methods responses with the size of a response</p>
+     *
+     * <p>The estimate rises to a larger response at once but only falls slowly after smaller ones, so a
+     * response buffer sized by it rarely needs to grow</p>
+     *
+     * @param size
+     */
+    public void recordResponseSize(int size) {
+        int hint = responseSizeHint;
+        if(size > hint) {
+            responseSizeHint = size;
+        }
+        else if(size < hint) {
+            responseSizeHint = hint - (hint - size) / 8;
+        }
+    }
+
+    /**
+     * <p>Convert a possibly null list of tags to an array</p>
+     *
+     * @param tags
+     */
+    protected static String[] toArray(List<String> tags) {
+        if(tags == null) {
+            return NO_TAGS;
+        }
+        return tags.toArray(new String[tags.size()]);
+    }
+
+    /**
+     * <p>Create the method handle invoking a method with a target and an array of arguments</p>
+     *
+     * <p>Returns null if the method is not accessible through a public lookup, for instance because its class
+     * is not public</p>
+     *
+     * @param method
+     */
+    protected static MethodHandle createInvoker(Method method) {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method).asFixedArity();
+        }
+        catch(IllegalAccessException e) {
+            return null;
+        }
+
+        //static methods ignore the target
+        if(Modifier.isStatic(method.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        handle = handle.asSpreader(Object[].class, method.getParameterTypes().length);
+        return handle.asType(INVOKER_TYPE);
+    }
+
+    /**
+     * <p>Type of the method handles invoking methods</p>
+     */
+    protected static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class,
+            Object[].class);
+
+    /**
+     * <p>Empty tags array</p>
+     */
+    protected static final String[] NO_TAGS = new String[0];
+
+    /**
+     * <p>Estimated size in bytes of a methods responses before any have been written</p>
+     */
+    protected static final int INITIAL_RESPONSE_SIZE_HINT = 1024;
+
+    /**
+     * <p>Get the primitive wrapper class for a primitive type</p>
+     *
+     * @param type
+     */
+    protected static Class getWrapper(Class type) {
+        if(type == Integer.TYPE) {
+            return Integer.class;
+        }
+        if(type == Double.TYPE) {
+            return Double.class;
+        }
+        if(type == Long.TYPE) {
+            return Long.class;
+        }
+        if(type == Boolean.TYPE) {
+            return Boolean.class;
+        }
+        if(type == Float.TYPE) {
+            return Float.class;
+        }
+        if(type == Short.TYPE) {
+            return Short.class;
+        }
+        if(type == Byte.TYPE) {
+            return Byte.class;
+        }
+        if(type == Character.TYPE) {
+            return Character.class;
+        }
+        return type;
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+/**
+ * <p>RpcMimeTypes reduces Content-Type and Accept header values to the bare MIME types that handlers are
+ * registered under</p>
+ *
+ * @author gareth bond
+ */
+public class RpcMimeTypes {
+
+    /**
+     * <p>HTTP request header listing the MIME types a client accepts</p>
+     */
+    public static final String ACCEPT_HEADER = "Accept";
+
+    /**
+     * <p>MIME type of JSON</p>
+     */
+    public static final String JSON = "application/json";
+
+    /**
+     * <p>MIME type of MessagePack</p>
+     */
+    public static final String MSGPACK = "application/x-msgpack";
+
+    /**
+     * <p>MIME type of MessagePack calls made by method id with positional arguments and responses</p>
+     */
+    public static final String SCHEMA = "application/x-rpc-schema";
+
+    /**
+     * <p>Get the MIME type of a Content-Type header value in lower case without its parameters, returns null
+     * if there is none</p>
+     *
+     * @param contentType
+     */
+    public static String getMimeType(String contentType) {
+        if(contentType == null) {
+            return null;
+        }
+        int index = contentType.indexOf(';');
+        String mimeType = (index == -1 ? contentType : contentType.substring(0, index)).trim();
+        if(mimeType.length() == 0) {
+            return null;
+        }
+        return mimeType.toLowerCase();
+    }
+
+    /**
+     * <p>Get the MIME types listed by an Accept header value in the order they are listed, leaving out any
+     * the client refuses with q=0</p>
+     *
+     * @param accept
+     */
+    public static String[] getAccepted(String accept) {
+        if(accept == null) {
+            return NO_TYPES;
+        }
+        String[] ranges = accept.split(",");
+        int count = 0;
+        for(int i = 0; i < ranges.length;  ++ i) {
+            String range = ranges[i];
+            if(isRefused(range)) {
+                continue;
+            }
+            String mimeType = getMimeType(range);
+            if(mimeType != null) {
+                ranges[count ++] = mimeType;
+            }
+        }
+        String[] accepted = new String[count];
+        System.arraycopy(ranges, 0, accepted, 0, count);
+        return accepted;
+    }
+
+    /**
+     * <p>Does a media range from an Accept header have a quality of zero</p>
+     *
+     * @param range
+     */
+    protected static boolean isRefused(String range) {
+        int index = range.indexOf(";");
+        while(index != -1) {
+            int next = range.indexOf(';', index + 1);
+            String parameter = range.substring(index + 1, next == -1 ? range.length() : next).trim();
+            if(parameter.startsWith("q=")) {
+                try {
+                    return Float.parseFloat(parameter.substring(2).trim()) <= 0;
+                }
+                catch(NumberFormatException e) {
+                    return false;
+                }
+            }
+            index = next;
+        }
+        return false;
+    }
+
+    /**
+     * <p>Empty MIME types array</p>
+     */
+    protected static final String[] NO_TYPES = new String[0];
+
+}
@@ -0,0 +1,286 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.servlet.ServletResponse;
+
+/**
+ * <p>RpcOutputBuffer is a Writer that encodes what is written to it as UTF-8 straight into a pooled byte
+ * buffer</p>
+ *
+ * <p>A response is rendered into an RpcOutputBuffer and then written to the ServletOutputStream with an exact
+ * Content-Length in a single write by writeTo(ServletResponse), rather than char by char through the
+ * containers encoder and PrintWriter, which holds a monitor while it writes to the socket. Knowing the length
+ * up front also lets the container avoid chunked transfer encoding</p>
+ *
+ * <p>The buffer starts at a size hint, usually what the invoked method has produced before, and doubles
+ * whenever it runs out of room</p>
+ *
+ * <p>RpcOutputBuffer instances are not thread safe and release() must be called once the output has been
+ * written so the buffer can be reused</p>
+ *
+ * @author gareth bond
+ */
+public class RpcOutputBuffer extends Writer {
+
+    /**
+     * <p>Pool the buffer is taken from and returned to</p>
+     */
+    protected final RpcBufferPool pool;
+
+    /**
+     * <p>Buffer holding the encoded output</p>
+     */
+    protected byte[] bytes;
+
+    /**
+     * <p>Number of bytes of encoded output</p>
+     */
+    protected int count;
+
+    /**
+     * <p>High surrogate waiting for the low surrogate that completes it, zero if there is none</p>
+     */
+    protected char highSurrogate;
+
+    /**
+     * <p>Construct a new RpcOutputBuffer taking a buffer of at least the given size from a pool</p>
+     *
+     * @param pool
+     * @param sizeHint
+     */
+    public RpcOutputBuffer(RpcBufferPool pool, int sizeHint) {
+        this.pool = pool;
+        this.bytes = pool.getBytes(sizeHint);
+    }
+
+    public void write(int c) {
+        ensure(4);
+        encode((char) c);
+    }
+
+    public void write(char[] chars, int offset, int length) {
+        int end = offset + length;
+        ensure(length);
+        for(int i = offset; i < end;  ++ i) {
+            char c = chars[i];
+            if(c < 0x80 && highSurrogate == 0) {
+                bytes[count ++] = (byte) c;
+            }
+            else {
+                ensure(end - i + 3);
+                encode(c);
+            }
+        }
+    }
+
+    public void write(String string, int offset, int length) {
+        append(string, offset, offset + length);
+    }
+
+    public void write(String string) {
+        append(string, 0, string.length());
+    }
+
+    public Writer append(CharSequence chars) {
+        if(chars == null) {
+            chars = "null";
+        }
+        return append(chars, 0, chars.length());
+    }
+
+    public Writer append(CharSequence chars, int start, int end) {
+        if(chars == null) {
+            chars = "null";
+        }
+        ensure(end - start);
+        for(int i = start; i < end;  ++ i) {
+            char c = chars.charAt(i);
+            if(c < 0x80 && highSurrogate == 0) {
+                bytes[count ++] = (byte) c;
+            }
+            else {
+                ensure(end - i + 3);
+                encode(c);
+            }
+        }
+        return this;
+    }
+
+    public Writer append(char c) {
+        ensure(4);
+        encode(c);
+        return this;
+    }
+
+    /**
+     * <p>Write a single byte that is already encoded as it is</p>
+     *
+     * @param b
+     */
+    public void writeByte(int b) {
+        completeSurrogate();
+        ensure(1);
+        bytes[count ++] = (byte) b;
+    }
+
+    /**
+     * <p>Write bytes that are already encoded as they are</p>
+     *
+     * @param source
+     * @param offset
+     * @param length
+     */
+    public void writeBytes(byte[] source, int offset, int length) {
+        completeSurrogate();
+        ensure(length);
+        System.arraycopy(source, offset, bytes, count, length);
+        count += length;
+    }
+
+    public void flush() {
+    }
+
+    public void close() {
+    }
+
+    /**
+     * <p>Get the number of bytes of encoded output</p>
+     */
+    public int size() {
+        completeSurrogate();
+        return count;
+    }
+
+    /**
+     * <p>Get the buffer holding the encoded output, only the first size() bytes are output</p>
+     */
+    public byte[] getBuffer() {
+        completeSurrogate();
+        return bytes;
+    }
+
+    /**
+     * <p>Get a copy of the encoded output</p>
+     */
+    public byte[] toByteArray() {
+        completeSurrogate();
+        byte[] copy = new byte[count];
+        System.arraycopy(bytes, 0, copy, 0, count);
+        return copy;
+    }
+
+    /**
+     * <p>Set the Content-Length of a response to the size of the encoded output and write the output to its
+     * ServletOutputStream in one go</p>
+     *
+     * @param response
+     * @throws IOException
+     */
+    public void writeTo(ServletResponse response) throws IOException {
+        completeSurrogate();
+        response.setContentLength(count);
+        response.getOutputStream().write(bytes, 0, count);
+    }
+
+    /**
+     * <p>Return the buffer to the pool, the RpcOutputBuffer must not be used afterwards</p>
+     */
+    public void release() {
+        if(bytes != null) {
+            pool.release(bytes);
+            bytes = null;
+        }
+    }
+
+    /**
+     * <p>Make sure there is room for at least the given number of bytes, doubling the buffer if there is
+     * not</p>
+     *
+     * @param length
+     */
+    protected void ensure(int length) {
+        if(count + length > bytes.length) {
+            byte[] grown = new byte[Math.max(bytes.length * 2, count + length)];
+            System.arraycopy(bytes, 0, grown, 0, count);
+            pool.release(bytes);
+            bytes = grown;
+        }
+    }
+
+    /**
+     * <p>Encode a single char, there must be room for four bytes</p>
+     *
+     * <p>Surrogate pairs are encoded as one four byte sequence, an unpaired surrogate is written as '?' as the
+     * JDK encoder does</p>
+     *
+     * @param c
+     */
+    protected void encode(char c) {
+        if(highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if(Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                bytes[count ++] = (byte) (0xf0 | (codePoint >> 18));
+                bytes[count ++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                bytes[count ++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                bytes[count ++] = (byte) (0x80 | (codePoint & 0x3f));
+                return;
+            }
+            bytes[count ++] = '?';
+        }
+        if(c < 0x80) {
+            bytes[count ++] = (byte) c;
+        }
+        else if(c < 0x800) {
+            bytes[count ++] = (byte) (0xc0 | (c >> 6));
+            bytes[count ++] = (byte) (0x80 | (c & 0x3f));
+        }
+        else if(Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        }
+        else if(Character.isLowSurrogate(c)) {
+            bytes[count ++] = '?';
+        }
+        else {
+            bytes[count ++] = (byte) (0xe0 | (c >> 12));
+            bytes[count ++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            bytes[count ++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    /**
+     * <p>Write a high surrogate left without its low surrogate as '?'</p>
+     */
+    protected void completeSurrogate() {
+        if(highSurrogate != 0) {
+            highSurrogate = 0;
+            ensure(1);
+            bytes[count ++] = '?';
+        }
+    }
+
+}
@@ -0,0 +1,430 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>RpcPipeline is the immutable set of handlers a service is invoked through, built from its RpcHandlers
+ * instance once the service has been configured</p>
+ *
+ * <p>It is also the snapshot of the services configuration that every RpcContext of the service references:
+ * the service name and class, the filtered method names and the dispatch table</p>
+ *
+ * <p>The handler lists are held as arrays and the handlers registered for MIME types in private copies of the
+ * maps, so a remote method invocation neither allocates iterators nor sees handlers added after the service
+ * was registered</p>
+ *
+ * <p>For every method whose declared return type an RpcTypedReturnValueHandler accepts, the
+ * RpcReturnValueHandler that writes its return values is chosen when the pipeline is built, both for each
+ * MIME type and for when the response type is left to the handler list. Invocations of such a method call
+ * that handler directly, other methods try the handlers in turn on each invocation</p>
+ *
+ * @author gareth bond
+ */
+public class RpcPipeline {
+
+    /**
+     * <p>Service name</p>
+     */
+    protected final String service;
+
+    /**
+     * <p>Service class</p>
+     */
+    protected final Class serviceClass;
+
+    /**
+     * <p>Unmodifiable list of filtered method names</p>
+     */
+    protected final List<String> filterMethods;
+
+    /**
+     * <p>Dispatch table of the service classes methods</p>
+     */
+    protected final RpcDispatchTable dispatchTable;
+
+    /**
+     * <p>RpcArgumentsHandler instances in the order they are tried</p>
+     */
+    protected final RpcArgumentsHandler[] argumentsHandlers;
+
+    /**
+     * <p>RpcTargetHandler instances in the order they are tried</p>
+     */
+    protected final RpcTargetHandler[] targetHandlers;
+
+    /**
+     * <p>RpcReturnValueHandler instances in the order they are tried</p>
+     */
+    protected final RpcReturnValueHandler[] returnValueHandlers;
+
+    /**
+     * <p>RpcExceptionHandler instances in the order they are tried</p>
+     */
+    protected final RpcExceptionHandler[] exceptionHandlers;
+
+    /**
+     * <p>Unmodifiable list view of the RpcArgumentsHandler instances</p>
+     */
+    protected final List<RpcArgumentsHandler> argumentsHandlerList;
+
+    /**
+     * <p>Unmodifiable list view of the RpcTargetHandler instances</p>
+     */
+    protected final List<RpcTargetHandler> targetHandlerList;
+
+    /**
+     * <p>Unmodifiable list view of the RpcReturnValueHandler instances</p>
+     */
+    protected final List<RpcReturnValueHandler> returnValueHandlerList;
+
+    /**
+     * <p>Unmodifiable list view of the RpcExceptionHandler instances</p>
+     */
+    protected final List<RpcExceptionHandler> exceptionHandlerList;
+
+    /**
+     * <p>Map of MIME types corresponding to RpcArgumentsHandler instances</p>
+     */
+    protected final Map<String, RpcArgumentsHandler> argumentsHandlersByType;
+
+    /**
+     * <p>Map of MIME types corresponding to RpcReturnValueHandler instances</p>
+     */
+    protected final Map<String, RpcReturnValueHandler> returnValueHandlersByType;
+
+    /**
+     * <p>Map of MIME types corresponding to RpcExceptionHandler instances</p>
+     */
+    protected final Map<String, RpcExceptionHandler> exceptionHandlersByType;
+
+    /**
+     * <p>RpcReturnValueHandler chosen for each method id when the handler list decides the response type, null
+     * where the handlers are tried in turn</p>
+     */
+    protected final RpcReturnValueHandler[] returnValueHandlersById;
+
+    /**
+     * <p>Map of MIME types corresponding to the RpcReturnValueHandler chosen for each method id, null where the
+     * handlers are tried in turn</p>
+     */
+    protected final Map<String, RpcReturnValueHandler[]> returnValueHandlersByTypeAndId;
+
+    /**
+     * <p>Construct a new RpcPipeline from a configured RpcHandlers instance whose dispatch table has been
+     * built</p>
+     *
+     * @param handlers
+     */
+    protected RpcPipeline(RpcHandlers handlers) {
+
+        service = handlers.getServiceName();
+        serviceClass = handlers.getServiceClass();
+        filterMethods = Collections.unmodifiableList(new ArrayList<String>(handlers.getFilterMethods()));
+        dispatchTable = handlers.getDispatchTable();
+        List<RpcArgumentsHandler> arguments = handlers.getArgumentsHandlers();
+        argumentsHandlers = arguments.toArray(new RpcArgumentsHandler[arguments.size()]);
+        List<RpcTargetHandler> targets = handlers.getTargetHandlers();
+        targetHandlers = targets.toArray(new RpcTargetHandler[targets.size()]);
+        List<RpcReturnValueHandler> returnValues = handlers.getReturnValueHandlers();
+        returnValueHandlers = returnValues.toArray(new RpcReturnValueHandler[returnValues.size()]);
+        List<RpcExceptionHandler> exceptions = handlers.getExceptionHandlers();
+        exceptionHandlers = exceptions.toArray(new RpcExceptionHandler[exceptions.size()]);
+        argumentsHandlerList = Collections.unmodifiableList(Arrays.asList(argumentsHandlers));
+        targetHandlerList = Collections.unmodifiableList(Arrays.asList(targetHandlers));
+        returnValueHandlerList = Collections.unmodifiableList(Arrays.asList(returnValueHandlers));
+        exceptionHandlerList = Collections.unmodifiableList(Arrays.asList(exceptionHandlers));
+        argumentsHandlersByType = Collections.unmodifiableMap(new HashMap<String, RpcArgumentsHandler>(
+                handlers.getArgumentsHandlersByType()));
+        returnValueHandlersByType = Collections.unmodifiableMap(new HashMap<String, RpcReturnValueHandler>(
+                handlers.getReturnValueHandlersByType()));
+        exceptionHandlersByType = Collections.unmodifiableMap(new HashMap<String, RpcExceptionHandler>(
+                handlers.getExceptionHandlersByType()));
+
+        //choose the return value handlers of each method
+        RpcMethod[] methods = dispatchTable == null ? new RpcMethod[0] : dispatchTable.getMethods();
+        returnValueHandlersById = new RpcReturnValueHandler[methods.length];
+        Map<String, RpcReturnValueHandler[]> byTypeAndId = new HashMap<String, RpcReturnValueHandler[]>();
+        Iterator<String> i = returnValueHandlersByType.keySet().iterator();
+        while(i.hasNext()) {
+            byTypeAndId.put(i.next(), new RpcReturnValueHandler[methods.length]);
+        }
+        for(int id = 0; id < methods.length;  ++ id) {
+            Class returnType = methods[id].getMethod().getReturnType();
+
+            //only the first handler in the list can be chosen as it is always tried first
+            if(returnValueHandlers.length > 0 && handlesReturnType(returnValueHandlers[0], returnType)) {
+                returnValueHandlersById[id] = returnValueHandlers[0];
+            }
+            Iterator<Map.Entry<String, RpcReturnValueHandler>> x =
+                    returnValueHandlersByType.entrySet().iterator();
+            while(x.hasNext()) {
+                Map.Entry<String, RpcReturnValueHandler> entry = x.next();
+                if(handlesReturnType(entry.getValue(), returnType)) {
+                    byTypeAndId.get(entry.getKey())[id] = entry.getValue();
+                }
+            }
+        }
+        returnValueHandlersByTypeAndId = byTypeAndId;
+    }
+
+    /**
+     * <p>Get the method arguments from the HTTP request</p>
+     *
+     * <p>The RpcArgumentsHandler registered for the requests content type is used if there is one, otherwise
+     * each RpcArgumentsHandler is tried in turn</p>
+     *
+     * <p>Returns null if no RpcArgumentsHandler can handle the request</p>
+     *
+     * @param context
+     */
+    public List<Object> getArguments(RpcContext context) {
+        String contentType = RpcMimeTypes.getMimeType(context.getRequest().getContentType());
+        RpcArgumentsHandler typed = getArgumentsHandler(contentType);
+        if(typed != null) {
+            return typed.getArguments(context);
+        }
+        for(int i = 0; i < argumentsHandlers.length;  ++ i) {
+            List<Object> params = argumentsHandlers[i].getArguments(context);
+            if(params != null) {
+                return params;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * <p>Get the service object, trying each RpcTargetHandler in turn</p>
+     *
+     * <p>Returns null if no RpcTargetHandler can handle the request</p>
+     *
+     * @param context
+     */
+    public Object getTarget(RpcContext context) {
+        for(int i = 0; i < targetHandlers.length;  ++ i) {
+            Object target = targetHandlers[i].getTarget(context);
+            if(target != null) {
+                return target;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * <p>Write a return value to the HTTP response</p>
+     *
+     * <p>The RpcReturnValueHandler chosen for the resolved method and response type is used if there is one,
+     * otherwise the RpcReturnValueHandler registered for the response type is tried first followed by each
+     * RpcReturnValueHandler in turn</p>
+     *
+     * <p>Returns false if no RpcReturnValueHandler handles the return value</p>
+     *
+     * @param context
+     * @param returnValue
+     * @throws IOException
+     */
+    public boolean handleReturnValue(RpcContext context, Object returnValue) throws IOException {
+        String responseType = context.getResponseType();
+        RpcReturnValueHandler chosen = getReturnValueHandler(responseType, context.getRpcMethod());
+        if(chosen != null && chosen.handleReturnValue(context, returnValue)) {
+            return true;
+        }
+        RpcReturnValueHandler typed = getReturnValueHandler(responseType);
+        if(typed != null && typed.handleReturnValue(context, returnValue)) {
+            return true;
+        }
+        for(int i = 0; i < returnValueHandlers.length;  ++ i) {
+            if(returnValueHandlers[i].handleReturnValue(context, returnValue)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>Write an exception to the HTTP response</p>
+     *
+     * <p>The RpcExceptionHandler registered for the response type is tried first followed by each
+     * RpcExceptionHandler in turn</p>
+     *
+     * <p>Returns false if no RpcExceptionHandler handles the exception</p>
+     *
+     * @param context
+     * @param exception
+     * @throws IOException
+     */
+    public boolean handleException(RpcContext context, Throwable exception) throws IOException {
+        RpcExceptionHandler typed = getExceptionHandler(context.getResponseType());
+        if(typed != null && typed.handleException(context, exception)) {
+            return true;
+        }
+        for(int i = 0; i < exceptionHandlers.length;  ++ i) {
+            if(exceptionHandlers[i].handleException(context, exception)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>Get the RpcReturnValueHandler chosen for a method and response type, null if the handlers are tried
+     * in turn</p>
+     *
+     * @param responseType
+     * @param method
+     */
+    public RpcReturnValueHandler getReturnValueHandler(String responseType, RpcMethod method) {
+        if(method == null || method.getId() < 0 || method.getId() >= returnValueHandlersById.length) {
+            return null;
+        }
+        if(responseType == null) {
+            return returnValueHandlersById[method.getId()];
+        }
+        RpcReturnValueHandler[] byId = returnValueHandlersByTypeAndId.get(responseType);
+        return byId == null ? null : byId[method.getId()];
+    }
+
+    /**
+     * <p>Get the RpcArgumentsHandler instance registered for a MIME type, null if there is none</p>
+     *
+     * @param mimeType
+     */
+    public RpcArgumentsHandler getArgumentsHandler(String mimeType) {
+        return mimeType == null ? null : argumentsHandlersByType.get(mimeType);
+    }
+
+    /**
+     * <p>Get the RpcReturnValueHandler instance registered for a MIME type, null if there is none</p>
+     *
+     * @param mimeType
+     */
+    public RpcReturnValueHandler getReturnValueHandler(String mimeType) {
+        return mimeType == null ? null : returnValueHandlersByType.get(mimeType);
+    }
+
+    /**
+     * <p>Get the RpcExceptionHandler instance registered for a MIME type, null if there is none</p>
+     *
+     * @param mimeType
+     */
+    public RpcExceptionHandler getExceptionHandler(String mimeType) {
+        return mimeType == null ? null : exceptionHandlersByType.get(mimeType);
+    }
+
+    /**
+     * <p>Get the service name</p>
+     */
+    public String getServiceName() {
+        return service;
+    }
+
+    /**
+     * <p>Get the service class</p>
+     */
+    public Class getServiceClass() {
+        return serviceClass;
+    }
+
+    /**
+     * <p>Get the unmodifiable list of filtered method names</p>
+     */
+    public List<String> getFilterMethods() {
+        return filterMethods;
+    }
+
+    /**
+     * <p>Get the dispatch table of the service classes methods</p>
+     */
+    public RpcDispatchTable getDispatchTable() {
+        return dispatchTable;
+    }
+
+    /**
+     * <p>Get the unmodifiable list of RpcArgumentsHandler instances</p>
+     */
+    public List<RpcArgumentsHandler> getArgumentsHandlers() {
+        return argumentsHandlerList;
+    }
+
+    /**
+     * <p>Get the unmodifiable list of RpcTargetHandler instances</p>
+     */
+    public List<RpcTargetHandler> getTargetHandlers() {
+        return targetHandlerList;
+    }
+
+    /**
+     * <p>Get the unmodifiable list of RpcReturnValueHandler instances</p>
+     */
+    public List<RpcReturnValueHandler> getReturnValueHandlers() {
+        return returnValueHandlerList;
+    }
+
+    /**
+     * <p>Get the unmodifiable list of RpcExceptionHandler instances</p>
+     */
+    public List<RpcExceptionHandler> getExceptionHandlers() {
+        return exceptionHandlerList;
+    }
+
+    /**
+     * <p>Get the unmodifiable map of MIME types corresponding to RpcArgumentsHandler instances</p>
+     */
+    public Map<String, RpcArgumentsHandler> getArgumentsHandlersByType() {
+        return argumentsHandlersByType;
+    }
+
+    /**
+     * <p>Get the unmodifiable map of MIME types corresponding to RpcReturnValueHandler instances</p>
+     */
+    public Map<String, RpcReturnValueHandler> getReturnValueHandlersByType() {
+        return returnValueHandlersByType;
+    }
+
+    /**
+     * <p>Get the unmodifiable map of MIME types corresponding to RpcExceptionHandler instances</p>
+     */
+    public Map<String, RpcExceptionHandler> getExceptionHandlersByType() {
+        return exceptionHandlersByType;
+    }
+
+    /**
+     * <p>Does an RpcReturnValueHandler handle every return value of a method with the given declared return
+     * type</p>
+     *
+     * @param handler
+     * @param returnType
+     */
+    protected static boolean handlesReturnType(RpcReturnValueHandler handler, Class returnType) {
+        return handler instanceof RpcTypedReturnValueHandler &&
+               ((RpcTypedReturnValueHandler) handler).handlesReturnType(returnType);
+    }
+
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * <p>RpcRequestBody holds the body of a request posted with a JSON content type in a pooled char buffer, or
+ * the raw bytes of a binary request body in a pooled byte buffer</p>
+ *
+ * <p>The body is read from the ServletInputStream into a pooled byte buffer and UTF-8 bodies are decoded
+ * inline into the char buffer, so the body is never form decoded or turned into a String before it is
+ * parsed</p>
+ *
+ * <p>A body longer than the maximum length is rejected with an RpcError before a buffer is allocated for it
+ * when the request declares its Content-Length, or as soon as that many bytes have been read when it does
+ * not, so a client cannot make the server allocate more than the maximum length</p>
+ *
+ * <p>release() must be called once the body has been parsed so that the buffer can be reused</p>
+ *
+ * @author gareth bond
+ */
+public class RpcRequestBody {
+
+    /**
+     * <p>Content type of a raw JSON request body</p>
+     */
+    public static final String JSON_CONTENT_TYPE = "application/json";
+
+    /**
+     * <p>Default maximum length of a request body in bytes</p>
+     */
+    public static final int DEFAULT_MAX_LENGTH = 2 * 1024 * 1024;
+
+    /**
+     * <p>Pool the char buffer is returned to</p>
+     */
+    protected final RpcBufferPool pool;
+
+    /**
+     * <p>Pooled buffer holding the decoded body, null for a binary body</p>
+     */
+    protected char[] chars;
+
+    /**
+     * <p>Pooled buffer holding a binary body, null for a decoded body</p>
+     */
+    protected byte[] bytes;
+
+    /**
+     * <p>Number of chars or bytes in the body</p>
+     */
+    protected final int length;
+
+    /**
+     * <p>Construct a new RpcRequestBody</p>
+     *
+     * @param pool
+     * @param chars
+     * @param length
+     */
+    protected RpcRequestBody(RpcBufferPool pool, char[] chars, int length) {
+        this.pool = pool;
+        this.chars = chars;
+        this.length = length;
+    }
+
+    /**
+     * <p>Construct a new RpcRequestBody for a binary body</p>
+     *
+     * @param pool
+     * @param bytes
+     * @param length
+     */
+    protected RpcRequestBody(RpcBufferPool pool, byte[] bytes, int length) {
+        this.pool = pool;
+        this.bytes = bytes;
+        this.length = length;
+    }
+
+    /**
+     * <p>Was the request posted with a JSON content type</p>
+     *
+     * @param request
+     */
+    public static boolean isJson(HttpServletRequest request) {
+        return isContentType(request, JSON_CONTENT_TYPE);
+    }
+
+    /**
+     * <p>Was the request posted with the given content type, any parameters such as the charset are
+     * ignored</p>
+     *
+     * @param request
+     * @param type
+     */
+    public static boolean isContentType(HttpServletRequest request, String type) {
+        String contentType = request.getContentType();
+        int length = type.length();
+        if(contentType == null ||  ! contentType.regionMatches(true, 0, type, 0, length)) {
+            return false;
+        }
+        return contentType.length() == length || contentType.charAt(length) == ';' ||
+               contentType.charAt(length) == ' ';
+    }
+
+    /**
+     * <p>Read the body of a request using buffers from the given pool, rejecting a body longer than
+     * DEFAULT_MAX_LENGTH bytes</p>
+     *
+     * @param request
+     * @param pool
+     * @throws IOException
+     */
+    public static RpcRequestBody read(HttpServletRequest request, RpcBufferPool pool) throws IOException {
+        return read(request, pool, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * <p>Read the body of a request using buffers from the given pool</p>
+     *
+     * <p>The body is decoded with the requests character encoding, UTF-8 if none is given</p>
+     *
+     * <p>Throws an RpcError if the body is longer than the maximum length in bytes</p>
+     *
+     * @param request
+     * @param pool
+     * @param maxLength
+     * @throws IOException
+     */
+    public static RpcRequestBody read(HttpServletRequest request, RpcBufferPool pool, int maxLength)
+            throws IOException {
+
+        RpcRequestBody binary = readBytes(request, pool, maxLength);
+        try {
+            byte[] bytes = binary.getBytes();
+            int length = binary.getLength();
+
+            //decode the chars
+            String charset = request.getCharacterEncoding();
+            if(RpcUtf8.isUtf8(charset)) {
+                char[] chars = pool.getChars(length);
+                return new RpcRequestBody(pool, chars, RpcUtf8.decode(bytes, 0, length, chars, 0));
+            }
+            String text = new String(bytes, 0, length, charset);
+            char[] chars = pool.getChars(text.length());
+            text.getChars(0, text.length(), chars, 0);
+            return new RpcRequestBody(pool, chars, text.length());
+        }
+        finally {
+            binary.release();
+        }
+    }
+
+    /**
+     * <p>Read the body of a request as raw bytes using a buffer from the given pool, rejecting a body longer
+     * than DEFAULT_MAX_LENGTH bytes</p>
+     *
+     * @param request
+     * @param pool
+     * @throws IOException
+     */
+    public static RpcRequestBody readBytes(HttpServletRequest request, RpcBufferPool pool) throws IOException {
+        return readBytes(request, pool, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * <p>Read the body of a request as raw bytes using a buffer from the given pool</p>
+     *
+     * <p>Throws an RpcError if the body is longer than the maximum length in bytes</p>
+     *
+     * @param request
+     * @param pool
+     * @param maxLength
+     * @throws IOException
+     */
+    public static RpcRequestBody readBytes(HttpServletRequest request, RpcBufferPool pool, int maxLength)
+            throws IOException {
+
+        //reject a declared length that is too long before allocating anything
+        int limit = Math.min(maxLength, Integer.MAX_VALUE - 1);
+        int contentLength = request.getContentLength();
+        if(contentLength > limit) {
+            throw new RpcError(RpcMessages.getMessage("requestBodyTooLarge", String.valueOf(contentLength)));
+        }
+
+        //read the bytes, with room for the end of the stream when the content length is known
+        byte[] bytes = pool.getBytes(contentLength > 0 ? contentLength + 1 : 0);
+        boolean read = false;
+        try {
+            InputStream in = request.getInputStream();
+            int length = 0;
+            int count;
+            while((count = in.read(bytes, length, bytes.length - length)) != -1) {
+                length += count;
+                if(length > limit) {
+                    throw new RpcError(RpcMessages.getMessage("requestBodyTooLarge", "more than " + limit));
+                }
+                if(length == bytes.length) {
+                    byte[] grown = new byte[(int) Math.min(bytes.length * 2L, limit + 1L)];
+                    System.arraycopy(bytes, 0, grown, 0, length);
+                    pool.release(bytes);
+                    bytes = grown;
+                }
+            }
+            read = true;
+            return new RpcRequestBody(pool, bytes, length);
+        }
+        finally {
+            if( ! read) {
+                pool.release(bytes);
+            }
+        }
+    }
+
+    /**
+     * <p>Get the buffer holding the body, the body starts at index zero</p>
+     */
+    public char[] getChars() {
+        return chars;
+    }
+
+    /**
+     * <p>Get the buffer holding a binary body, the body starts at index zero</p>
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * <p>Get the number of chars or bytes in the body</p>
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * <p>Return the buffer to the pool, the body must not be used afterwards</p>
+     */
+    public void release() {
+        if(chars != null) {
+            pool.release(chars);
+            chars = null;
+        }
+        if(bytes != null) {
+            pool.release(bytes);
+            bytes = null;
+        }
+    }
+
+}
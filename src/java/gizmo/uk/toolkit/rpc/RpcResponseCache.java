@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+/**
+ * <p>RpcResponseCache is implemented to store the captured responses of cached methods so that later
+ * identical invocations can be answered without invoking the service object</p>
+ *
+ * <p>Responses are keyed by RpcCallKey instances whose scope is the session id for session partitioned
+ * methods, otherwise null</p>
+ *
+ * <p>Each response is stored with the cache tags it reads, invalidating a tag evicts every response that reads
+ * it</p>
+ *
+ * <p>An invocation that runs while one of its tags is invalidated may have read the state from before the
+ * change, so the invalidation sequence is read before each invocation and a response is not stored if any of
+ * its tags has been invalidated since</p>
+ *
+ * <p>Implementations are shared by all requests and must be thread safe, RpcServlet uses an
+ * RpcLruResponseCache unless the ServletConfig param 'rpc-cache-class' names another implementation</p>
+ *
+ * @author gareth bond
+ */
+public interface RpcResponseCache {
+
+    /**
+     * <p>Get the cached response for a key</p>
+     *
+     * <p>Returns null if there is no response or it has expired</p>
+     *
+     * @param key
+     */
+    public RpcCapturedResponse get(RpcCallKey key);
+
+    /**
+     * <p>Get the current invalidation sequence</p>
+     */
+    public long getSequence();
+
+    /**
+     * <p>Store a response for a key for a number of milliseconds along with the cache tags it reads</p>
+     *
+     * <p>The response is not stored if one of its tags has been invalidated after the given invalidation
+     * sequence, which should be read before the invocation started</p>
+     *
+     * @param key
+     * @param response
+     * @param ttl
+     * @param tags
+     * @param sequence
+     */
+    public void put(RpcCallKey key, RpcCapturedResponse response, long ttl, String[] tags, long sequence);
+
+    /**
+     * <p>Evict all responses that read a cache tag</p>
+     *
+     * @param tag
+     */
+    public void invalidate(String tag);
+
+    /**
+     * <p>Remove all cached responses</p>
+     */
+    public void clear();
+
+    /**
+     * <p>Get the number of cached responses</p>
+     */
+    public int size();
+
+    /**
+     * <p>Get the number of lookups that found a response</p>
+     */
+    public long getHits();
+
+    /**
+     * <p>Get the number of lookups that did not find a response</p>
+     */
+    public long getMisses();
+
+}
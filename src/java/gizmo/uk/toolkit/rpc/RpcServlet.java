@@ -23,21 +23,38 @@ package gizmo.uk.toolkit.rpc;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
 
 /**
  * <p>RpcServlet is an HttpServlet sub class that allows Java objects to be registered as web services
@@ -45,6 +62,15 @@ import org.json.JSONException;
  *
  * <p>RpcServlet expects URL's to formatted as follows: [servlet-mapping]/[service-name]/[method-name]/</p>
  *
+ * <p>Arguments are posted in the 'a' parameter or as the request body with the content type
+ * application/json</p>
+ *
+ * <p>Several calls can be made in one request by posting a batch to [servlet-mapping]/_batch</p>
+ *
+ * <p>A method can also be requested by the numeric id listed for it in the services schema, which is
+ * served as JSON from [servlet-mapping]/[service-name]/_schema, the id names one overload so no overload
+ * resolution is needed</p>
+ *
  * <p>RpcServlet farms out various aspects of how a service method is invoked to a series of handler objects
  * that operate in a chain of responsibility pattern</p>
  *
@@ -59,6 +85,30 @@ import org.json.JSONException;
  * <p>An RpcContext instance containing relevant information about a request is assembled for each method
  * invocation and is passed to each of its service handlers</p>
  *
+ * <p>Only the method invocation is locked, as decided by the services RpcLockHandler, so that requests that do
+ * not share a service object can run concurrently</p>
+ *
+ * <p>In asynchronous mode each RpcContext is handed to an executor and the response is completed through
+ * a Servlet 3 AsyncContext so that container threads are not held by slow methods</p>
+ *
+ * <p>Concurrent identical invocations of a coalesced method are run once, with the response captured and
+ * written to every waiting request</p>
+ *
+ * <p>Responses of cached methods are stored in an RpcResponseCache and written to later identical invocations
+ * until they expire or a method that invalidates one of their cache tags returns normally</p>
+ *
+ * <p>The executor can run each invocation on a virtual thread, so no monitor is held anywhere in the dispatch
+ * path, all locking uses java.util.concurrent locks which do not pin the carrier thread</p>
+ *
+ * <p>Handlers registered for a MIME type are looked up directly by the requests content type and the
+ * response type it accepts, so other wire formats can be used alongside JSON</p>
+ *
+ * <p>Responses are compressed with gzip or deflate when the client accepts it and they are large enough to be
+ * worth compressing</p>
+ *
+ * <p>A client, or a service in its '_configure' method, can choose compact responses that only hold a status
+ * and the return value or exception, as described by RpcEnvelope</p>
+ *
  * @author gareth bond
  */
 public class RpcServlet extends HttpServlet {
@@ -73,10 +123,165 @@ public class RpcServlet extends HttpServlet {
      */
     protected ServletConfig config;
 
+    /**
+     * <p>ServletConfig param name for enabling asynchronous dispatch</p>
+     */
+    protected final String CONFIG_ARG_ASYNC = "rpc-async";
+
+    /**
+     * <p>ServletConfig param name for the number of asynchronous dispatch threads</p>
+     */
+    protected final String CONFIG_ARG_ASYNC_THREADS = "rpc-async-threads";
+
+    /**
+     * <p>ServletConfig param name for the asynchronous dispatch timeout in milliseconds</p>
+     */
+    protected final String CONFIG_ARG_ASYNC_TIMEOUT = "rpc-async-timeout";
+
+    /**
+     * <p>ServletConfig param name for dispatching each invocation on its own virtual thread</p>
+     */
+    protected final String CONFIG_ARG_VIRTUAL_THREADS = "rpc-virtual-threads";
+
+    /**
+     * <p>ServletConfig param name for the parallelism of the batch fork join pool</p>
+     */
+    protected final String CONFIG_ARG_BATCH_PARALLELISM = "rpc-batch-parallelism";
+
+    /**
+     * <p>ServletConfig param name for the maximum number of calls in a batch</p>
+     */
+    protected final String CONFIG_ARG_BATCH_MAX_CALLS = "rpc-batch-max-calls";
+
+    /**
+     * <p>ServletConfig param name for the maximum number of cached responses</p>
+     */
+    protected final String CONFIG_ARG_CACHE_SIZE = "rpc-cache-size";
+
+    /**
+     * <p>ServletConfig param name for the RpcResponseCache implementation class</p>
+     */
+    protected final String CONFIG_ARG_CACHE_CLASS = "rpc-cache-class";
+
+    /**
+     * <p>ServletConfig param name for the size in bytes a response must reach to be compressed</p>
+     */
+    protected final String CONFIG_ARG_COMPRESSION_THRESHOLD = "rpc-compression-threshold";
+
+    /**
+     * <p>ServletConfig param name for the compression level</p>
+     */
+    protected final String CONFIG_ARG_COMPRESSION_LEVEL = "rpc-compression-level";
+
+    /**
+     * <p>ServletConfig param name for the maximum length of a request body in bytes</p>
+     */
+    protected final String CONFIG_ARG_MAX_REQUEST_BODY = "rpc-max-request-body";
+
+    /**
+     * <p>Path that batch requests are posted to</p>
+     */
+    protected final String BATCH_PATH = "_batch";
+
+    /**
+     * <p>HTTP request parameter a batch is read from, this is also the parameter each calls arguments are
+     * passed to their service as</p>
+     */
+    protected final String BATCH_PARAM = "a";
+
+    /**
+     * <p>Content type of a batch response</p>
+     */
+    protected final String BATCH_CONTENT_TYPE = "application/json; charset=UTF-8";
+
+    /**
+     * <p>Method name a services schema is requested by</p>
+     */
+    protected final String SCHEMA_PATH = "_schema";
+
+    /**
+     * <p>Content type of a schema response</p>
+     */
+    protected final String SCHEMA_CONTENT_TYPE = "application/json; charset=UTF-8";
+
+    /**
+     * <p>Empty arguments array</p>
+     */
+    protected static final Object[] NO_ARGUMENTS = new Object[0];
+
+    /**
+     * <p>Executor that remote method invocations are handed to in asynchronous mode or null if asynchronous
+     * dispatch is disabled</p>
+     */
+    protected ExecutorService executor;
+
+    /**
+     * <p>Asynchronous dispatch timeout in milliseconds, zero or less uses the containers default</p>
+     */
+    protected long asyncTimeout;
+
+    /**
+     * <p>Time in milliseconds to wait for a Future returned by a service method when no asynchronous dispatch
+     * timeout is set, the Servlet 3 default async timeout</p>
+     */
+    protected static final long DEFAULT_FUTURE_TIMEOUT = 30000;
+
+    /**
+     * <p>Fork join pool the calls of a batch request are run on</p>
+     */
+    protected ForkJoinPool batchPool;
+
+    /**
+     * <p>Maximum number of calls in a batch request</p>
+     */
+    protected int batchMaxCalls = 100;
+
+    /**
+     * <p>Map of coalesced invocations currently in flight, each task captures the response of the invocation
+     * that every identical request waits for</p>
+     */
+    protected final ConcurrentMap<RpcCallKey, FutureTask<RpcCapturedResponse>> inFlight =
+            new ConcurrentHashMap<RpcCallKey, FutureTask<RpcCapturedResponse>>();
+
+    /**
+     * <p>Cache of responses of cached methods</p>
+     */
+    protected RpcResponseCache responseCache;
+
+    /**
+     * <p>Compressor used for responses or null if compression is disabled</p>
+     */
+    protected RpcCompressor compressor;
+
+    /**
+     * <p>Maximum length of a request body in bytes</p>
+     */
+    protected int maxRequestBody = RpcRequestBody.DEFAULT_MAX_LENGTH;
+
     /**
      * <p>Configure the Servlet</p>
      *
      * <p>Configuration is handled by an RpcConfigParser instance</p>
+     *
+     * <p>Asynchronous dispatch is enabled by setting the ServletConfig param 'rpc-async' to true, the number of
+     * dispatch threads and the timeout in milliseconds can be set with 'rpc-async-threads' and
+     * 'rpc-async-timeout'</p>
+     *
+     * <p>Setting 'rpc-virtual-threads' to true also enables asynchronous dispatch but runs each invocation on
+     * a new virtual thread instead of a fixed pool of threads</p>
+     *
+     * <p>The parallelism used to run batch requests and the maximum number of calls in a batch can be set
+     * with 'rpc-batch-parallelism' and 'rpc-batch-max-calls'</p>
+     *
+     * <p>The maximum number of cached responses can be set with 'rpc-cache-size' or another RpcResponseCache
+     * implementation used by naming its class with 'rpc-cache-class'</p>
+     *
+     * <p>Responses of at least 'rpc-compression-threshold' bytes, 1024 by default, are compressed with the
+     * compression level 'rpc-compression-level', a negative threshold disables compression</p>
+     *
+     * <p>Request bodies posted as application/json or another non form content type are read by RpcServlet
+     * rather than the container, so the containers limit on form posts does not apply to them, instead they
+     * are limited to 'rpc-max-request-body' bytes, 2MB by default</p>
      * 
      * @param config
      * @throws ServletException
@@ -87,6 +292,162 @@ public class RpcServlet extends HttpServlet {
         this.config = config;
         RpcConfigParser configParser = new RpcConfigParser();
         configParser.parseConfig(config, handlers);
+
+        //set up asynchronous dispatch
+        if(Boolean.valueOf(config.getInitParameter(CONFIG_ARG_ASYNC)).booleanValue() ||
+           Boolean.valueOf(config.getInitParameter(CONFIG_ARG_VIRTUAL_THREADS)).booleanValue()) {
+            executor = createExecutor(config);
+            String timeout = config.getInitParameter(CONFIG_ARG_ASYNC_TIMEOUT);
+            if(timeout != null && timeout.length() != 0) {
+                asyncTimeout = Long.parseLong(timeout.trim());
+            }
+        }
+
+        //set up batch requests
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        String parallelismString = config.getInitParameter(CONFIG_ARG_BATCH_PARALLELISM);
+        if(parallelismString != null && parallelismString.length() != 0) {
+            parallelism = Integer.parseInt(parallelismString.trim());
+        }
+        batchPool = new ForkJoinPool(parallelism);
+        String maxCalls = config.getInitParameter(CONFIG_ARG_BATCH_MAX_CALLS);
+        if(maxCalls != null && maxCalls.length() != 0) {
+            batchMaxCalls = Integer.parseInt(maxCalls.trim());
+        }
+
+        //set up the response cache
+        responseCache = createResponseCache(config);
+
+        //set up response compression
+        compressor = createCompressor(config);
+
+        //set up the request body limit
+        String maxBodyString = config.getInitParameter(CONFIG_ARG_MAX_REQUEST_BODY);
+        if(maxBodyString != null && maxBodyString.length() != 0) {
+            maxRequestBody = Integer.parseInt(maxBodyString.trim());
+        }
+    }
+
+    /**
+     * <p>Create the compressor used for responses, returns null if compression is disabled</p>
+     *
+     * <p>Sub classes can override this to supply their own RpcCompressor</p>
+     *
+     * @param config
+     */
+    protected RpcCompressor createCompressor(ServletConfig config) {
+
+        int threshold = RpcCompressor.DEFAULT_THRESHOLD;
+        String thresholdString = config.getInitParameter(CONFIG_ARG_COMPRESSION_THRESHOLD);
+        if(thresholdString != null && thresholdString.length() != 0) {
+            threshold = Integer.parseInt(thresholdString.trim());
+        }
+        if(threshold < 0) {
+            return null;
+        }
+        int level = RpcCompressor.DEFAULT_LEVEL;
+        String levelString = config.getInitParameter(CONFIG_ARG_COMPRESSION_LEVEL);
+        if(levelString != null && levelString.length() != 0) {
+            level = Integer.parseInt(levelString.trim());
+        }
+        return new RpcCompressor(level, threshold);
+    }
+
+    /**
+     * <p>Create the cache that responses of cached methods are stored in</p>
+     *
+     * <p>Sub classes can override this to supply their own RpcResponseCache</p>
+     *
+     * @param config
+     * @throws ServletException
+     */
+    protected RpcResponseCache createResponseCache(ServletConfig config) throws ServletException {
+
+        String cacheClass = config.getInitParameter(CONFIG_ARG_CACHE_CLASS);
+        if(cacheClass != null && cacheClass.length() != 0) {
+            try {
+                return (RpcResponseCache) getClass().getClassLoader().loadClass(cacheClass.trim()).
+                        newInstance();
+            }
+            catch(Exception e) {
+                throw new ServletException(RpcMessages.getMessage("invalidCacheClass", cacheClass), e);
+            }
+        }
+        int size = RpcLruResponseCache.DEFAULT_MAX_ENTRIES;
+        String sizeString = config.getInitParameter(CONFIG_ARG_CACHE_SIZE);
+        if(sizeString != null && sizeString.length() != 0) {
+            size = Integer.parseInt(sizeString.trim());
+        }
+        return new RpcLruResponseCache(size);
+    }
+
+    /**
+     * <p>Get the cache that responses of cached methods are stored in</p>
+     */
+    public RpcResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * <p>Create the executor that remote method invocations are handed to in asynchronous mode</p>
+     *
+     * <p>Sub classes can override this to supply their own executor</p>
+     *
+     * @param config
+     */
+    protected ExecutorService createExecutor(ServletConfig config) {
+
+        if(Boolean.valueOf(config.getInitParameter(CONFIG_ARG_VIRTUAL_THREADS)).booleanValue()) {
+            ExecutorService virtualExecutor = createVirtualThreadExecutor();
+            if(virtualExecutor != null) {
+                return virtualExecutor;
+            }
+            log(RpcMessages.getMessage("virtualThreadsUnsupported", System.getProperty("java.version")));
+        }
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+        String threadsString = config.getInitParameter(CONFIG_ARG_ASYNC_THREADS);
+        if(threadsString != null && threadsString.length() != 0) {
+            threads = Integer.parseInt(threadsString.trim());
+        }
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * <p>Create an executor that runs each task on a new virtual thread</p>
+     *
+     * <p>Virtual threads need Java 21 or later so the executor is created reflectively, returns null if the
+     * running JVM does not support them</p>
+     */
+    protected ExecutorService createVirtualThreadExecutor() {
+
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        }
+        catch(Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * <p>Shut down the asynchronous dispatch executor if there is one and the batch fork join pool</p>
+     *
+     * <p>The response cache statistics are logged</p>
+     */
+    public void destroy() {
+
+        if(responseCache != null) {
+            log(RpcMessages.getMessage("responseCacheStatistics", "hits " + responseCache.getHits() +
+                    ", misses " + responseCache.getMisses() + ", size " + responseCache.size()));
+        }
+
+        if(executor != null) {
+            executor.shutdown();
+        }
+        if(batchPool != null) {
+            batchPool.shutdown();
+        }
+        super.destroy();
     }
 
     /**
@@ -115,10 +476,14 @@ public class RpcServlet extends HttpServlet {
      * <li>Retrieve the service name and method name from the HTTP request</li>
      * <li>Look up the service and its handlers</li>
      * <li>Assemble an RpcContext for the request</li>
+     * <li>Hand the RpcContext to the executor if dispatching asynchronously</li>
      * <li>Retrieve method arguments from the HTTP request via the appropriate handler</li>
+     * <li>Resolve the requested method for the arguments</li>
      * <li>Retrieve the service object or target via the appropriate handler</li>
-     * <li>Invoke the requested method on the service object or target</li>
+     * <li>Invoke the requested method on the service object or target while holding any lock the service
+     * requires</li>
      * <li>Write any return value or exception to the HTTP response via the appropriate handler</li>
+     * <li>Compress the response if the client accepts it and it is large enough</li>
      * </ul>
      * 
      * @param req
@@ -131,6 +496,12 @@ public class RpcServlet extends HttpServlet {
 
         try {
 
+            //compress the response if the client accepts it
+            final RpcCompressedResponse compressedResponse = createCompressedResponse(req, resp);
+            if(compressedResponse != null) {
+                resp = compressedResponse;
+            }
+
             //get service path - [serice-name]/[method-name]/
             String path = req.getPathInfo();
             if(path != null && path.startsWith("/")) {
@@ -144,6 +515,14 @@ public class RpcServlet extends HttpServlet {
             //no service path? list services instead
             if(path == null || (path != null && path.length() == 0)) {
                 listServices(resp);
+                finishResponse(compressedResponse);
+                return;
+            }
+
+            //batch of calls
+            if(path.equals(BATCH_PATH)) {
+                handleBatch(req, resp);
+                finishResponse(compressedResponse);
                 return;
             }
 
@@ -156,51 +535,56 @@ public class RpcServlet extends HttpServlet {
             String service = path.substring(0, index);
             String methodName = path.substring(index + 1);
 
-            //invalid method name
-            if(methodName.indexOf("/") != -1 || service.length() == 0 || methodName.length() == 0) {
-                throw new RpcError(RpcMessages.getMessage("invalidUrl", path));
-            }
-
             //get service handlers for this service
-            RpcHandlers handler = handlers.get(service);
+            final RpcHandlers handler = getHandlers(service, methodName);
 
-            //service not found
-            if(handler == null) {
-                throw new RpcError(RpcMessages.getMessage("unknownService", service));
-            }
-
-            //service method has been filtered
-            if( ! canInvokeMethod(methodName, handler.getFilterMethods())) {
-                throw new RpcError(RpcMessages.getMessage("methodFiltered", methodName));
+            //schema of the service
+            if(methodName.equals(SCHEMA_PATH)) {
+                writeSchema(handler, resp);
+                finishResponse(compressedResponse);
+                return;
             }
 
             //contruct the context for this service call
-            RpcContext context = new RpcContext(config, methodName, req, resp, handler);
+            final RpcContext context = createContext(methodName, req, resp, handler);
 
-            synchronized(handler) {
-                //get the arguments
-                List<Object> arguments = getArguments(context, handler.getArgumentsHandlers());
-
-                //get the target
-                Object target = getTarget(context, handler.getTargetHandlers());
+            //hand the invocation to the executor if dispatching asynchronously
+            if(executor != null && RpcAsyncContext.isSupported(req)) {
+                final RpcAsyncContext asyncContext = RpcAsyncContext.start(req, asyncTimeout);
+                context.setAsyncContext(asyncContext);
                 try {
-                    //invoke the target
-                    Object returnValue = invoke(context, target, arguments);
+                    executor.execute(new Runnable() {
 
-                    //handle any return value
-                    handleReturnValue(context, returnValue, handler.getReturnValueHandlers());
-                }
-                catch(RpcError e) {
+                        public void run() {
+                            try {
+                                //the container may have timed the response out while it was queued
+                                if(asyncContext.isFinished()) {
+                                    return;
+                                }
+                                dispatch(context, handler);
+                                if( ! asyncContext.isFinished()) {
+                                    finishResponse(compressedResponse);
+                                }
+                            }
+                            catch(Throwable e) {
+                                handleAsyncError(context, e);
+                            }
+                            finally {
+                                asyncContext.complete();
+                            }
+                        }
 
-                    //this kind of error should not be passed to exception handlers
-                    throw e;
+                    });
                 }
-                catch(Throwable exception) {
-
-                    //handle any exception
-                    handleException(context, exception, handler.getExceptionHandlers());
+                catch(RejectedExecutionException e) {
+                    asyncContext.complete();
+                    throw e;
                 }
             }
+            else {
+                dispatch(context, handler);
+                finishResponse(compressedResponse);
+            }
         }
         catch(Exception e) {
             throw new ServletException(e);
@@ -208,134 +592,970 @@ public class RpcServlet extends HttpServlet {
     }
 
     /**
-     * <p>List all services registered with the Servlet in JSON format</p>
+     * <p>Wrap an HTTP response so that it is compressed with the content coding the client accepts</p>
+     *
+     * <p>Returns null if compression is disabled or the client accepts neither gzip nor deflate</p>
      *
+     * @param req
      * @param resp
-     * @throws IOException
-     * @throws JSONException
      */
-    protected void listServices(HttpServletResponse resp) throws IOException, JSONException {
+    protected RpcCompressedResponse createCompressedResponse(HttpServletRequest req, HttpServletResponse resp) {
 
-        //TODO: this should be extensible and not fixed to JSON format
-        JSONArray array = new JSONArray();
-        Iterator<String> i = handlers.keySet().iterator();
-        while(i.hasNext()) {
-            String name = i.next();
-            array.put(name);
+        if(compressor == null) {
+            return null;
         }
-        PrintWriter writer = resp.getWriter();
-        array.write(writer);
+
+        //caches must keep compressed and uncompressed responses apart
+        resp.setHeader(RpcCompressor.VARY_HEADER, RpcCompressor.ACCEPT_ENCODING_HEADER);
+        String encoding = RpcCompressor.negotiate(req.getHeader(RpcCompressor.ACCEPT_ENCODING_HEADER));
+        if(encoding == null) {
+            return null;
+        }
+        return new RpcCompressedResponse(resp, compressor, encoding);
     }
 
     /**
-     * <p>Retrieve method arguments from the HTTP request via RpcArgumentsHandler instances</p>
-     *
-     * <p>If this method returns an empty List then there are no arguments for this request</p>
+     * <p>Send any output a compressed response has held back</p>
      *
-     * <p>If this method returns null then there is no appropriate RpcArgumentsHandler instnace for this
-     * request and therefore it cannot be handled</p>
-     * 
-     * @param context
-     * @param argumenntsHandlers
+     * @param compressedResponse
+     * @throws IOException
      */
-    protected List<Object> getArguments(RpcContext context,
-                                        List<RpcArgumentsHandler> argumenntsHandlers) {
+    protected void finishResponse(RpcCompressedResponse compressedResponse) throws IOException {
 
-        Iterator<RpcArgumentsHandler> i = argumenntsHandlers.iterator();
-        while(i.hasNext()) {
-            RpcArgumentsHandler handler = i.next();
-            List<Object> params = handler.getArguments(context);
-            if(params != null) {
-                return params;
-            }
+        if(compressedResponse != null) {
+            compressedResponse.finish();
         }
-        return null;
     }
 
     /**
-     * <p>Retrieve the service object via RpcTargetHandler instances</p>
+     * <p>Look up the RpcHandlers instance for a service and check the method name can be invoked</p>
      *
-     * <p>If this method returns null then there is no appropriate RpcTargetHandler instance for this
-     * request and therefore it cannot be handled</p>
-     * 
-     * @param context
-     * @param targetHandlers
+     * <p>Throws an RpcError if the method name is invalid, the service does not exist or the method has been
+     * filtered</p>
+     *
+     * @param service
+     * @param methodName
      */
-    protected Object getTarget(RpcContext context,
-                               List<RpcTargetHandler> targetHandlers) {
+    protected RpcHandlers getHandlers(String service, String methodName) {
 
-        Iterator<RpcTargetHandler> i = targetHandlers.iterator();
-        while(i.hasNext()) {
-            RpcTargetHandler handler = i.next();
-            Object target = handler.getTarget(context);
-            if(target != null) {
-                return target;
-            }
+        //invalid method name
+        if(methodName.indexOf("/") != -1 || service.length() == 0 || methodName.length() == 0) {
+            throw new RpcError(RpcMessages.getMessage("invalidUrl", service + "/" + methodName));
         }
-        return null;
+
+        //get service handlers for this service
+        RpcHandlers handler = handlers.get(service);
+
+        //service not found
+        if(handler == null) {
+            throw new RpcError(RpcMessages.getMessage("unknownService", service));
+        }
+
+        //service method has been filtered
+        if( ! canInvokeMethod(methodName, handler.getFilterMethods())) {
+            throw new RpcError(RpcMessages.getMessage("methodFiltered", methodName));
+        }
+        return handler;
     }
 
     /**
-     * <p>Handle writing any return value from a method invocation to the HTTP response via 
-     * RpcReturnValueHandler instances</p>
+     * <p>Assemble the RpcContext for a request of a method</p>
      *
-     * <p>Throws an RpcError if no RpcReturnValueHandler handles the return value</p>
+     * <p>If the method name is a number it is the id of a method in the services schema, the context is then
+     * given the name of that method and the method is already resolved</p>
      *
-     * @param context
-     * @param returnValue
-     * @param returnParamHandlers
-     * @throws IOException
+     * <p>Throws an RpcError if there is no method with the id</p>
+     *
+     * @param methodName
+     * @param req
+     * @param resp
+     * @param handler
      */
-    protected void handleReturnValue(RpcContext context, Object returnValue,
-                                     List<RpcReturnValueHandler> returnParamHandlers) throws
-            IOException {
+    protected RpcContext createContext(String methodName, HttpServletRequest req, HttpServletResponse resp,
+                                       RpcHandlers handler) {
 
-        Iterator<RpcReturnValueHandler> i = returnParamHandlers.iterator();
-        while(i.hasNext()) {
-            RpcReturnValueHandler handler = i.next();
-            if(handler.handleReturnValue(context, returnValue)) {
-                return;
-            }
+        if( ! Character.isDigit(methodName.charAt(0))) {
+            RpcContext context = new RpcContext(config, methodName, req, resp, handler);
+            context.setMaxRequestBody(maxRequestBody);
+            return context;
+        }
+        RpcMethod method = null;
+        try {
+            method = handler.getDispatchTable().getMethod(Integer.parseInt(methodName));
         }
-        throw new RpcError(RpcMessages.getMessage("invalidReturnType", returnValue.getClass().
-                getName()));
+        catch(NumberFormatException e) {
+            //not a method id
+        }
+        if(method == null) {
+            throw new RpcError(RpcMessages.getMessage("unknownMethodId", methodName));
+        }
+        RpcContext context = new RpcContext(config, method.getName(), req, resp, handler);
+        context.setMaxRequestBody(maxRequestBody);
+        context.setRpcMethod(method);
+        return context;
     }
 
     /**
-     * <p>Handle writing any exception from a method invocation to the HTTP response via
-     * RpcExceptionHandler instances</p>
+     * <p>Write the schema of a service in JSON format</p>
      *
-     * <p>Throws an RpcError if no RpcExceptionHandler handles the exception</p>
-     * 
-     * @param context
-     * @param exception
-     * @param exceptionHandlers
+     * <p>The schema lists each method with the id it can be requested by and a version that changes whenever
+     * the ids do:</p>
+     * <pre>
+     * {
+     *  service : [service-name],
+     *  version : [schema-version],
+     *  methods : [{id : [method-id], method : [method-name], params : [argument-types],
+     *              returns : [return-type]}, [etc.]]
+     * }
+     * </pre>
+     *
+     * <p>The schema is always written as JSON whatever format the service is called in, the registered
+     * handlers are not used for it</p>
+     *
+     * @param handler
+     * @param resp
      * @throws IOException
+     * @throws JSONException
      */
-    protected void handleException(RpcContext context, Throwable exception,
-                                   List<RpcExceptionHandler> exceptionHandlers) throws IOException {
+    protected void writeSchema(RpcHandlers handler, HttpServletResponse resp) throws IOException, JSONException {
 
-        Iterator<RpcExceptionHandler> i = exceptionHandlers.iterator();
-        while(i.hasNext()) {
-            RpcExceptionHandler handler = i.next();
-            if(handler.handleException(context, exception)) {
-                return;
+        RpcDispatchTable dispatchTable = handler.getDispatchTable();
+        RpcMethod[] methods = dispatchTable.getMethods();
+        JSONArray methodsArray = new JSONArray();
+        for(int i = 0; i < methods.length;  ++ i) {
+            JSONArray params = new JSONArray();
+            for(int x = 0; x < methods[i].getArity();  ++ x) {
+                params.put(methods[i].getParameterType(x).getName());
             }
+            JSONObject method = new JSONObject();
+            method.put("id", methods[i].getId());
+            method.put("method", methods[i].getName());
+            method.put("params", params);
+            method.put("returns", methods[i].getMethod().getReturnType().getName());
+            methodsArray.put(method);
         }
-        throw new RpcError(RpcMessages.getMessage("invalidExceptionType", exception.getClass().
-                getName()));
+        JSONObject schema = new JSONObject();
+        schema.put("service", handler.getServiceName());
+        schema.put("version", dispatchTable.getSchemaVersion());
+        schema.put("methods", methodsArray);
+        resp.setContentType(SCHEMA_CONTENT_TYPE);
+        PrintWriter writer = resp.getWriter();
+        schema.write(writer);
     }
 
     /**
-     * <p>Invoke the requested method on the target service obejct</p>
+     * <p>Handle a batch request</p>
      *
-     * <p>This method searches the target object for the requested method name that matches the supplied
-     * arguments list and if found invokes it</p>
+     * <p>A batch is a JSON array of calls posted to [servlet-mapping]/_batch in the 'a' parameter, or as the
+     * request body with the content type application/json:</p>
+     * <pre>
+     * [
+     *  {service : [service-name], method : [method-name], args : [arguments-array]},
+     *  [etc.]
+     * ]
+     * </pre>
+     *
+     * <p>Each call is dispatched through its services handlers as if it were a request of its own on the batch
+     * fork join pool. Consecutive calls of read methods run in parallel, any other call may change its service
+     * so it runs on its own once the calls before it have completed, keeping the order the calls were
+     * given</p>
+     *
+     * <p>The response is a JSON array holding each calls response in the order the calls were given, a call
+     * that could not be dispatched at all, or an entry that is not a call object, is answered with an object
+     * that has an 'error' property</p>
+     *
+     * <p>Headers set by a call are held back by its RpcBufferedResponse and set on the batch response once
+     * every call has completed</p>
+     *
+     * <p>Batches are only read and answered as JSON, the registered handlers are not used for the batch
+     * itself and RpcBatchRequest hides the Accept header so every call is answered as JSON too</p>
+     *
+     * @param req
+     * @param resp
+     * @throws IOException
+     * @throws JSONException
+     * @throws InterruptedException
+     */
+    protected void handleBatch(final HttpServletRequest req, final HttpServletResponse resp)
+            throws IOException, JSONException, InterruptedException {
+
+        JSONArray calls = new JSONArray();
+        if(RpcRequestBody.isJson(req)) {
+            RpcRequestBody body = RpcRequestBody.read(req, RpcBufferPool.getShared(), maxRequestBody);
+            try {
+                if(body.getLength() != 0) {
+                    calls = new JSONArray(new JSONTokener(body.getChars(), 0, body.getLength()));
+                }
+            }
+            finally {
+                body.release();
+            }
+        }
+        else {
+            String batchString = req.getParameter(BATCH_PARAM);
+            if(batchString != null && batchString.length() != 0) {
+                calls = new JSONArray(batchString);
+            }
+        }
+        if(calls.length() > batchMaxCalls) {
+            throw new RpcError(RpcMessages.getMessage("batchTooLarge", String.valueOf(calls.length())));
+        }
+
+        //calls write UTF-8 so the batch response is UTF-8 too
+        resp.setContentType(BATCH_CONTENT_TYPE);
+
+        //create a task for each call, each with its own buffered response
+        final Lock sessionLock = new ReentrantLock();
+        int count = calls.length();
+        String[] services = new String[count];
+        String[] methodNames = new String[count];
+        boolean[] reads = new boolean[count];
+        RpcBufferedResponse[] bufferedResponses = new RpcBufferedResponse[count];
+        List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>(count);
+        for(int i = 0; i < count;  ++ i) {
+            JSONObject call = calls.optJSONObject(i);
+            if(call == null) {
+
+                //answer an entry that is not a call with an error object, the other calls still run
+                final byte[] error = getBatchError(null, null, new RpcError(RpcMessages.getMessage(
+                        "invalidBatchCall", String.valueOf(i))));
+                reads[i] = true;
+                bufferedResponses[i] = new RpcBufferedResponse(resp);
+                tasks.add(new Callable<byte[]>() {
+
+                    public byte[] call() {
+                        return error;
+                    }
+
+                });
+                continue;
+            }
+            final String service = call.optString("service");
+            final String methodName = call.optString("method");
+            Object args = call.opt("args");
+            final String arguments = args == null || JSONObject.NULL.equals(args) ? null : args.toString();
+            final RpcBufferedResponse bufferedResponse = new RpcBufferedResponse(resp);
+            services[i] = service;
+            methodNames[i] = methodName;
+            reads[i] = isReadCall(service, methodName);
+            bufferedResponses[i] = bufferedResponse;
+            tasks.add(new Callable<byte[]>() {
+
+                public byte[] call() throws Exception {
+                    return dispatchBatchCall(req, bufferedResponse, service, methodName, arguments,
+                            sessionLock);
+                }
+
+            });
+        }
+
+        //run consecutive read calls together and every other call on its own, collecting responses in order
+        byte[][] responses = new byte[count][];
+        int length = count + 1;
+        int start = 0;
+        while(start < count) {
+            int end = start + 1;
+            if(reads[start]) {
+                while(end < count && reads[end]) {
+                     ++ end;
+                }
+            }
+            List<Future<byte[]>> results = batchPool.invokeAll(tasks.subList(start, end));
+            for(int i = start; i < end;  ++ i) {
+                try {
+                    responses[i] = results.get(i - start).get();
+                }
+                catch(ExecutionException e) {
+                    responses[i] = getBatchError(services[i], methodNames[i], e.getCause());
+                }
+                length += responses[i].length;
+            }
+            start = end;
+        }
+
+        //set the headers the calls have held back from the shared response
+        for(int i = 0; i < count;  ++ i) {
+            bufferedResponses[i].applyHeaders(resp);
+        }
+
+        //write the responses as one array with its Content-Length
+        RpcOutputBuffer out = new RpcOutputBuffer(RpcBufferPool.getShared(), length + 1);
+        try {
+            out.append('[');
+            for(int i = 0; i < responses.length;  ++ i) {
+                if(i > 0) {
+                    out.append(',');
+                }
+                out.writeBytes(responses[i], 0, responses[i].length);
+            }
+            out.append(']');
+            out.writeTo(resp);
+        }
+        finally {
+            out.release();
+        }
+    }
+
+    /**
+     * <p>Is a call from a batch request a call of a read method, which can run in parallel with other read
+     * methods</p>
+     *
+     * <p>Read methods are declared by name so every overload of a method shares the setting, a call of an
+     * unknown service or method is not a read method</p>
+     *
+     * @param service
+     * @param methodName
+     */
+    protected boolean isReadCall(String service, String methodName) {
+
+        RpcHandlers handler = handlers.get(service);
+        if(handler == null || methodName.length() == 0) {
+            return false;
+        }
+        RpcDispatchTable dispatchTable = handler.getDispatchTable();
+        if(Character.isDigit(methodName.charAt(0))) {
+            try {
+                RpcMethod method = dispatchTable.getMethod(Integer.parseInt(methodName));
+                return method != null && method.isReadMethod();
+            }
+            catch(NumberFormatException e) {
+                return false;
+            }
+        }
+        RpcMethod[] methods = dispatchTable.getMethods();
+        for(int i = 0; i < methods.length;  ++ i) {
+            if(methods[i].getName().equals(methodName)) {
+                return methods[i].isReadMethod();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>Dispatch a single call from a batch request and return its response</p>
+     *
+     * @param req
+     * @param bufferedResponse
+     * @param service
+     * @param methodName
+     * @param arguments
+     * @param sessionLock
+     * @throws IOException
+     * @throws JSONException
+     */
+    protected byte[] dispatchBatchCall(HttpServletRequest req, RpcBufferedResponse bufferedResponse,
+                                       String service, String methodName, String arguments, Lock sessionLock)
+            throws IOException, JSONException {
+
+        try {
+            RpcHandlers handler = getHandlers(service, methodName);
+            RpcBatchRequest batchRequest = new RpcBatchRequest(req, service, methodName, BATCH_PARAM,
+                    arguments, sessionLock);
+            RpcContext context = createContext(methodName, batchRequest, bufferedResponse, handler);
+            dispatch(context, handler);
+            return bufferedResponse.toByteArray();
+        }
+        catch(RpcError e) {
+
+            //answer with an error object rather than failing the whole batch
+            return getBatchError(service, methodName, e);
+        }
+    }
+
+    /**
+     * <p>Get the response of a call from a batch request that could not be dispatched, an object with an
+     * 'error' property holding the class and message of the error</p>
+     *
+     * <p>The service and method are left out when they are null, for an entry that is not a call object</p>
+     *
+     * @param service
+     * @param methodName
+     * @param error
+     * @throws IOException
+     * @throws JSONException
+     */
+    protected byte[] getBatchError(String service, String methodName, Throwable error)
+            throws IOException, JSONException {
+
+        JSONObject errorObject = new JSONObject();
+        errorObject.put("class", error.getClass().getName());
+        errorObject.put("message", error.getMessage() == null ? "" : error.getMessage());
+        JSONObject responseObject = new JSONObject();
+        responseObject.put("service", service);
+        responseObject.put("method", methodName);
+        responseObject.put("error", errorObject);
+        return responseObject.toString().getBytes(RpcUtf8.CHARSET);
+    }
+
+    /**
+     * <p>Dispatch a remote method invocation for an assembled RpcContext</p>
+     *
+     * <p>This is called on the container thread, or on an executor thread when dispatching
+     * asynchronously</p>
+     *
+     * <p>Responses of cached and coalesced methods are captured by getCapturedResponse(RpcContext,
+     * RpcHandlers, Object, List) and then written to the HTTP response</p>
+     *
+     * @param context
+     * @param handler
+     * @throws IOException
+     */
+    protected void dispatch(RpcContext context, RpcHandlers handler) throws IOException {
+
+        //choose the format and envelope of the response
+        context.setResponseType(getResponseType(context));
+        context.setCompact(isCompact(context, handler));
+
+        //get the arguments
+        RpcPipeline pipeline = handler.getPipeline();
+        List<Object> arguments = getArguments(context, pipeline);
+
+        //resolve the method to invoke
+        resolve(context, arguments);
+
+        //get the target
+        Object target = getTarget(context, pipeline);
+
+        RpcMethod method = context.getRpcMethod();
+        if(method.isCached() || method.isCoalesced()) {
+            RpcCapturedResponse captured = getCapturedResponse(context, handler, target, arguments);
+            if( ! context.isResponseFinished()) {
+                captured.writeTo(context.getRequest(), context.getResponse());
+            }
+        }
+        else {
+            execute(context, handler, target, arguments);
+        }
+    }
+
+    /**
+     * <p>Get the response of a cached or coalesced method</p>
+     *
+     * <p>A cached response is returned if the response cache holds one for the invocation, otherwise the
+     * invocation is executed, or coalesced with an identical one, and a successful response is stored in the
+     * response cache</p>
+     *
+     * <p>Only the request that actually executes the invocation stores its response, with the invalidation
+     * sequence it read before invoking, so a request that joined a coalesced invocation after a cache tag was
+     * invalidated cannot store a response computed before the invalidation</p>
+     *
+     * @param context
+     * @param handler
+     * @param target
+     * @param arguments
+     * @throws IOException
+     */
+    protected RpcCapturedResponse getCapturedResponse(RpcContext context, RpcHandlers handler, Object target,
+                                                      List<Object> arguments) throws IOException {
+
+        RpcMethod method = context.getRpcMethod();
+
+        //look up a cached response
+        RpcCallKey cacheKey = null;
+        if(method.isCached()) {
+            cacheKey = new RpcCallKey(getCachePartition(context), context.getResponseType(),
+                    context.isCompact(), method, arguments);
+            RpcCapturedResponse cached = responseCache.get(cacheKey);
+            if(cached != null) {
+                return cached;
+            }
+        }
+
+        //execute the invocation
+        if(method.isCoalesced()) {
+            return coalesce(context, handler, target, arguments, cacheKey);
+        }
+        return captureAndStore(context, handler, target, arguments, cacheKey);
+    }
+
+    /**
+     * <p>Execute an invocation with its response captured and store a successful response in the response
+     * cache under the given key, unless the key is null</p>
+     *
+     * <p>The invalidation sequence is read before invoking, so the response is refused if one of its cache
+     * tags is invalidated while the invocation runs</p>
+     *
+     * @param context
+     * @param handler
+     * @param target
+     * @param arguments
+     * @param cacheKey
+     * @throws IOException
+     */
+    protected RpcCapturedResponse captureAndStore(RpcContext context, RpcHandlers handler, Object target,
+                                                  List<Object> arguments, RpcCallKey cacheKey)
+            throws IOException {
+
+        long sequence = cacheKey == null ? 0 : responseCache.getSequence();
+        RpcCapturedResponse captured = capture(context, handler, target, arguments);
+        if(cacheKey != null && captured.isCacheable()) {
+            RpcMethod method = context.getRpcMethod();
+            responseCache.put(cacheKey, captured, method.getCacheTtl(), method.getCacheTags(), sequence);
+        }
+        return captured;
+    }
+
+    /**
+     * <p>Evict all cached responses that read one of the given cache tags</p>
+     *
+     * @param tags
+     */
+    protected void invalidate(String[] tags) {
+
+        for(int i = 0; i < tags.length;  ++ i) {
+            responseCache.invalidate(tags[i]);
+        }
+    }
+
+    /**
+     * <p>Get the partition a cached response is stored under, the session id for methods cached per session
+     * otherwise null</p>
+     *
+     * @param context
+     */
+    protected Object getCachePartition(RpcContext context) {
+
+        if( ! context.getRpcMethod().isSessionCached()) {
+            return null;
+        }
+        HttpSession session = context.getRequest().getSession(false);
+        return session == null ? null : session.getId();
+    }
+
+    /**
+     * <p>Run a coalesced invocation once for all concurrent requests with the same RpcCallKey</p>
+     *
+     * <p>The first request executes the invocation with its response captured, any identical request that
+     * arrives before it completes waits for it and every request gets the same captured response</p>
+     *
+     * <p>Only the first request stores the response in the response cache, the requests waiting for it do
+     * not</p>
+     *
+     * @param context
+     * @param handler
+     * @param target
+     * @param arguments
+     * @param cacheKey key the leaders response is cached under or null if the method is not cached
+     * @throws IOException
+     */
+    protected RpcCapturedResponse coalesce(final RpcContext context, final RpcHandlers handler,
+                                           final Object target, final List<Object> arguments,
+                                           final RpcCallKey cacheKey)
+            throws IOException {
+
+        RpcCallKey key = new RpcCallKey(target, context.getResponseType(), context.isCompact(),
+                context.getRpcMethod(), arguments);
+        FutureTask<RpcCapturedResponse> task = new FutureTask<RpcCapturedResponse>(
+                new Callable<RpcCapturedResponse>() {
+
+                    public RpcCapturedResponse call() throws Exception {
+                        return captureAndStore(context, handler, target, arguments, cacheKey);
+                    }
+
+                });
+
+        //run the invocation unless an identical one is already in flight
+        FutureTask<RpcCapturedResponse> leader = inFlight.putIfAbsent(key, task);
+        if(leader == null) {
+            leader = task;
+            try {
+                task.run();
+            }
+            finally {
+                inFlight.remove(key, task);
+            }
+        }
+
+        //wait for the captured response
+        try {
+            return leader.get();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RpcError(e);
+        }
+        catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RpcError) {
+                throw (RpcError) cause;
+            }
+            if(cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new RpcError(cause);
+        }
+    }
+
+    /**
+     * <p>Execute an invocation with its response captured by an RpcBufferedResponse</p>
+     *
+     * <p>The request is wrapped by an RpcUnconditionalRequest so that a full response is always captured, the
+     * conditional request is evaluated when the captured response is written</p>
+     *
+     * <p>The response is always captured in full, even if the container completes an asynchronous response
+     * meanwhile, as a coalesced or cached response is also written to other requests</p>
+     *
+     * @param context
+     * @param handler
+     * @param target
+     * @param arguments
+     * @throws IOException
+     */
+    protected RpcCapturedResponse capture(RpcContext context, RpcHandlers handler, Object target,
+                                          List<Object> arguments) throws IOException {
+
+        HttpServletRequest request = context.getRequest();
+        HttpServletResponse response = context.getResponse();
+        RpcAsyncContext asyncContext = context.getAsyncContext();
+        RpcBufferedResponse bufferedResponse = new RpcBufferedResponse(response);
+        context.setRequest(new RpcUnconditionalRequest(request));
+        context.setResponse(bufferedResponse);
+        context.setAsyncContext(null);
+        boolean returned;
+        try {
+            returned = execute(context, handler, target, arguments);
+        }
+        finally {
+            context.setRequest(request);
+            context.setResponse(response);
+            context.setAsyncContext(asyncContext);
+        }
+        bufferedResponse.applyHeaders(response);
+        return bufferedResponse.toCapturedResponse( ! returned);
+    }
+
+    /**
+     * <p>Invoke a resolved method on its target and handle the return value or exception</p>
+     *
+     * <p>If the invoked method returns a Future then its result, or the exception it completes with, is
+     * handled once it has completed. The Future is waited for no longer than the asynchronous dispatch
+     * timeout, if it has not completed by then it is cancelled and a TimeoutException is handled instead</p>
+     *
+     * <p>Nothing is written if the container has already completed an asynchronous response, for example
+     * after its own timeout fired while the Future was waited for</p>
+     *
+     * <p>Returns true if the invocation returned normally or false if it ended with an exception</p>
+     *
+     * @param context
+     * @param handler
+     * @param target
+     * @param arguments
+     * @throws IOException
+     */
+    protected boolean execute(RpcContext context, RpcHandlers handler, Object target, List<Object> arguments)
+            throws IOException {
+
+        //invoke the target while holding any lock the service requires
+        Object returnValue = null;
+        Throwable exception = null;
+        Lock lock = getLock(context, handler);
+        if(lock != null) {
+            lock.lock();
+        }
+        try {
+            returnValue = invoke(context, target, arguments);
+        }
+        catch(RpcError e) {
+
+            //this kind of error should not be passed to exception handlers
+            throw e;
+        }
+        catch(Throwable e) {
+            exception = e;
+        }
+        finally {
+            if(lock != null) {
+                lock.unlock();
+            }
+        }
+
+        //wait for any future outside of the lock
+        if(returnValue instanceof Future) {
+            Future future = (Future) returnValue;
+            try {
+                returnValue = future.get(getFutureTimeout(), TimeUnit.MILLISECONDS);
+            }
+            catch(ExecutionException e) {
+                exception = e.getCause();
+            }
+            catch(TimeoutException e) {
+                future.cancel(true);
+                exception = e;
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exception = e;
+            }
+        }
+
+        //the container has already completed the response
+        if(context.isResponseFinished()) {
+            return false;
+        }
+
+        if(exception == null) {
+            //evict cached responses the invocation may have changed
+            invalidate(context.getRpcMethod().getInvalidateTags());
+
+            //handle any return value
+            handleReturnValue(context, returnValue, handler.getPipeline());
+            return true;
+        }
+        else {
+            //handle any exception
+            handleException(context, exception, handler.getPipeline());
+            return false;
+        }
+    }
+
+    /**
+     * <p>Get the time in milliseconds to wait for a Future returned by a service method</p>
+     *
+     * <p>This is the asynchronous dispatch timeout if one is set, otherwise DEFAULT_FUTURE_TIMEOUT</p>
+     */
+    protected long getFutureTimeout() {
+        return asyncTimeout > 0 ? asyncTimeout : DEFAULT_FUTURE_TIMEOUT;
+    }
+
+    /**
+     * <p>Handle an error that escaped an asynchronous dispatch</p>
+     *
+     * <p>The error is logged and, if nothing has been written yet and the container has not already completed
+     * the response, an HTTP 500 response is sent in place of the ServletException the container would
+     * otherwise report</p>
+     *
+     * @param context
+     * @param error
+     */
+    protected void handleAsyncError(RpcContext context, Throwable error) {
+
+        log(RpcMessages.getMessage("asyncDispatchFailed", context.getService() + "/" +
+                context.getMethod()), error);
+        HttpServletResponse resp = context.getResponse();
+        if( ! context.isResponseFinished() &&  ! resp.isCommitted()) {
+            try {
+                resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+            catch(IOException e) {
+                //client has gone away
+            }
+        }
+    }
+
+    /**
+     * <p>List all services registered with the Servlet in JSON format</p>
+     *
+     * @param resp
+     * @throws IOException
+     * @throws JSONException
+     */
+    protected void listServices(HttpServletResponse resp) throws IOException, JSONException {
+
+        //TODO: this should be extensible and not fixed to JSON format
+        JSONArray array = new JSONArray();
+        Iterator<String> i = handlers.keySet().iterator();
+        while(i.hasNext()) {
+            String name = i.next();
+            array.put(name);
+        }
+        PrintWriter writer = resp.getWriter();
+        array.write(writer);
+    }
+
+    /**
+     * <p>Choose the MIME type the response of an invocation is written as</p>
+     *
+     * <p>This is the first type listed by the requests Accept header that the service has an
+     * RpcReturnValueHandler registered for, otherwise the requests own content type if it has one, otherwise
+     * null and the handler lists decide</p>
+     *
+     * @param context
+     */
+    protected String getResponseType(RpcContext context) {
+
+        HttpServletRequest request = context.getRequest();
+        String[] accepted = RpcMimeTypes.getAccepted(request.getHeader(RpcMimeTypes.ACCEPT_HEADER));
+        for(int i = 0; i < accepted.length;  ++ i) {
+            if(context.getReturnValueHandler(accepted[i]) != null) {
+                return accepted[i];
+            }
+        }
+        String contentType = RpcMimeTypes.getMimeType(request.getContentType());
+        if(context.getReturnValueHandler(contentType) != null) {
+            return contentType;
+        }
+        return null;
+    }
+
+    /**
+     * <p>Is the response of an invocation written in the compact envelope</p>
+     *
+     * <p>The requests X-Rpc-Envelope header decides if it is 'compact' or 'full', otherwise the services
+     * setting does</p>
+     *
+     * @param context
+     * @param handler
+     */
+    protected boolean isCompact(RpcContext context, RpcHandlers handler) {
+
+        String envelope = context.getRequest().getHeader(RpcEnvelope.ENVELOPE_HEADER);
+        if(RpcEnvelope.COMPACT.equalsIgnoreCase(envelope)) {
+            return true;
+        }
+        if(RpcEnvelope.FULL.equalsIgnoreCase(envelope)) {
+            return false;
+        }
+        return handler.isCompactResponses();
+    }
+
+    /**
+     * <p>Retrieve method arguments from the HTTP request via the RpcArgumentsHandler instances of the services
+     * RpcPipeline</p>
+     *
+     * <p>The RpcArgumentsHandler registered for the requests content type is used if there is one, otherwise
+     * each RpcArgumentsHandler is tried in turn</p>
+     *
+     * <p>If this method returns an empty List then there are no arguments for this request</p>
+     *
+     * <p>If this method returns null then there is no appropriate RpcArgumentsHandler instnace for this
+     * request and therefore it cannot be handled</p>
+     * 
+     * @param context
+     * @param pipeline
+     */
+    protected List<Object> getArguments(RpcContext context, RpcPipeline pipeline) {
+
+        return pipeline.getArguments(context);
+    }
+
+    /**
+     * <p>Get the lock to hold while invoking the target via the services RpcLockHandler instance</p>
+     *
+     * <p>If the service has no RpcLockHandler then a single lock for the service is used</p>
+     *
+     * <p>If this method returns null then the invocation is not locked</p>
+     *
+     * @param context
+     * @param handler
+     */
+    protected Lock getLock(RpcContext context, RpcHandlers handler) {
+
+        RpcLockHandler lockHandler = handler.getLockHandler();
+        if(lockHandler == null) {
+            return handler.getServiceLock();
+        }
+        return lockHandler.getLock(context);
+    }
+
+    /**
+     * <p>Retrieve the service object via the RpcTargetHandler instances of the services RpcPipeline</p>
+     *
+     * <p>If this method returns null then there is no appropriate RpcTargetHandler instance for this
+     * request and therefore it cannot be handled</p>
+     * 
+     * @param context
+     * @param pipeline
+     */
+    protected Object getTarget(RpcContext context, RpcPipeline pipeline) {
+
+        return pipeline.getTarget(context);
+    }
+
+    /**
+     * <p>Handle writing any return value from a method invocation to the HTTP response via the
+     * RpcReturnValueHandler instances of the services RpcPipeline</p>
+     *
+     * <p>The RpcReturnValueHandler the pipeline chose for the resolved method and response type is used if
+     * there is one, otherwise the RpcReturnValueHandler registered for the response type is tried first</p>
+     *
+     * <p>Throws an RpcError if no RpcReturnValueHandler handles the return value</p>
+     *
+     * @param context
+     * @param returnValue
+     * @param pipeline
+     * @throws IOException
+     */
+    protected void handleReturnValue(RpcContext context, Object returnValue, RpcPipeline pipeline)
+            throws IOException {
+
+        if( ! pipeline.handleReturnValue(context, returnValue)) {
+            throw new RpcError(RpcMessages.getMessage("invalidReturnType", returnValue.getClass().
+                    getName()));
+        }
+    }
+
+    /**
+     * <p>Handle writing any exception from a method invocation to the HTTP response via the
+     * RpcExceptionHandler instances of the services RpcPipeline</p>
+     *
+     * <p>The RpcExceptionHandler registered for the response type is tried first</p>
+     *
+     * <p>Throws an RpcError if no RpcExceptionHandler handles the exception</p>
+     * 
+     * @param context
+     * @param exception
+     * @param pipeline
+     * @throws IOException
+     */
+    protected void handleException(RpcContext context, Throwable exception, RpcPipeline pipeline)
+            throws IOException {
+
+        if( ! pipeline.handleException(context, exception)) {
+            throw new RpcError(RpcMessages.getMessage("invalidExceptionType", exception.getClass().
+                    getName()));
+        }
+    }
+
+    /**
+     * <p>Resolve the requested method for the supplied arguments list</p>
+     *
+     * <p>This method looks up the requested method name and number of arguments in the services dispatch
+     * table and sets the first overload whose parameter types match the supplied arguments list on the
+     * context</p>
+     *
+     * <p>A method requested by id is already set on the context and only has to match the arguments</p>
+     *
+     * <p>Throws an RpcError if no matching method can be found</p>
+     *
+     * @param context
+     * @param arguments
+     */
+    protected void resolve(RpcContext context, List<Object> arguments) {
+
+        //convert arguments list to array of Class types
+        int length = arguments == null ? 0 : arguments.size();
+        Class[] argClasses = new Class[length];
+        for(int i = 0; i < length;  ++ i) {
+            Object value = arguments.get(i);
+            if(value != null) {
+                argClasses[i] = value.getClass();
+            }
+        }
+        //check a method requested by id
+        RpcMethod method = context.getRpcMethod();
+        if(method != null) {
+            if( ! method.matches(argClasses)) {
+                throw new RpcError(getMethodDoesntExistMessage(context, argClasses));
+            }
+            return;
+        }
+
+        //look up a matching method in the dispatch table
+        method = context.getDispatchTable().getMethod(context.getMethod(), argClasses);
+        if(method == null) {
+            throw new RpcError(getMethodDoesntExistMessage(context, argClasses));
+        }
+        context.setRpcMethod(method);
+    }
+
+    /**
+     * <p>Invoke the resolved method on the target service obejct</p>
      *
-     * <p>Throws an RpcError if no matching method can be found</p>
-     * 
      * <p>Returns the return value from the method invocation or Void.TYPE if the method does not return
      * a value</p>
+     *
+     * <p>The method is invoked through the method handle its RpcMethod created when the service was
+     * registered</p>
      * 
      * @param context
      * @param target
@@ -344,83 +1564,41 @@ public class RpcServlet extends HttpServlet {
      */
     protected Object invoke(RpcContext context, Object target, List<Object> arguments) throws Throwable {
 
-        //convert arguments list to array of Class types
-        Class[] argClasses = null;
-        Object[] argValues = null;
+        Object[] argValues = NO_ARGUMENTS;
         if(arguments != null) {
             argValues = arguments.toArray();
-            argClasses = new Class[argValues.length];
-
-            for(int i = 0; i < argValues.length;  ++ i) {
-                argClasses[i] = argValues[i].getClass();
-            }
         }
-        //search for a matching method on the target
-        Method[] methods = target.getClass().getMethods();
-        outer:
-        for(int i = 0; i < methods.length;  ++ i) {
-            Method method = methods[i];
-            if(method.getName().equals(context.getMethod())) {
-                Class[] parameterTypes = method.getParameterTypes();
-                if(parameterTypes.length == argClasses.length) {
-                    for(int j = 0; j < parameterTypes.length;  ++ j) {
-                        Class type = parameterTypes[j];
-                        
-                        //is the parameter primitive and of a compatible type
-                        if(type.isPrimitive()) {
-                            if(type == Double.TYPE && argClasses[j] != Double.class) {
-                                continue outer;
-                            }
-                            if(type == Integer.TYPE && argClasses[j] != Integer.class) {
-                                continue outer;
-                            }
-                            if(type == Boolean.TYPE && argClasses[j] != Boolean.class) {
-                                continue outer;
-                            }
-                            if(type == Long.TYPE && argClasses[j] != Long.class) {
-                                continue outer;
-                            }
-                        }
-                        else {
-                            if( ! parameterTypes[j].isAssignableFrom(argClasses[j])) {
-                                continue outer;
-                            }
-                        }
-                    }
-                    //invoke a matching method
-                    try {
-                        context.setInvoked(method);
-                        Object returnValue = method.invoke(target, argValues);
-                        if(method.getReturnType().equals(Void.TYPE)) {
-                            return Void.TYPE;
-                        }
-                        else {
-                            return returnValue;
-                        }
-                    }
-                    catch(IllegalAccessException e) {
-                        throw new RpcError(e);
-                    }
-                    catch(InvocationTargetException e) {
-                        throw e.getTargetException();
-                    }
-                }
-            }
+        RpcMethod method = context.getRpcMethod();
+        Object returnValue = method.invoke(target, argValues);
+        if(method.returnsVoid()) {
+            return Void.TYPE;
+        }
+        else {
+            return returnValue;
         }
-        //build error message
+    }
+
+    /**
+     * <p>Build the error message for a method that could not be found</p>
+     *
+     * @param context
+     * @param argClasses
+     */
+    protected String getMethodDoesntExistMessage(RpcContext context, Class[] argClasses) {
+
         StringBuilder error = new StringBuilder();
         error.append(RpcMessages.getMessage("methodDoesntExist"));
         error.append(' ');
         error.append(context.getMethod());
         error.append('(');
         for(int i = 0; i < argClasses.length;  ++ i) {
-            error.append(argClasses[i].getName());
+            error.append(argClasses[i] == null ? "null" : argClasses[i].getName());
             if(i < argClasses.length - 1) {
                 error.append(", ");
             }
         }
         error.append(')');
-        throw new RpcError(error.toString());
+        return error.toString();
     }
 
     /**
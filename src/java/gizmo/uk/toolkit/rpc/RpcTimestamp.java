@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * <p>RpcTimestamp renders the timestamp handlers add to responses in the format: yyyyMMddTHH:mm:ss</p>
+ *
+ * <p>The timestamp only changes once a second so the current rendering is shared by all threads and only
+ * rendered again when the second has passed, instead of creating a SimpleDateFormat and Calendar for every
+ * response</p>
+ *
+ * <p>Instances are immutable and published through a volatile reference, if several threads see a new second
+ * at the same time each renders it and the last one written is kept, which is harmless as they are equal</p>
+ *
+ * @author gareth bond
+ */
+public class RpcTimestamp {
+
+    /**
+     * <p>SimpleDateFormat pattern of the timestamp</p>
+     */
+    public static final String PATTERN = "yyyyMMdd'T'HH:mm:ss";
+
+    /**
+     * <p>Timestamp of the current second</p>
+     */
+    protected static volatile RpcTimestamp current;
+
+    /**
+     * <p>Second since the epoch the timestamp was rendered for</p>
+     */
+    protected final long second;
+
+    /**
+     * <p>Rendered timestamp</p>
+     */
+    protected final String text;
+
+    /**
+     * <p>Construct a new RpcTimestamp rendering the given second since the epoch</p>
+     *
+     * @param second
+     */
+    protected RpcTimestamp(long second) {
+        this.second = second;
+        text = new SimpleDateFormat(PATTERN).format(new Date(second * 1000));
+    }
+
+    /**
+     * <p>Get the timestamp of the current time</p>
+     */
+    public static String get() {
+        long second = System.currentTimeMillis() / 1000;
+        RpcTimestamp timestamp = current;
+        if(timestamp == null || timestamp.second != second) {
+            timestamp = new RpcTimestamp(second);
+            current = timestamp;
+        }
+        return timestamp.text;
+    }
+
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * <p>RpcUnconditionalRequest hides the If-None-Match header of a request so that handlers always write a
+ * full response</p>
+ *
+ * <p>This is used where a response is captured to be written to other requests, or to be combined with other
+ * responses, and the conditional request is evaluated later if at all</p>
+ *
+ * @author gareth bond
+ */
+public class RpcUnconditionalRequest extends HttpServletRequestWrapper {
+
+    /**
+     * <p>Construct a new RpcUnconditionalRequest wrapping the given request</p>
+     *
+     * @param request
+     */
+    public RpcUnconditionalRequest(HttpServletRequest request) {
+        super(request);
+    }
+
+    public String getHeader(String name) {
+        if(name.equalsIgnoreCase(RpcETag.IF_NONE_MATCH_HEADER)) {
+            return null;
+        }
+        return super.getHeader(name);
+    }
+
+    public Enumeration getHeaders(String name) {
+        if(name.equalsIgnoreCase(RpcETag.IF_NONE_MATCH_HEADER)) {
+            return Collections.enumeration(Collections.emptyList());
+        }
+        return super.getHeaders(name);
+    }
+
+    public Enumeration getHeaderNames() {
+        List names = Collections.list(super.getHeaderNames());
+        for(int i = names.size() - 1; i >= 0;  -- i) {
+            if(((String) names.get(i)).equalsIgnoreCase(RpcETag.IF_NONE_MATCH_HEADER)) {
+                names.remove(i);
+            }
+        }
+        return Collections.enumeration(names);
+    }
+
+}
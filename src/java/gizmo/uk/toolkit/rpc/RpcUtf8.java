@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc;
+
+/**
+ * <p>RpcUtf8 converts between UTF-8 bytes and chars without going through a CharsetDecoder</p>
+ *
+ * <p>ASCII, which is most of any JSON text, is copied with a single comparison per byte and each malformed
+ * sequence is replaced with U+FFFD the same way the JDK decoder replaces it</p>
+ *
+ * @author gareth bond
+ */
+public class RpcUtf8 {
+
+    /**
+     * <p>Name of the UTF-8 charset</p>
+     */
+    public static final String CHARSET = "UTF-8";
+
+    /**
+     * <p>Character malformed input is replaced with</p>
+     */
+    protected static final char REPLACEMENT = '\uFFFD';
+
+    /**
+     * <p>Is a charset name, possibly null, UTF-8 or unspecified</p>
+     *
+     * @param charset
+     */
+    public static boolean isUtf8(String charset) {
+        return charset == null || charset.equalsIgnoreCase(CHARSET) || charset.equalsIgnoreCase("UTF8");
+    }
+
+    /**
+     * <p>Get the number of bytes chars encode to as UTF-8</p>
+     *
+     * <p>An unpaired surrogate counts as the single '?' byte RpcOutputBuffer writes for it</p>
+     *
+     * @param chars
+     */
+    public static int length(CharSequence chars) {
+        int length = chars.length();
+        int bytes = length;
+        for(int i = 0; i < length;  ++ i) {
+            char c = chars.charAt(i);
+            if(c < 0x80) {
+                continue;
+            }
+            if(c < 0x800) {
+                bytes += 1;
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < length &&
+                    Character.isLowSurrogate(chars.charAt(i + 1))) {
+
+                //a surrogate pair is two chars and four bytes
+                bytes += 2;
+                i ++;
+            }
+            else if( ! Character.isSurrogate(c)) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * <p>Decode a range of UTF-8 bytes into a char array and return the number of chars written</p>
+     *
+     * <p>UTF-8 never needs more chars than bytes, so the char array must have room for as many chars as
+     * there are bytes</p>
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @param chars
+     * @param charOffset
+     */
+    public static int decode(byte[] bytes, int offset, int length, char[] chars, int charOffset) {
+        int i = offset;
+        int end = offset + length;
+        int j = charOffset;
+        while(i < end) {
+            int b = bytes[i];
+
+            //ascii
+            if(b >= 0) {
+                chars[j ++] = (char) b;
+                i ++;
+                continue;
+            }
+
+            //the number of continuation bytes and the range of the first one follow from the lead byte
+            b &= 0xff;
+            int count;
+            int min = 0x80;
+            int max = 0xbf;
+            if(b >= 0xc2 && b <= 0xdf) {
+                count = 1;
+            }
+            else if(b >= 0xe0 && b <= 0xef) {
+                count = 2;
+                if(b == 0xe0) {
+                    min = 0xa0;
+                }
+            }
+            else if(b >= 0xf0 && b <= 0xf4) {
+                count = 3;
+                if(b == 0xf0) {
+                    min = 0x90;
+                }
+                else if(b == 0xf4) {
+                    max = 0x8f;
+                }
+            }
+            else {
+                chars[j ++] = REPLACEMENT;
+                i ++;
+                continue;
+            }
+
+            //a malformed sequence is replaced as a whole up to the first byte that does not belong to it
+            int c = b & (0x3f >> count);
+            int k = 1;
+            while(k <= count && i + k < end) {
+                int next = bytes[i + k] & 0xff;
+                if(next < min || next > max) {
+                    break;
+                }
+                c = (c << 6) | (next & 0x3f);
+                min = 0x80;
+                max = 0xbf;
+                k ++;
+            }
+            if(k <= count || (c >= 0xd800 && c <= 0xdfff)) {
+                chars[j ++] = REPLACEMENT;
+                i += k;
+            }
+            else if(c < 0x10000) {
+                chars[j ++] = (char) c;
+                i += k;
+            }
+            else {
+                c -= 0x10000;
+                chars[j ++] = (char) (0xd800 | (c >> 10));
+                chars[j ++] = (char) (0xdc00 | (c & 0x3ff));
+                i += k;
+            }
+        }
+        return j - charOffset;
+    }
+
+}
@@ -0,0 +1,349 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc.apt;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * <p>RpcDispatcherProcessor is an annotation processor that generates an RpcDispatcher for each service class
+ * listed in a services properties file</p>
+ *
+ * <p>The path of the properties file is given with the processor option 'rpc.services', for example:</p>
+ * <pre>
+ * javac -processor gizmo.uk.toolkit.rpc.apt.RpcDispatcherProcessor -Arpc.services=rpc-services.properties ...
+ * </pre>
+ *
+ * <p>The dispatcher is generated in the same package as the service class and is named after it with the
+ * suffix 'RpcDispatcher'. It calls every public method of the service class directly, casting and unboxing
+ * the arguments, so RpcMethod invokes methods without reflection</p>
+ *
+ * <p>Methods are looked up by the signature RpcMethod.getSignature() returns, which uses the same class names
+ * as java.lang.Class.getName(), so a method the dispatcher does not know, for instance after the service class
+ * has been changed without regenerating it, falls back to being invoked through its method handle</p>
+ *
+ * <p>The processor does not claim any annotations so it can run alongside other processors</p>
+ *
+ * @author gareth bond
+ */
+@SupportedAnnotationTypes("*")
+@SupportedOptions(RpcDispatcherProcessor.SERVICES_OPTION)
+public class RpcDispatcherProcessor extends AbstractProcessor {
+
+    /**
+     * <p>Processor option giving the path of the services properties file</p>
+     */
+    public static final String SERVICES_OPTION = "rpc.services";
+
+    /**
+     * <p>Suffix appended to a service class name to name its dispatcher</p>
+     */
+    public static final String DISPATCHER_SUFFIX = "RpcDispatcher";
+
+    /**
+     * <p>Have the dispatchers been generated</p>
+     */
+    protected boolean generated;
+
+    /**
+     * <p>Support the latest source version so the processor does not warn with newer compilers</p>
+     */
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    /**
+     * <p>Generate the dispatchers in the first round</p>
+     *
+     * @param annotations
+     * @param roundEnv
+     */
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if(generated) {
+            return false;
+        }
+        generated = true;
+        String servicesFile = processingEnv.getOptions().get(SERVICES_OPTION);
+        if(servicesFile == null) {
+            warn("no services properties file given with -A" + SERVICES_OPTION + ", no dispatchers generated");
+            return false;
+        }
+        Properties props = new Properties();
+        try {
+            FileInputStream reader = new FileInputStream(servicesFile);
+            props.load(reader);
+            reader.close();
+        }
+        catch(IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "cannot read services properties file " + servicesFile + ": " + e.getMessage());
+            return false;
+        }
+        Elements elements = processingEnv.getElementUtils();
+        Iterator<Object> i = props.values().iterator();
+        while(i.hasNext()) {
+
+            //properties use binary names, elements are looked up by canonical name
+            String serviceClassString = ((String) i.next()).trim();
+            TypeElement service = elements.getTypeElement(serviceClassString.replace('$', '.'));
+            if(service == null) {
+                warn("service class " + serviceClassString + " not found, no dispatcher generated");
+                continue;
+            }
+            try {
+                generate(service);
+            }
+            catch(IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "cannot generate dispatcher for " +
+                        serviceClassString + ": " + e.getMessage(), service);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>Generate the dispatcher for a service class</p>
+     *
+     * @param service
+     * @throws IOException
+     */
+    protected void generate(TypeElement service) throws IOException {
+        Elements elements = processingEnv.getElementUtils();
+        String packageName = ((PackageElement) elements.getPackageOf(service)).getQualifiedName().toString();
+        String binaryName = elements.getBinaryName(service).toString();
+        String dispatcherName = binaryName.substring(packageName.length() == 0 ? 0 : packageName.length() + 1) +
+                DISPATCHER_SUFFIX;
+        String serviceName = getSourceName(service.asType());
+
+        //collect the public methods, getAllMembers leaves out overridden methods but not hidden static ones,
+        //which are called through the service class anyway
+        List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+        List<String> signatures = new ArrayList<String>();
+        Iterator<? extends Element> i = elements.getAllMembers(service).iterator();
+        while(i.hasNext()) {
+            Element member = i.next();
+            if(member.getKind() == ElementKind.METHOD && member.getModifiers().contains(Modifier.PUBLIC)) {
+                String signature = getSignature((ExecutableElement) member);
+                if( ! signatures.contains(signature)) {
+                    methods.add((ExecutableElement) member);
+                    signatures.add(signature);
+                }
+            }
+        }
+        String qualifiedName = packageName.length() == 0 ? dispatcherName : packageName + "." + dispatcherName;
+        PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(qualifiedName,
+                service).openWriter());
+        if(packageName.length() > 0) {
+            out.println("package " + packageName + ";");
+            out.println();
+        }
+        out.println("/**");
+        out.println(" * <p>RpcDispatcher for " + binaryName + " generated by RpcDispatcherProcessor</p>");
+        out.println(" */");
+        out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+        out.println("public class " + dispatcherName + " implements gizmo.uk.toolkit.rpc.RpcDispatcher {");
+        out.println();
+        out.println("    public int getIndex(String signature) {");
+        out.println("        switch(signature) {");
+        for(int index = 0; index < methods.size();  ++ index) {
+            out.println("            case \"" + signatures.get(index) + "\":");
+            out.println("                return " + index + ";");
+        }
+        out.println("            default:");
+        out.println("                return -1;");
+        out.println("        }");
+        out.println("    }");
+        out.println();
+        out.println("    public Object invoke(int index, Object target, Object[] arguments) " +
+                "throws Throwable {");
+        out.println("        switch(index) {");
+        for(int index = 0; index < methods.size();  ++ index) {
+            ExecutableElement method = methods.get(index);
+            StringBuilder call = new StringBuilder();
+            if(method.getModifiers().contains(Modifier.STATIC)) {
+                call.append(serviceName);
+            }
+            else {
+                call.append("((").append(serviceName).append(") target)");
+            }
+            call.append('.').append(method.getSimpleName()).append('(');
+            List<? extends VariableElement> parameters = method.getParameters();
+            for(int x = 0; x < parameters.size();  ++ x) {
+                if(x > 0) {
+                    call.append(", ");
+                }
+                call.append('(').append(getSourceName(parameters.get(x).asType())).append(") arguments[");
+                call.append(x).append(']');
+            }
+            call.append(')');
+            out.println("            case " + index + ":");
+            if(method.getReturnType().getKind() == TypeKind.VOID) {
+                out.println("                " + call + ";");
+                out.println("                return null;");
+            }
+            else {
+                out.println("                return " + call + ";");
+            }
+        }
+        out.println("            default:");
+        out.println("                throw new IllegalArgumentException(\"no method with index \" + index);");
+        out.println("        }");
+        out.println("    }");
+        out.println();
+        out.println("}");
+        out.close();
+    }
+
+    /**
+     * <p>Get the signature of a method in the format of RpcMethod.getSignature():
+     * name(parameter-types)return-type</p>
+     *
+     * @param method
+     */
+    protected String getSignature(ExecutableElement method) {
+        StringBuilder signature = new StringBuilder();
+        signature.append(method.getSimpleName());
+        signature.append('(');
+        List<? extends VariableElement> parameters = method.getParameters();
+        for(int i = 0; i < parameters.size();  ++ i) {
+            if(i > 0) {
+                signature.append(',');
+            }
+            signature.append(getClassName(parameters.get(i).asType()));
+        }
+        signature.append(')');
+        signature.append(getClassName(method.getReturnType()));
+        return signature.toString();
+    }
+
+    /**
+     * <p>Get the name java.lang.Class.getName() returns for the erasure of a type</p>
+     *
+     * @param type
+     */
+    protected String getClassName(TypeMirror type) {
+        TypeMirror erased = processingEnv.getTypeUtils().erasure(type);
+        switch(erased.getKind()) {
+            case ARRAY:
+                return "[" + getDescriptor(((ArrayType) erased).getComponentType());
+            case DECLARED:
+                return getBinaryName(erased);
+            default:
+                //primitive types and void
+                return erased.toString();
+        }
+    }
+
+    /**
+     * <p>Get the descriptor of the erasure of an array component type as used in array class names</p>
+     *
+     * @param type
+     */
+    protected String getDescriptor(TypeMirror type) {
+        TypeMirror erased = processingEnv.getTypeUtils().erasure(type);
+        switch(erased.getKind()) {
+            case ARRAY:
+                return "[" + getDescriptor(((ArrayType) erased).getComponentType());
+            case DECLARED:
+                return "L" + getBinaryName(erased) + ";";
+            case BOOLEAN:
+                return "Z";
+            case BYTE:
+                return "B";
+            case CHAR:
+                return "C";
+            case DOUBLE:
+                return "D";
+            case FLOAT:
+                return "F";
+            case INT:
+                return "I";
+            case LONG:
+                return "J";
+            case SHORT:
+                return "S";
+            default:
+                throw new IllegalArgumentException("no descriptor for " + erased);
+        }
+    }
+
+    /**
+     * <p>Get the binary name of a declared type</p>
+     *
+     * @param type
+     */
+    protected String getBinaryName(TypeMirror type) {
+        TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        return processingEnv.getElementUtils().getBinaryName(element).toString();
+    }
+
+    /**
+     * <p>Get the name a type is cast to in generated source, its erasure or for a primitive type its wrapper
+     * class so that the argument is unboxed</p>
+     *
+     * @param type
+     */
+    protected String getSourceName(TypeMirror type) {
+        Types types = processingEnv.getTypeUtils();
+        if(type.getKind().isPrimitive()) {
+            return types.boxedClass((PrimitiveType) type).getQualifiedName().toString();
+        }
+        return types.erasure(type).toString();
+    }
+
+    /**
+     * <p>Print a warning</p>
+     *
+     * @param message
+     */
+    protected void warn(String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, message);
+    }
+
+}
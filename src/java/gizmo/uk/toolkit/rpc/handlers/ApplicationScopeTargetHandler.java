@@ -23,30 +23,101 @@ package gizmo.uk.toolkit.rpc.handlers;
 
 import gizmo.uk.toolkit.rpc.RpcContext;
 import gizmo.uk.toolkit.rpc.RpcError;
+import gizmo.uk.toolkit.rpc.RpcLockHandler;
+import gizmo.uk.toolkit.rpc.RpcLockPolicy;
 import gizmo.uk.toolkit.rpc.RpcTargetHandler;
 
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 /**
  * <p>ApplicationScopeTargetHandler stores a single service object for all requests</p>
  *
+ * <p>As the service object is shared by all requests, invocations are locked according to an RpcLockPolicy
+ * which defaults to RpcLockPolicy.EXCLUSIVE</p>
+ *
+ * <p>With RpcLockPolicy.READ_WRITE read methods share a read lock while all other methods hold the write
+ * lock exclusively</p>
+ *
  * @author gareth bond
  */
-public class ApplicationScopeTargetHandler implements RpcTargetHandler {
+public class ApplicationScopeTargetHandler implements RpcTargetHandler, RpcLockHandler {
 
     /**
      * <p>Service object stored for all requests</p>
      */
-    protected Object target;
+    protected volatile Object target;
+
+    /**
+     * <p>Lock guarding creation of the service object</p>
+     */
+    protected final Lock creationLock = new ReentrantLock();
+
+    /**
+     * <p>Lock held during invocations when the policy is RpcLockPolicy.EXCLUSIVE</p>
+     */
+    protected final Lock exclusiveLock = new ReentrantLock();
+
+    /**
+     * <p>Read write lock used when the policy is RpcLockPolicy.READ_WRITE</p>
+     */
+    protected final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+
+    /**
+     * <p>Policy used to lock invocations on the service object</p>
+     */
+    protected final RpcLockPolicy lockPolicy;
+
+    /**
+     * <p>Construct a new ApplicationScopeTargetHandler that locks invocations exclusively</p>
+     */
+    public ApplicationScopeTargetHandler() {
+        this(RpcLockPolicy.EXCLUSIVE);
+    }
+
+    /**
+     * <p>Construct a new ApplicationScopeTargetHandler that locks invocations using the given policy</p>
+     *
+     * @param lockPolicy
+     */
+    public ApplicationScopeTargetHandler(RpcLockPolicy lockPolicy) {
+        this.lockPolicy = lockPolicy;
+    }
 
     public Object getTarget(RpcContext context) {
-        if(target == null) {
+        Object current = target;
+        if(current == null) {
+            creationLock.lock();
             try {
-                target = context.getServiceClass().newInstance();
+                current = target;
+                if(current == null) {
+                    current = context.getServiceClass().newInstance();
+                    target = current;
+                }
             }
             catch(Exception e) {
                 throw new RpcError(e);
             }
+            finally {
+                creationLock.unlock();
+            }
+        }
+        return current;
+    }
+
+    public Lock getLock(RpcContext context) {
+        if(lockPolicy == RpcLockPolicy.NONE) {
+            return null;
+        }
+        if(lockPolicy == RpcLockPolicy.READ_WRITE) {
+            if(context.getRpcMethod().isReadMethod()) {
+                return readWriteLock.readLock();
+            }
+            return readWriteLock.writeLock();
         }
-        return target;
+        return exclusiveLock;
     }
 
 }
@@ -23,14 +23,19 @@ package gizmo.uk.toolkit.rpc.handlers;
 
 import gizmo.uk.toolkit.rpc.RpcContext;
 import gizmo.uk.toolkit.rpc.RpcError;
+import gizmo.uk.toolkit.rpc.RpcLockHandler;
 import gizmo.uk.toolkit.rpc.RpcTargetHandler;
 
+import java.util.concurrent.locks.Lock;
+
 /**
  * <p>RequestScopeTargetHandler creates a new service object for every request</p>
- * 
+ *
+ * <p>As service objects are never shared between requests invocations are not locked</p>
+ *
  * @author gareth bond
  */
-public class RequestScopeTargetHandler implements RpcTargetHandler {
+public class RequestScopeTargetHandler implements RpcTargetHandler, RpcLockHandler {
 
     public Object getTarget(RpcContext context) {
         try {
@@ -41,4 +46,8 @@ public class RequestScopeTargetHandler implements RpcTargetHandler {
         }
     }
 
+    public Lock getLock(RpcContext context) {
+        return null;
+    }
+
 }
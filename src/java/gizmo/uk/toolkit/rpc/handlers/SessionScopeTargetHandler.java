@@ -23,8 +23,12 @@ package gizmo.uk.toolkit.rpc.handlers;
 
 import gizmo.uk.toolkit.rpc.RpcContext;
 import gizmo.uk.toolkit.rpc.RpcError;
+import gizmo.uk.toolkit.rpc.RpcLockHandler;
 import gizmo.uk.toolkit.rpc.RpcTargetHandler;
 
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
 import javax.servlet.http.HttpSession;
 
 /**
@@ -33,24 +37,64 @@ import javax.servlet.http.HttpSession;
  * <p>This is done using HttpSession</p>
  *
  * <p>Note that the service objects toString() method is used for the session key</p>
+ *
+ * <p>Invocations are locked per session so that requests from different users run concurrently while
+ * requests within the same session run one at a time</p>
  * 
  * @author gareth bond
  */
-public class SessionScopeTargetHandler implements RpcTargetHandler {
+public class SessionScopeTargetHandler implements RpcTargetHandler, RpcLockHandler {
+
+    /**
+     * <p>Suffix appended to the session key for the sessions lock</p>
+     */
+    protected final String LOCK_KEY_SUFFIX = ".lock";
+
+    /**
+     * <p>Lock guarding creation of session attributes</p>
+     */
+    protected final Lock creationLock = new ReentrantLock();
 
     public Object getTarget(RpcContext context) {
         HttpSession session = context.getRequest().getSession();
         Object target = session.getAttribute(toString());
         if(target == null) {
+            creationLock.lock();
             try {
-                target = context.getServiceClass().newInstance();
+                target = session.getAttribute(toString());
+                if(target == null) {
+                    target = context.getServiceClass().newInstance();
+                    session.setAttribute(toString(), target);
+                }
             }
             catch(Exception e) {
                 throw new RpcError(e);
             }
-            session.setAttribute(toString(), target);
+            finally {
+                creationLock.unlock();
+            }
         }
         return target;
     }
 
+    public Lock getLock(RpcContext context) {
+        HttpSession session = context.getRequest().getSession();
+        String key = toString() + LOCK_KEY_SUFFIX;
+        Lock lock = (Lock) session.getAttribute(key);
+        if(lock == null) {
+            creationLock.lock();
+            try {
+                lock = (Lock) session.getAttribute(key);
+                if(lock == null) {
+                    lock = new ReentrantLock();
+                    session.setAttribute(key, lock);
+                }
+            }
+            finally {
+                creationLock.unlock();
+            }
+        }
+        return lock;
+    }
+
 }
@@ -0,0 +1,513 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc.handlers.json;
+
+import gizmo.uk.toolkit.rpc.RpcMethod;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+
+/**
+ * <p>JsonDecoder parses JSON text in a single pass straight into Java values</p>
+ *
+ * <p>JSON arrays become ArrayList instances, objects become HashMap instances, strings become String, true
+ * and false become Boolean and null becomes null, at every level of nesting</p>
+ *
+ * <p>Numbers without a fraction or exponent become Integer if they fit, otherwise Long, and any other number
+ * becomes Double, the same types org.json produces</p>
+ *
+ * <p>An array of arguments can also be decoded against the parameter types of the method it is passed to,
+ * numbers are then parsed straight into the type of their parameter rather than into Integer, Long or Double
+ * first</p>
+ *
+ * <p>Unlike JSONTokener no JSONArray or JSONObject instances are created along the way</p>
+ *
+ * <p>The text is read from a character array, a range of an array such as a pooled buffer holding a decoded
+ * request body can be decoded without first copying it to a String, decoded strings never share the array</p>
+ *
+ * @author gareth bond
+ */
+public class JsonDecoder {
+
+    /**
+     * <p>JSON text being decoded</p>
+     */
+    protected final char[] text;
+
+    /**
+     * <p>Index of the first character of the text</p>
+     */
+    protected final int offset;
+
+    /**
+     * <p>Index after the last character of the text</p>
+     */
+    protected final int end;
+
+    /**
+     * <p>Index of the next character to read</p>
+     */
+    protected int index;
+
+    /**
+     * <p>Construct a new JsonDecoder for some JSON text</p>
+     *
+     * @param text
+     */
+    public JsonDecoder(String text) {
+        this(text.toCharArray(), 0, text.length());
+    }
+
+    /**
+     * <p>Construct a new JsonDecoder for JSON text held in a range of a character array</p>
+     *
+     * <p>The array is not copied and must not be modified until decoding has finished</p>
+     *
+     * @param text
+     * @param offset
+     * @param length
+     */
+    public JsonDecoder(char[] text, int offset, int length) {
+        this.text = text;
+        this.offset = offset;
+        this.end = offset + length;
+        this.index = offset;
+    }
+
+    /**
+     * <p>Decode the text as a single value of any type</p>
+     *
+     * @throws JSONException if the text is not valid JSON
+     */
+    public Object decode() throws JSONException {
+        Object value = value();
+        end();
+        return value;
+    }
+
+    /**
+     * <p>Decode the text as a JSON array</p>
+     *
+     * @throws JSONException if the text is not a valid JSON array
+     */
+    public List<Object> decodeArray() throws JSONException {
+        return decodeArray(null);
+    }
+
+    /**
+     * <p>Decode the text as a JSON array of the arguments of a method</p>
+     *
+     * <p>Each number in the array is parsed straight into the type of its parameter, a whole number for an
+     * int, long, short or byte parameter and any number for a double or float parameter. A number that does
+     * not fit its parameter type and every other value is decoded as decodeArray() would, so that resolving
+     * the method fails as it otherwise would</p>
+     *
+     * <p>The method must have as many parameters as the array has elements, countArray() tells how many that
+     * is, if method is null the array is decoded as decodeArray() would</p>
+     *
+     * @param method
+     * @throws JSONException if the text is not a valid JSON array
+     */
+    public List<Object> decodeArray(RpcMethod method) throws JSONException {
+        if(nextClean() != '[') {
+            throw syntaxError("A JSON array text must start with '['");
+        }
+        List<Object> list = array(method);
+        end();
+        return list;
+    }
+
+    /**
+     * <p>Count the elements of the JSON array the text holds without decoding them</p>
+     *
+     * <p>The text is only scanned for the commas between the top level elements, it is not checked and the
+     * count is meaningless if the text is not a valid JSON array</p>
+     */
+    public int countArray() {
+        int depth = 0;
+        int commas = 0;
+        boolean empty = true;
+        for(int i = offset; i < end;  ++ i) {
+            char c = text[i];
+            if(c == '"') {
+                empty = empty && depth == 0;
+                for( ++ i; i < end && text[i] != '"';  ++ i) {
+                    if(text[i] == '\\') {
+                         ++ i;
+                    }
+                }
+            }
+            else if(c == '[' || c == '{') {
+                empty = empty && depth == 0;
+                 ++ depth;
+            }
+            else if(c == ']' || c == '}') {
+                if( -- depth == 0) {
+                    break;
+                }
+            }
+            else if(depth == 1 && c == ',') {
+                 ++ commas;
+            }
+            else if(depth > 0 && c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                empty = false;
+            }
+        }
+        return empty ? 0 : commas + 1;
+    }
+
+    /**
+     * <p>Check nothing but whitespace follows the decoded value</p>
+     *
+     * @throws JSONException
+     */
+    protected void end() throws JSONException {
+        if(nextClean() != 0) {
+            throw syntaxError("Unexpected text after the value");
+        }
+    }
+
+    /**
+     * <p>Decode the next value</p>
+     *
+     * @throws JSONException
+     */
+    protected Object value() throws JSONException {
+        char c = nextClean();
+        switch(c) {
+            case '"':
+                return string();
+            case '[':
+                return array();
+            case '{':
+                return object();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            case 0:
+                throw syntaxError("Missing value");
+        }
+        if(c == '-' || (c >= '0' && c <= '9')) {
+            return number();
+        }
+        throw syntaxError("Unexpected character '" + c + "'");
+    }
+
+    /**
+     * <p>Decode the rest of an array once its opening bracket has been read</p>
+     *
+     * @throws JSONException
+     */
+    protected List<Object> array() throws JSONException {
+        return array(null);
+    }
+
+    /**
+     * <p>Decode the rest of an array of the arguments of a method once its opening bracket has been read,
+     * any numbers are parsed straight into their parameter types unless method is null</p>
+     *
+     * @param method
+     * @throws JSONException
+     */
+    protected List<Object> array(RpcMethod method) throws JSONException {
+        List<Object> list = new ArrayList<Object>();
+        char c = nextClean();
+        if(c == ']') {
+            return list;
+        }
+        if(c == 0) {
+            throw syntaxError("Unterminated array");
+        }
+        index --;
+        while(true) {
+            int position = list.size();
+            if(method != null && position < method.getArity()) {
+                list.add(value(method.getParameterType(position)));
+            }
+            else {
+                list.add(value());
+            }
+            c = nextClean();
+            if(c == ']') {
+                return list;
+            }
+            if(c != ',') {
+                throw syntaxError("Expected ',' or ']'");
+            }
+        }
+    }
+
+    /**
+     * <p>Decode the next value as an argument for a parameter of the given type, a number is parsed straight
+     * into the type if it fits</p>
+     *
+     * @param type
+     * @throws JSONException
+     */
+    protected Object value(Class type) throws JSONException {
+        char c = nextClean();
+        if(c == '-' || (c >= '0' && c <= '9')) {
+            return number(type);
+        }
+        if(c != 0) {
+            index --;
+        }
+        return value();
+    }
+
+    /**
+     * <p>Decode the rest of an object once its opening brace has been read</p>
+     *
+     * @throws JSONException
+     */
+    protected Map<String, Object> object() throws JSONException {
+        Map<String, Object> map = new HashMap<String, Object>();
+        char c = nextClean();
+        if(c == '}') {
+            return map;
+        }
+        while(true) {
+            if(c != '"') {
+                throw syntaxError("Expected a string key");
+            }
+            String key = string();
+            if(nextClean() != ':') {
+                throw syntaxError("Expected ':' after a key");
+            }
+            map.put(key, value());
+            c = nextClean();
+            if(c == '}') {
+                return map;
+            }
+            if(c != ',') {
+                throw syntaxError("Expected ',' or '}'");
+            }
+            c = nextClean();
+        }
+    }
+
+    /**
+     * <p>Decode the rest of a string once its opening quote has been read</p>
+     *
+     * <p>Strings without escape sequences are copied from the text in one go, otherwise runs of unescaped
+     * characters are copied in one go</p>
+     *
+     * @throws JSONException
+     */
+    protected String string() throws JSONException {
+        int start = index;
+        StringBuilder builder = null;
+        while(index < end) {
+            char c = text[index ++];
+            if(c == '"') {
+                if(builder == null) {
+                    return new String(text, start, index - 1 - start);
+                }
+                builder.append(text, start, index - 1 - start);
+                return builder.toString();
+            }
+            if(c == '\\') {
+                if(builder == null) {
+                    builder = new StringBuilder();
+                }
+                builder.append(text, start, index - 1 - start);
+                builder.append(escape());
+                start = index;
+            }
+            else if(c < ' ') {
+                throw syntaxError("Unterminated string");
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    /**
+     * <p>Decode an escape sequence once its backslash has been read</p>
+     *
+     * @throws JSONException
+     */
+    protected char escape() throws JSONException {
+        if(index >= end) {
+            throw syntaxError("Unterminated string");
+        }
+        char c = text[index ++];
+        switch(c) {
+            case 'b':
+                return '\b';
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'f':
+                return '\f';
+            case 'r':
+                return '\r';
+            case 'u':
+                if(index + 4 > end) {
+                    throw syntaxError("Illegal escape");
+                }
+                int unicode = 0;
+                for(int i = 0; i < 4;  ++ i) {
+                    int digit = Character.digit(text[index ++], 16);
+                    if(digit < 0) {
+                        throw syntaxError("Illegal escape");
+                    }
+                    unicode = (unicode << 4) | digit;
+                }
+                return (char) unicode;
+            case '"':
+            case '\'':
+            case '\\':
+            case '/':
+                return c;
+        }
+        throw syntaxError("Illegal escape");
+    }
+
+    /**
+     * <p>Decode a number once its first character has been read</p>
+     *
+     * @throws JSONException
+     */
+    protected Object number() throws JSONException {
+        return number(null);
+    }
+
+    /**
+     * <p>Decode a number once its first character has been read, parsing it straight into the given type if
+     * it fits, otherwise as an Integer, Long or Double</p>
+     *
+     * @param type the parameter type or null
+     * @throws JSONException
+     */
+    protected Object number(Class type) throws JSONException {
+        int start = index - 1;
+        boolean decimal = false;
+        while(index < end) {
+            char c = text[index];
+            if(c == '.' || c == 'e' || c == 'E') {
+                decimal = true;
+            }
+            else if((c < '0' || c > '9') && c != '-' && c != '+') {
+                break;
+            }
+            index ++;
+        }
+        String number = new String(text, start, index - start);
+        try {
+            if(type == Double.TYPE || type == Double.class) {
+                double value = Double.parseDouble(number);
+                if( ! Double.isInfinite(value) &&  ! Double.isNaN(value)) {
+                    return Double.valueOf(value);
+                }
+            }
+            else if(type == Float.TYPE || type == Float.class) {
+                float value = Float.parseFloat(number);
+                if( ! Float.isInfinite(value) &&  ! Float.isNaN(value)) {
+                    return Float.valueOf(value);
+                }
+            }
+            else if( ! decimal && (type == Long.TYPE || type == Long.class)) {
+                return Long.valueOf(Long.parseLong(number));
+            }
+            else if( ! decimal && (type == Short.TYPE || type == Short.class)) {
+                long value = Long.parseLong(number);
+                if(value == (short) value) {
+                    return Short.valueOf((short) value);
+                }
+            }
+            else if( ! decimal && (type == Byte.TYPE || type == Byte.class)) {
+                long value = Long.parseLong(number);
+                if(value == (byte) value) {
+                    return Byte.valueOf((byte) value);
+                }
+            }
+            if(decimal) {
+                Double value = Double.valueOf(number);
+                if(value.isInfinite() || value.isNaN()) {
+                    throw syntaxError("Number out of range " + number);
+                }
+                return value;
+            }
+            long value = Long.parseLong(number);
+            if(value == (int) value) {
+                return Integer.valueOf((int) value);
+            }
+            return Long.valueOf(value);
+        }
+        catch(NumberFormatException e) {
+            throw syntaxError("Illegal number " + number);
+        }
+    }
+
+    /**
+     * <p>Decode a literal once its first character has been read</p>
+     *
+     * @param word
+     * @param value
+     * @throws JSONException
+     */
+    protected Object literal(String word, Object value) throws JSONException {
+        int start = index - 1;
+        int length = word.length();
+        if(start + length > end) {
+            throw syntaxError("Unexpected character '" + text[start] + "'");
+        }
+        for(int i = 1; i < length;  ++ i) {
+            if(text[start + i] != word.charAt(i)) {
+                throw syntaxError("Unexpected character '" + text[start] + "'");
+            }
+        }
+        index = start + length;
+        return value;
+    }
+
+    /**
+     * <p>Get the next character that is not whitespace, or 0 at the end of the text</p>
+     */
+    protected char nextClean() {
+        while(index < end) {
+            char c = text[index ++];
+            if(c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * <p>Make a JSONException for a syntax error at the current position</p>
+     *
+     * @param message
+     */
+    protected JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + (index - offset));
+    }
+
+}
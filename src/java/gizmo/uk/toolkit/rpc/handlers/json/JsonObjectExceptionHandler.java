@@ -21,17 +21,18 @@
  */
 package gizmo.uk.toolkit.rpc.handlers.json;
 
+import gizmo.uk.toolkit.rpc.RpcBufferPool;
 import gizmo.uk.toolkit.rpc.RpcContext;
+import gizmo.uk.toolkit.rpc.RpcEnvelope;
 import gizmo.uk.toolkit.rpc.RpcError;
 import gizmo.uk.toolkit.rpc.RpcExceptionHandler;
+import gizmo.uk.toolkit.rpc.RpcMethod;
+import gizmo.uk.toolkit.rpc.RpcOutputBuffer;
+import gizmo.uk.toolkit.rpc.RpcTimestamp;
 
 import java.io.IOException;
-import java.io.PrintWriter;
 
-import java.text.SimpleDateFormat;
-
-import java.util.Calendar;
-import java.util.Date;
+import javax.servlet.http.HttpServletResponse;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -43,6 +44,12 @@ import org.json.JSONObject;
  *
  * <p>Returned JSON object will either have a 'error' or 'exception' property indicating the type of
  * exception that was thrown</p>
+ *
+ * <p>The JSON text is encoded as UTF-8 into a pooled RpcOutputBuffer and sent with an exact
+ * Content-Length</p>
+ *
+ * <p>A compact response is the array [1, class, message] for an exception or [2, class, message] for an
+ * error, as described by RpcEnvelope</p>
  * 
  * <p>Rsponse format: </p>
  * <pre>
@@ -68,11 +75,21 @@ import org.json.JSONObject;
  */
 public class JsonObjectExceptionHandler implements RpcExceptionHandler {
 
+    /**
+     * <p>Content type of the response</p>
+     */
+    protected final String CONTENT_TYPE = "application/json; charset=UTF-8";
+
     public boolean handleException(RpcContext context, Throwable exception)
             throws IOException {
 
+        if(context.isCompact()) {
+            writeCompactResponse(context, exception);
+            return true;
+        }
         JSONObject responseObject = new JSONObject();
         JSONObject exceptionObject = null;
+        RpcOutputBuffer rendered = new RpcOutputBuffer(getBufferPool(), RpcBufferPool.DEFAULT_BUFFER_SIZE);
         try {
             responseObject.put("service", context.getService());
             responseObject.put("method", getMethodDescription(context));
@@ -84,21 +101,68 @@ public class JsonObjectExceptionHandler implements RpcExceptionHandler {
             else {
                 responseObject.put("exception", exceptionObject);
             }
-            PrintWriter printWriter = context.getResponse().getWriter();
-            responseObject.write(printWriter);
+            responseObject.write(rendered);
+            HttpServletResponse response = context.getResponse();
+            response.setContentType(CONTENT_TYPE);
+            rendered.writeTo(response);
             return true;
         }
         catch(JSONException e) {
             throw new RpcError(e);
         }
+        finally {
+            rendered.release();
+        }
+    }
+
+    /**
+     * <p>Write the status, class and message of the exception to the HTTP response as a compact response</p>
+     *
+     * @param context
+     * @param exception
+     * @throws IOException
+     */
+    protected void writeCompactResponse(RpcContext context, Throwable exception) throws IOException {
+
+        RpcOutputBuffer rendered = new RpcOutputBuffer(getBufferPool(), RpcBufferPool.DEFAULT_BUFFER_SIZE);
+        try {
+            JsonStreamWriter json = new JsonStreamWriter(rendered);
+            rendered.append("[" + RpcEnvelope.getStatus(exception) + ",");
+            json.string(exception.getClass().getName());
+            rendered.append(',');
+            String message = exception.getMessage();
+            json.string(message == null ? "" : message);
+            rendered.append(']');
+            HttpServletResponse response = context.getResponse();
+            response.setContentType(CONTENT_TYPE);
+            rendered.writeTo(response);
+        }
+        finally {
+            rendered.release();
+        }
+    }
+
+    /**
+     * <p>Get the pool that response buffers are taken from</p>
+     *
+     * <p>Sub classes can override this to supply their own RpcBufferPool</p>
+     */
+    protected RpcBufferPool getBufferPool() {
+        return RpcBufferPool.getShared();
     }
 
     /**
      * <p>Get a String description of the invoked method</p>
-     * 
+     *
+     * <p>The description of a resolved method is computed once by its RpcMethod</p>
+     *
      * @param context
      */
     protected String getMethodDescription(RpcContext context) {
+        RpcMethod method = context.getRpcMethod();
+        if(method != null) {
+            return method.getDescription();
+        }
         String description = context.getInvoked().toGenericString();
         int index = description.indexOf(context.getMethod());
         description = description.substring(index);
@@ -132,16 +196,11 @@ public class JsonObjectExceptionHandler implements RpcExceptionHandler {
 
     /**
      * <p>Generate a timestamp String in the format: yyyyMMddTHH:mm:ss
+     *
+     * <p>The timestamp is shared by all responses in the same second</p>
      */
     protected String getTimestamp() {
-        Date now = Calendar.getInstance().getTime();
-        SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMdd'T'HH:mm:ss");
-        try {
-            return formatter.format(now);
-        }
-        catch(Exception e) {
-            throw new RpcError(e);
-        }
+        return RpcTimestamp.get();
     }
 
 }
@@ -0,0 +1,312 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc.handlers.json;
+
+import java.io.IOException;
+
+import java.lang.reflect.Array;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+/**
+ * <p>JsonStreamWriter writes Java values as JSON text straight to an Appendable</p>
+ *
+ * <p>List, Map and primitive wrapper graphs are walked directly rather than being copied into JSONArray and
+ * JSONObject instances first, so no intermediate representation of the value is built</p>
+ *
+ * <p>The text written is the same as org.json would produce: Collections and arrays become JSON arrays, Maps
+ * become JSON objects, numbers are written with JSONObject.numberToString and strings are escaped the same way
+ * as JSONObject.quote</p>
+ *
+ * <p>Warning: the value graph must be acyclical</p>
+ *
+ * @author gareth bond
+ */
+public class JsonStreamWriter {
+
+    /**
+     * <p>Destination of the JSON text</p>
+     */
+    protected final Appendable out;
+
+    /**
+     * <p>Construct a new JsonStreamWriter writing to the given Appendable</p>
+     *
+     * @param out
+     */
+    public JsonStreamWriter(Appendable out) {
+        this.out = out;
+    }
+
+    /**
+     * <p>Write a value of any supported type</p>
+     *
+     * @param value
+     * @throws IOException
+     * @throws JSONException if the value is or contains a non finite number
+     */
+    public void value(Object value) throws IOException, JSONException {
+        if(value == null || value.equals(null)) {
+            out.append("null");
+        }
+        else if(value instanceof String) {
+            string((String) value);
+        }
+        else if(value instanceof Number) {
+            out.append(JSONObject.numberToString((Number) value));
+        }
+        else if(value instanceof Boolean) {
+            out.append(value.toString());
+        }
+        else if(value instanceof Map) {
+            map((Map) value);
+        }
+        else if(value instanceof Collection) {
+            collection((Collection) value);
+        }
+        else if(value instanceof JSONObject) {
+            jsonObject((JSONObject) value);
+        }
+        else if(value instanceof JSONArray) {
+            jsonArray((JSONArray) value);
+        }
+        else if(value instanceof JSONString) {
+            jsonString((JSONString) value);
+        }
+        else if(value.getClass().isArray()) {
+            array(value);
+        }
+        else {
+            string(value.toString());
+        }
+    }
+
+    /**
+     * <p>Write a Map as a JSON object</p>
+     *
+     * @param map
+     * @throws IOException
+     * @throws JSONException
+     */
+    public void map(Map map) throws IOException, JSONException {
+        out.append('{');
+        Iterator i = map.entrySet().iterator();
+        boolean first = true;
+        while(i.hasNext()) {
+            Map.Entry entry = (Map.Entry) i.next();
+            if( ! first) {
+                out.append(',');
+            }
+            string(entry.getKey().toString());
+            out.append(':');
+            value(entry.getValue());
+            first = false;
+        }
+        out.append('}');
+    }
+
+    /**
+     * <p>Write a Collection as a JSON array</p>
+     *
+     * @param collection
+     * @throws IOException
+     * @throws JSONException
+     */
+    public void collection(Collection collection) throws IOException, JSONException {
+        out.append('[');
+        Iterator i = collection.iterator();
+        boolean first = true;
+        while(i.hasNext()) {
+            if( ! first) {
+                out.append(',');
+            }
+            value(i.next());
+            first = false;
+        }
+        out.append(']');
+    }
+
+    /**
+     * <p>Write an array of any component type as a JSON array</p>
+     *
+     * @param array
+     * @throws IOException
+     * @throws JSONException
+     */
+    public void array(Object array) throws IOException, JSONException {
+        out.append('[');
+        int length = Array.getLength(array);
+        for(int i = 0; i < length;  ++ i) {
+            if(i > 0) {
+                out.append(',');
+            }
+            value(Array.get(array, i));
+        }
+        out.append(']');
+    }
+
+    /**
+     * <p>Write a JSONObject</p>
+     *
+     * @param object
+     * @throws IOException
+     * @throws JSONException
+     */
+    public void jsonObject(JSONObject object) throws IOException, JSONException {
+        out.append('{');
+        Iterator i = object.keys();
+        boolean first = true;
+        while(i.hasNext()) {
+            if( ! first) {
+                out.append(',');
+            }
+            String key = i.next().toString();
+            string(key);
+            out.append(':');
+            value(object.opt(key));
+            first = false;
+        }
+        out.append('}');
+    }
+
+    /**
+     * <p>Write a JSONArray</p>
+     *
+     * @param array
+     * @throws IOException
+     * @throws JSONException
+     */
+    public void jsonArray(JSONArray array) throws IOException, JSONException {
+        out.append('[');
+        int length = array.length();
+        for(int i = 0; i < length;  ++ i) {
+            if(i > 0) {
+                out.append(',');
+            }
+            value(array.opt(i));
+        }
+        out.append(']');
+    }
+
+    /**
+     * <p>Write the JSON text supplied by a JSONString</p>
+     *
+     * @param value
+     * @throws IOException
+     * @throws JSONException
+     */
+    public void jsonString(JSONString value) throws IOException, JSONException {
+        Object text;
+        try {
+            text = value.toJSONString();
+        }
+        catch(Exception e) {
+            throw new JSONException(e);
+        }
+        if( ! (text instanceof String)) {
+            throw new JSONException("Bad value from toJSONString: " + text);
+        }
+        out.append((String) text);
+    }
+
+    /**
+     * <p>Write a String in double quotes with backslash sequences in all the right places</p>
+     *
+     * <p>As with JSONObject.quote a backslash is inserted within &lt;/ so the text can be delivered in
+     * HTML</p>
+     *
+     * @param string
+     * @throws IOException
+     */
+    public void string(String string) throws IOException {
+        out.append('"');
+        int length = string.length();
+        char previous;
+        char c = 0;
+        int start = 0;
+        for(int i = 0; i < length;  ++ i) {
+            previous = c;
+            c = string.charAt(i);
+            String escape = null;
+            switch(c) {
+                case '\\':
+                    escape = "\\\\";
+                    break;
+                case '"':
+                    escape = "\\\"";
+                    break;
+                case '/':
+                    if(previous == '<') {
+                        escape = "\\/";
+                    }
+                    break;
+                case '\b':
+                    escape = "\\b";
+                    break;
+                case '\t':
+                    escape = "\\t";
+                    break;
+                case '\n':
+                    escape = "\\n";
+                    break;
+                case '\f':
+                    escape = "\\f";
+                    break;
+                case '\r':
+                    escape = "\\r";
+                    break;
+                default:
+                    if(c < ' ' || (c >= '\u0080' && c < '\u00a0') ||
+                       (c >= '\u2000' && c < '\u2100')) {
+                        escape = unicodeEscape(c);
+                    }
+            }
+
+            //copy unescaped runs in one go
+            if(escape != null) {
+                out.append(string, start, i);
+                out.append(escape);
+                start = i + 1;
+            }
+        }
+        out.append(string, start, length);
+        out.append('"');
+    }
+
+    /**
+     * <p>Get the \\uXXXX escape sequence for a character</p>
+     *
+     * @param c
+     */
+    protected static String unicodeEscape(char c) {
+        String hex = "000" + Integer.toHexString(c);
+        return "\\u" + hex.substring(hex.length() - 4);
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc.handlers.json;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>JsonTypes decides which Java types the return value handlers for JSON, MessagePack and schema responses
+ * can write: null, List, Map, boolean, String, long, double and int as well as the corresponding primitive
+ * wrappers</p>
+ *
+ * <p>The check on a methods declared return type and the check on a returned value are kept together here so
+ * that RpcPipeline never chooses a handler for a method whose return values the handler then declines</p>
+ *
+ * @author gareth bond
+ */
+public class JsonTypes {
+
+    /**
+     * <p>Is every return value of a method with the given declared return type writable, true for a method
+     * declared as void, boolean, int, long or double or with a return type assignable to List, Map, Boolean,
+     * String, Long, Double or Integer</p>
+     *
+     * @param returnType
+     */
+    public static boolean isReturnType(Class returnType) {
+        return returnType == Void.TYPE || returnType == Boolean.TYPE || returnType == Integer.TYPE ||
+               returnType == Long.TYPE || returnType == Double.TYPE || returnType == Boolean.class ||
+               returnType == String.class || returnType == Long.class || returnType == Double.class ||
+               returnType == Integer.class || List.class.isAssignableFrom(returnType) ||
+               Map.class.isAssignableFrom(returnType);
+    }
+
+    /**
+     * <p>Is a returned value writable, true for null or a List, Map, Boolean, String, Long, Double or
+     * Integer</p>
+     *
+     * <p>Void.TYPE, returned for a void method, is not a value and is checked for separately</p>
+     *
+     * @param returnValue
+     */
+    public static boolean isReturnValue(Object returnValue) {
+        return returnValue instanceof List || returnValue instanceof Map ||
+               returnValue instanceof Boolean || returnValue instanceof String ||
+               returnValue instanceof Long || returnValue instanceof Double ||
+               returnValue instanceof Integer || returnValue == null;
+    }
+
+}
@@ -22,18 +22,19 @@
 package gizmo.uk.toolkit.rpc.handlers.json;
 
 import gizmo.uk.toolkit.rpc.RpcArgumentsHandler;
+import gizmo.uk.toolkit.rpc.RpcBufferPool;
 import gizmo.uk.toolkit.rpc.RpcContext;
 import gizmo.uk.toolkit.rpc.RpcError;
+import gizmo.uk.toolkit.rpc.RpcMethod;
+import gizmo.uk.toolkit.rpc.RpcRequestBody;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
-import org.json.JSONArray;
+import javax.servlet.http.HttpServletRequest;
+
 import org.json.JSONException;
-import org.json.JSONObject;
 
 /**
  * <p>RpcArgumentsHandler implemenation that converts a JSON array literal into a List of various Java types</p>
@@ -41,6 +42,19 @@ import org.json.JSONObject;
  * <p>These types are: null, List, Map, boolean, String, long, double and int as well as the corresponding 
  * primitive wrappers</p>
  *
+ * <p>The JSON array is read from the 'a' request parameter or, when the request is posted with the content type
+ * application/json, is the request body itself, which is decoded straight from the request bytes through
+ * pooled buffers without being form decoded or turned into a String first</p>
+ *
+ * <p>The JSON text is decoded in a single pass by a JsonDecoder into the types above, a whole number is an int
+ * or a long depending on its size and any other number is a double</p>
+ *
+ * <p>When the method the arguments are passed to is already known, because it was requested by id or because
+ * its name has a single overload taking as many arguments as the array holds, the arguments are decoded
+ * against its parameter types instead, a whole number can then be passed to a long or double parameter as
+ * well as an int parameter. Arguments of any other method requested by name bind to its overloads as they
+ * always have</p>
+ *
  * @author gareth bond
  */
 public class JsonTypesArgumentsHandler implements RpcArgumentsHandler {
@@ -50,61 +64,157 @@ public class JsonTypesArgumentsHandler implements RpcArgumentsHandler {
      */
     protected final String URL_PARAM_JSON_ARRAY = "a";
 
+    /**
+     * <p>Returned by coerce(Object, Class) when a value cannot be passed as a parameter type</p>
+     */
+    protected static final Object NO_MATCH = new Object();
+
     public List<Object> getArguments(RpcContext context) {
 
         List<Object> arguments = new ArrayList<Object>();
-        String arrayString = context.getRequest().getParameter(
-                URL_PARAM_JSON_ARRAY);
-        JSONArray array = null;
-
-        if(arrayString != null && arrayString.length() != 0) {
-            try {
-                array = new JSONArray(arrayString);
-                for(int i = 0; i < array.length(); i ++) {
-                    arguments.add(convert(array.get(i)));
+        HttpServletRequest request = context.getRequest();
+        try {
+            if(RpcRequestBody.isJson(request)) {
+                RpcRequestBody body = RpcRequestBody.read(request, getBufferPool(),
+                        context.getMaxRequestBody());
+                try {
+                    if(body.getLength() != 0) {
+                        arguments = decode(context, new JsonDecoder(body.getChars(), 0, body.getLength()));
+                    }
+                }
+                finally {
+                    body.release();
                 }
             }
-            catch(Exception e) {
-                throw new RpcError(e);
+            else {
+                String arrayString = request.getParameter(URL_PARAM_JSON_ARRAY);
+                if(arrayString != null && arrayString.length() != 0) {
+                    arguments = decode(context, new JsonDecoder(arrayString));
+                }
             }
         }
+        catch(JSONException e) {
+            throw new RpcError(e);
+        }
+        catch(IOException e) {
+            throw new RpcError(e);
+        }
         return arguments;
     }
 
     /**
-     * <p>Recursively convert JSON types into corresponding Java types</p>
-     * 
-     * @param obj
+     * <p>Decode a JSON array of arguments, against the parameter types of the method they are passed to if it
+     * is known</p>
+     *
+     * @param context
+     * @param decoder
      * @throws JSONException
      */
-    protected Object convert(Object obj) throws JSONException {
-
-        Object returnObj = null;
-        if(obj instanceof JSONArray) {
-            JSONArray objArray = (JSONArray) obj;
-            List<Object> objList = new ArrayList();
-            for(int i = 0; i < objArray.length(); i ++) {
-                Object value = objArray.get(i);
-                objList.add(value);
+    protected List<Object> decode(RpcContext context, JsonDecoder decoder) throws JSONException {
+        return decoder.decodeArray(getTargetMethod(context, decoder.countArray()));
+    }
+
+    /**
+     * <p>Get the method arguments are passed to before the method has been resolved</p>
+     *
+     * <p>This is the method requested by id or, for a method requested by name, its only overload with the
+     * given arity. Returns null if the method is not known until overload resolution has matched the
+     * arguments</p>
+     *
+     * @param context
+     * @param arity
+     */
+    protected RpcMethod getTargetMethod(RpcContext context, int arity) {
+
+        RpcMethod method = context.getRpcMethod();
+        if(method == null) {
+            RpcMethod[] overloads = context.getDispatchTable().getOverloads(context.getMethod(), arity);
+            if(overloads.length == 1) {
+                method = overloads[0];
             }
-            returnObj = objList;
         }
-        else if(obj instanceof JSONObject) {
-            JSONObject objObject = (JSONObject) obj;
-            Map<String, Object> objMap = new HashMap<String, Object>();
-            Iterator<String> i = objObject.keys();
-            while(i.hasNext()) {
-                String key = i.next();
-                Object value = convert(objObject.get(key));
-                objMap.put(key, value);
+        return method != null && method.getArity() == arity ? method : null;
+    }
+
+    /**
+     * <p>Get the pool that buffers for reading request bodies are taken from</p>
+     *
+     * <p>Sub classes can override this to supply their own RpcBufferPool</p>
+     */
+    protected RpcBufferPool getBufferPool() {
+        return RpcBufferPool.getShared();
+    }
+
+    /**
+     * <p>Convert decoded arguments to the parameter types of the method they are passed to</p>
+     *
+     * <p>This is the method getTargetMethod(RpcContext, int) returns, arguments of any other method are left
+     * as they were decoded, overload resolution then matches them against each overloads parameter types
+     * unchanged</p>
+     *
+     * <p>The arguments are converted in place, an argument that cannot be passed as its parameter type is left
+     * as it is so that resolving the method fails</p>
+     *
+     * @param context
+     * @param arguments
+     */
+    protected void coerce(RpcContext context, List<Object> arguments) {
+
+        RpcMethod method = getTargetMethod(context, arguments.size());
+        if(method == null) {
+            return;
+        }
+        for(int i = 0; i < arguments.size();  ++ i) {
+            Object value = coerce(arguments.get(i), method.getParameterType(i));
+            if(value != NO_MATCH) {
+                arguments.set(i, value);
+            }
+        }
+    }
+
+    /**
+     * <p>Convert a decoded value so it can be passed as a parameter type</p>
+     *
+     * <p>Returns NO_MATCH if the value cannot be passed as the type</p>
+     *
+     * @param value
+     * @param type
+     */
+    protected Object coerce(Object value, Class type) {
+
+        if(value == null) {
+            return type.isPrimitive() ? NO_MATCH : null;
+        }
+        if( ! type.isPrimitive() && type.isInstance(value)) {
+            return value;
+        }
+        if(value instanceof Integer || value instanceof Long) {
+            long number = ((Number) value).longValue();
+            if(type == Integer.TYPE || type == Integer.class) {
+                return number == (int) number ? (Object) Integer.valueOf((int) number) : NO_MATCH;
+            }
+            if(type == Long.TYPE || type == Long.class) {
+                return Long.valueOf(number);
+            }
+            if(type == Short.TYPE || type == Short.class) {
+                return number == (short) number ? (Object) Short.valueOf((short) number) : NO_MATCH;
+            }
+            if(type == Byte.TYPE || type == Byte.class) {
+                return number == (byte) number ? (Object) Byte.valueOf((byte) number) : NO_MATCH;
+            }
+        }
+        if(value instanceof Number) {
+            if(type == Double.TYPE || type == Double.class) {
+                return Double.valueOf(((Number) value).doubleValue());
+            }
+            if(type == Float.TYPE || type == Float.class) {
+                return Float.valueOf(((Number) value).floatValue());
             }
-            returnObj = objMap;
         }
-        else if(obj instanceof Integer || obj instanceof Boolean || obj instanceof String ||
-                obj instanceof Long || obj instanceof Double) {
-            returnObj = obj;
+        if(value instanceof Boolean && type == Boolean.TYPE) {
+            return value;
         }
-        return returnObj;
+        return NO_MATCH;
     }
 
 }
@@ -21,24 +21,24 @@
  */
 package gizmo.uk.toolkit.rpc.handlers.json;
 
+import gizmo.uk.toolkit.rpc.RpcBufferPool;
 import gizmo.uk.toolkit.rpc.RpcContext;
+import gizmo.uk.toolkit.rpc.RpcETag;
+import gizmo.uk.toolkit.rpc.RpcEnvelope;
 import gizmo.uk.toolkit.rpc.RpcError;
-import gizmo.uk.toolkit.rpc.RpcReturnValueHandler;
+import gizmo.uk.toolkit.rpc.RpcMethod;
+import gizmo.uk.toolkit.rpc.RpcOutputBuffer;
+import gizmo.uk.toolkit.rpc.RpcTimestamp;
+import gizmo.uk.toolkit.rpc.RpcTypedReturnValueHandler;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import java.text.SimpleDateFormat;
+import javax.servlet.http.HttpServletResponse;
 
-import java.util.Calendar;
-import java.util.Date;
-import java.util.Map;
-
-import org.json.JSONObject;
 import org.json.JSONException;
 
-import java.util.List;
-
 /**
  * <p>RpcReturnValueHandler implementation that converts various Java types to Javascript types</p>
  *
@@ -47,8 +47,24 @@ import java.util.List;
  *
  * <p>The returned value is wrapped in a JSON object literal that reiterates information about the invocation</p>
  *
+ * <p>The response is written with a JsonStreamWriter, which walks the returned List and Map graph directly
+ * instead of copying it into JSONArray and JSONObject instances first</p>
+ *
+ * <p>The JSON text is encoded as UTF-8 into a pooled RpcOutputBuffer sized by what the invoked method has
+ * returned before, and sent with an exact Content-Length</p>
+ *
  * <p>Returned JSON object will have a 'return' property if the invocation returns a value</p>
  *
+ * <p>Each response is sent with an ETag computed from everything but the timestamp, if the requests
+ * If-None-Match header matches it then HTTP 304 is sent with no response body</p>
+ *
+ * <p>The start of the response object holding the service and method is rendered to bytes once for each
+ * method and copied into every later response, the timestamp is shared by all responses in the same
+ * second</p>
+ *
+ * <p>A compact response is the array [0, return-value], or [0] if the invocation returns no value, as
+ * described by RpcEnvelope</p>
+ *
  * <p>Rsponse format: </p>
  * <pre>
  * {
@@ -62,47 +78,166 @@ import java.util.List;
  * 
  * @author gareth bond
  */
-public class JsonTypesReturnValueHandler implements RpcReturnValueHandler {
+public class JsonTypesReturnValueHandler implements RpcTypedReturnValueHandler {
+
+    /**
+     * <p>Content type of the response</p>
+     */
+    protected final String CONTENT_TYPE = "application/json; charset=UTF-8";
+
+    /**
+     * <p>Every return value of a method with a return type JsonTypes accepts is handled</p>
+     *
+     * @param returnType
+     */
+    public boolean handlesReturnType(Class returnType) {
+        return JsonTypes.isReturnType(returnType);
+    }
+
+    /**
+     * <p>Map of methods corresponding to the rendered start of their response objects</p>
+     */
+    protected final ConcurrentMap<RpcMethod, byte[]> envelopes = new ConcurrentHashMap<RpcMethod, byte[]>();
 
     public boolean handleReturnValue(RpcContext context, Object returnValue)
             throws IOException {
 
-        JSONObject responseObject = new JSONObject();
+        boolean hasReturn;
+        if(JsonTypes.isReturnValue(returnValue)) {
+            hasReturn = true;
+        }
+        else if(returnValue.equals(Void.TYPE)) {
+            hasReturn = false;
+        }
+        else {
+            return false;
+        }
+        RpcMethod method = context.getRpcMethod();
+        RpcOutputBuffer rendered = new RpcOutputBuffer(getBufferPool(),
+                method == null ? RpcBufferPool.DEFAULT_BUFFER_SIZE : method.getResponseSizeHint());
         try {
-            responseObject.put("service", context.getService());
-            responseObject.put("method", getMethodDescription(context));
-            responseObject.put("timestamp", getTimestamp());
-            PrintWriter writer = context.getResponse().getWriter();
-            if(returnValue instanceof List || returnValue instanceof Map ||
-               returnValue instanceof Boolean || returnValue instanceof String ||
-               returnValue instanceof Long || returnValue instanceof Double ||
-               returnValue instanceof Integer) {
-                responseObject.put("return", returnValue);
-                responseObject.write(writer);
-                return true;
-            }
-            else if(returnValue == null) {
-                responseObject.put("return", JSONObject.NULL);
-                responseObject.write(writer);
-                return true;
+            JsonStreamWriter json = new JsonStreamWriter(rendered);
+            if(context.isCompact()) {
+                rendered.append("[" + RpcEnvelope.STATUS_RETURN);
+                if(hasReturn) {
+                    rendered.append(',');
+                    json.value(returnValue);
+                }
             }
-            else if(returnValue.equals(Void.TYPE)) {
-                responseObject.write(writer);
-                return true;
+            else {
+                byte[] envelope = getEnvelope(context);
+                rendered.writeBytes(envelope, 0, envelope.length);
+                if(hasReturn) {
+                    rendered.append(",\"return\":");
+                    json.value(returnValue);
+                }
             }
+            writeResponse(context, rendered);
+            return true;
         }
         catch(JSONException e) {
             throw new RpcError(e);
         }
-        return false;
+        finally {
+            rendered.release();
+        }
+    }
+
+    /**
+     * <p>Complete the rendered response object and write it to the HTTP response</p>
+     *
+     * <p>The response object is rendered up to, but not including, the timestamp and closing brace so the ETag
+     * only changes when the response does, a matching If-None-Match header gets HTTP 304 and no body</p>
+     *
+     * <p>A compact response is rendered up to its closing bracket and has no timestamp</p>
+     *
+     * @param context
+     * @param rendered
+     * @throws IOException
+     */
+    protected void writeResponse(RpcContext context, RpcOutputBuffer rendered) throws IOException {
+
+        HttpServletResponse response = context.getResponse();
+
+        //answer a conditional request the client already has the response for
+        String etag = RpcETag.compute(rendered.getBuffer(), 0, rendered.size());
+        response.setHeader(RpcETag.ETAG_HEADER, etag);
+        if(RpcETag.isNotModified(context.getRequest(), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        //complete the response, the timestamp has no characters that need escaping
+        if(context.isCompact()) {
+            rendered.append(']');
+        }
+        else {
+            rendered.append(",\"timestamp\":\"");
+            rendered.append(getTimestamp());
+            rendered.append("\"}");
+        }
+        if(context.getRpcMethod() != null) {
+            context.getRpcMethod().recordResponseSize(rendered.size());
+        }
+        response.setContentType(CONTENT_TYPE);
+        rendered.writeTo(response);
+    }
+
+    /**
+     * <p>Get the start of the response object holding the service and method as UTF-8 bytes</p>
+     *
+     * <p>The bytes are rendered the first time a method returns and kept for the method, the returned array
+     * must not be modified</p>
+     *
+     * @param context
+     * @throws IOException
+     * @throws JSONException
+     */
+    protected byte[] getEnvelope(RpcContext context) throws IOException, JSONException {
+
+        RpcMethod method = context.getRpcMethod();
+        byte[] envelope = method == null ? null : envelopes.get(method);
+        if(envelope == null) {
+            RpcOutputBuffer rendered = new RpcOutputBuffer(getBufferPool(), RpcBufferPool.DEFAULT_BUFFER_SIZE);
+            try {
+                JsonStreamWriter json = new JsonStreamWriter(rendered);
+                rendered.append("{\"service\":");
+                json.string(context.getService());
+                rendered.append(",\"method\":");
+                json.string(getMethodDescription(context));
+                envelope = rendered.toByteArray();
+            }
+            finally {
+                rendered.release();
+            }
+            if(method != null) {
+                envelopes.put(method, envelope);
+            }
+        }
+        return envelope;
+    }
+
+    /**
+     * <p>Get the pool that response buffers are taken from</p>
+     *
+     * <p>Sub classes can override this to supply their own RpcBufferPool</p>
+     */
+    protected RpcBufferPool getBufferPool() {
+        return RpcBufferPool.getShared();
     }
 
     /**
      * <p>Get a String description of the invoked method</p>
      *
+     * <p>The description of a resolved method is computed once by its RpcMethod</p>
+     *
      * @param context
      */
     protected String getMethodDescription(RpcContext context) {
+        RpcMethod method = context.getRpcMethod();
+        if(method != null) {
+            return method.getDescription();
+        }
         String description = context.getInvoked().toGenericString();
         int index = description.indexOf(context.getMethod());
         description = description.substring(index);
@@ -111,16 +246,11 @@ public class JsonTypesReturnValueHandler implements RpcReturnValueHandler {
 
     /**
      * <p>Generate a timestamp String in the format: yyyyMMddTHH:mm:ss
+     *
+     * <p>The timestamp is shared by all responses in the same second</p>
      */
     protected String getTimestamp() {
-        Date now = Calendar.getInstance().getTime();
-        SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMdd'T'HH:mm:ss");
-        try {
-            return formatter.format(now);
-        }
-        catch(Exception e) {
-            throw new RpcError(e);
-        }
+        return RpcTimestamp.get();
     }
 
 }
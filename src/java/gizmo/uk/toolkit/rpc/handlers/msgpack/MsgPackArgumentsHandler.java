@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc.handlers.msgpack;
+
+import gizmo.uk.toolkit.rpc.RpcContext;
+import gizmo.uk.toolkit.rpc.RpcError;
+import gizmo.uk.toolkit.rpc.RpcMimeTypes;
+import gizmo.uk.toolkit.rpc.RpcRequestBody;
+import gizmo.uk.toolkit.rpc.handlers.json.JsonTypesArgumentsHandler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * <p>RpcArgumentsHandler implementation that converts a MessagePack array posted as the request body into a
+ * List of various Java types</p>
+ *
+ * <p>The request must be posted with the content type application/x-msgpack, the body is read into a pooled
+ * buffer and decoded by a MsgPackDecoder without any text being parsed</p>
+ *
+ * <p>Decoded values have the same types JsonTypesArgumentsHandler produces, the arguments of a method requested
+ * by id or of a name with a single overload of their arity are then converted to its parameter types</p>
+ *
+ * <p>Returns null for requests of any other content type, so it is registered for its MIME type rather than
+ * added to the list of RpcArgumentsHandler instances</p>
+ *
+ * @author gareth bond
+ */
+public class MsgPackArgumentsHandler extends JsonTypesArgumentsHandler {
+
+    public List<Object> getArguments(RpcContext context) {
+
+        HttpServletRequest request = context.getRequest();
+        if( ! RpcRequestBody.isContentType(request, RpcMimeTypes.MSGPACK)) {
+            return null;
+        }
+        List<Object> arguments = new ArrayList<Object>();
+        try {
+            RpcRequestBody body = RpcRequestBody.readBytes(request, getBufferPool(),
+                    context.getMaxRequestBody());
+            try {
+                if(body.getLength() != 0) {
+                    arguments = new MsgPackDecoder(body.getBytes(), 0, body.getLength()).decodeArray();
+                }
+            }
+            finally {
+                body.release();
+            }
+        }
+        catch(IOException e) {
+            throw new RpcError(e);
+        }
+        if( ! arguments.isEmpty()) {
+            coerce(context, arguments);
+        }
+        return arguments;
+    }
+
+}
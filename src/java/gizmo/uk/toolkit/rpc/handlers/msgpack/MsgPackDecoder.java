@@ -0,0 +1,373 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc.handlers.msgpack;
+
+import gizmo.uk.toolkit.rpc.RpcUtf8;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>MsgPackDecoder decodes MessagePack data in a single pass straight into Java values</p>
+ *
+ * <p>Arrays become ArrayList instances, maps become HashMap instances, strings become String, binary data
+ * becomes byte[], booleans become Boolean and nil becomes null, at every level of nesting</p>
+ *
+ * <p>Integers become Integer if they fit, otherwise Long, and floating point numbers become Double, the same
+ * types JsonDecoder produces so arguments bind to method parameters the same way in both formats, unsigned
+ * 64 bit integers too large for a long become Double</p>
+ *
+ * <p>Extension types are not supported</p>
+ *
+ * <p>The data is read from a range of a byte array, such as a pooled buffer holding a request body, without
+ * copying it first</p>
+ *
+ * @author gareth bond
+ */
+public class MsgPackDecoder {
+
+    /**
+     * <p>Charset strings are decoded with</p>
+     */
+    protected static final Charset UTF8 = Charset.forName(RpcUtf8.CHARSET);
+
+    /**
+     * <p>Data being decoded</p>
+     */
+    protected final byte[] bytes;
+
+    /**
+     * <p>Index after the last byte of the data</p>
+     */
+    protected final int end;
+
+    /**
+     * <p>Index of the next byte to read</p>
+     */
+    protected int index;
+
+    /**
+     * <p>Construct a new MsgPackDecoder for data held in a range of a byte array</p>
+     *
+     * <p>The array is not copied and must not be modified until decoding has finished</p>
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     */
+    public MsgPackDecoder(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.end = offset + length;
+        this.index = offset;
+    }
+
+    /**
+     * <p>Decode the data as a single value of any type</p>
+     *
+     * @throws IOException if the data is not valid MessagePack
+     */
+    public Object decode() throws IOException {
+        Object value = value();
+        end();
+        return value;
+    }
+
+    /**
+     * <p>Decode the data as an array</p>
+     *
+     * @throws IOException if the data is not a valid MessagePack array
+     */
+    public List<Object> decodeArray() throws IOException {
+        int b = next();
+        int size;
+        if((b & 0xf0) == 0x90) {
+            size = b & 0x0f;
+        }
+        else if(b == 0xdc) {
+            size = uint16();
+        }
+        else if(b == 0xdd) {
+            size = size(uint32());
+        }
+        else {
+            throw formatError("MessagePack arguments must be an array");
+        }
+        List<Object> list = array(size);
+        end();
+        return list;
+    }
+
+    /**
+     * <p>Check no data follows the decoded value</p>
+     *
+     * @throws IOException
+     */
+    protected void end() throws IOException {
+        if(index != end) {
+            throw formatError("Unexpected data after the value");
+        }
+    }
+
+    /**
+     * <p>Decode the next value</p>
+     *
+     * @throws IOException
+     */
+    protected Object value() throws IOException {
+        int b = next();
+        if(b <= 0x7f) {
+            return Integer.valueOf(b);
+        }
+        if(b >= 0xe0) {
+            return Integer.valueOf((byte) b);
+        }
+        if((b & 0xf0) == 0x80) {
+            return map(b & 0x0f);
+        }
+        if((b & 0xf0) == 0x90) {
+            return array(b & 0x0f);
+        }
+        if((b & 0xe0) == 0xa0) {
+            return string(b & 0x1f);
+        }
+        switch(b) {
+            case 0xc0:
+                return null;
+            case 0xc2:
+                return Boolean.FALSE;
+            case 0xc3:
+                return Boolean.TRUE;
+            case 0xc4:
+                return binary(next());
+            case 0xc5:
+                return binary(uint16());
+            case 0xc6:
+                return binary(size(uint32()));
+            case 0xca:
+                return Double.valueOf(Float.intBitsToFloat(int32()));
+            case 0xcb:
+                return Double.valueOf(Double.longBitsToDouble(int64()));
+            case 0xcc:
+                return Integer.valueOf(next());
+            case 0xcd:
+                return Integer.valueOf(uint16());
+            case 0xce:
+                return number(uint32());
+            case 0xcf:
+                long unsigned = int64();
+                if(unsigned < 0) {
+                    return Double.valueOf((unsigned >>> 1) * 2.0 + (unsigned & 1));
+                }
+                return number(unsigned);
+            case 0xd0:
+                return Integer.valueOf((byte) next());
+            case 0xd1:
+                return Integer.valueOf((short) uint16());
+            case 0xd2:
+                return Integer.valueOf(int32());
+            case 0xd3:
+                return number(int64());
+            case 0xd9:
+                return string(next());
+            case 0xda:
+                return string(uint16());
+            case 0xdb:
+                return string(size(uint32()));
+            case 0xdc:
+                return array(uint16());
+            case 0xdd:
+                return array(size(uint32()));
+            case 0xde:
+                return map(uint16());
+            case 0xdf:
+                return map(size(uint32()));
+            default:
+                throw formatError("Unsupported type 0x" + Integer.toHexString(b));
+        }
+    }
+
+    /**
+     * <p>Decode the elements of an array</p>
+     *
+     * @param size
+     * @throws IOException
+     */
+    protected List<Object> array(int size) throws IOException {
+        available(size);
+        List<Object> list = new ArrayList<Object>(size);
+        for(int i = 0; i < size;  ++ i) {
+            list.add(value());
+        }
+        return list;
+    }
+
+    /**
+     * <p>Decode the entries of a map</p>
+     *
+     * @param size
+     * @throws IOException
+     */
+    protected Map<Object, Object> map(int size) throws IOException {
+        available(size);
+        Map<Object, Object> map = new HashMap<Object, Object>();
+        for(int i = 0; i < size;  ++ i) {
+            Object key = value();
+            map.put(key, value());
+        }
+        return map;
+    }
+
+    /**
+     * <p>Decode a UTF-8 string</p>
+     *
+     * @param length
+     * @throws IOException
+     */
+    protected String string(int length) throws IOException {
+        available(length);
+        String string = new String(bytes, index, length, UTF8);
+        index += length;
+        return string;
+    }
+
+    /**
+     * <p>Copy binary data</p>
+     *
+     * @param length
+     * @throws IOException
+     */
+    protected byte[] binary(int length) throws IOException {
+        available(length);
+        byte[] binary = new byte[length];
+        System.arraycopy(bytes, index, binary, 0, length);
+        index += length;
+        return binary;
+    }
+
+    /**
+     * <p>Get an integer as an Integer if it fits, otherwise a Long</p>
+     *
+     * @param value
+     */
+    protected Number number(long value) {
+        if(value == (int) value) {
+            return Integer.valueOf((int) value);
+        }
+        return Long.valueOf(value);
+    }
+
+    /**
+     * <p>Check an unsigned 32 bit length can be held in an int</p>
+     *
+     * @param length
+     * @throws IOException
+     */
+    protected int size(long length) throws IOException {
+        if(length > Integer.MAX_VALUE) {
+            throw formatError("Length too large " + length);
+        }
+        return (int) length;
+    }
+
+    /**
+     * <p>Check at least the given number of bytes remain, an array or map of that many elements needs at
+     * least as many bytes</p>
+     *
+     * @param length
+     * @throws IOException
+     */
+    protected void available(int length) throws IOException {
+        if(length > end - index) {
+            throw formatError("Unexpected end of data");
+        }
+    }
+
+    /**
+     * <p>Read the next byte as an unsigned value</p>
+     *
+     * @throws IOException
+     */
+    protected int next() throws IOException {
+        if(index >= end) {
+            throw formatError("Unexpected end of data");
+        }
+        return bytes[index ++] & 0xff;
+    }
+
+    /**
+     * <p>Read a big endian unsigned 16 bit integer</p>
+     *
+     * @throws IOException
+     */
+    protected int uint16() throws IOException {
+        available(2);
+        int value = ((bytes[index] & 0xff) << 8) | (bytes[index + 1] & 0xff);
+        index += 2;
+        return value;
+    }
+
+    /**
+     * <p>Read a big endian 32 bit integer</p>
+     *
+     * @throws IOException
+     */
+    protected int int32() throws IOException {
+        available(4);
+        int value = ((bytes[index] & 0xff) << 24) | ((bytes[index + 1] & 0xff) << 16) |
+                    ((bytes[index + 2] & 0xff) << 8) | (bytes[index + 3] & 0xff);
+        index += 4;
+        return value;
+    }
+
+    /**
+     * <p>Read a big endian unsigned 32 bit integer</p>
+     *
+     * @throws IOException
+     */
+    protected long uint32() throws IOException {
+        return int32() & 0xffffffffL;
+    }
+
+    /**
+     * <p>Read a big endian 64 bit integer</p>
+     *
+     * @throws IOException
+     */
+    protected long int64() throws IOException {
+        long high = uint32();
+        return (high << 32) | uint32();
+    }
+
+    /**
+     * <p>Create an exception for malformed data giving the index it was found at</p>
+     *
+     * @param message
+     */
+    protected IOException formatError(String message) {
+        return new IOException(message + " at byte " + index);
+    }
+
+}
@@ -0,0 +1,355 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc.handlers.msgpack;
+
+import gizmo.uk.toolkit.rpc.RpcOutputBuffer;
+import gizmo.uk.toolkit.rpc.RpcUtf8;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * <p>MsgPackEncoder writes Java values as MessagePack straight into an RpcOutputBuffer</p>
+ *
+ * <p>Values are written as JsonStreamWriter writes them as JSON: Collections and arrays become arrays, Maps
+ * become maps with String keys, Booleans become booleans, null and JSONObject.NULL become nil and anything
+ * else becomes its toString() value, except that byte arrays become binary data</p>
+ *
+ * <p>Integer, Long, Short and Byte values are written as integers in the fewest bytes, Float values as 32
+ * bit floats and any other Number as a 64 bit float, numbers are never formatted as text</p>
+ *
+ * <p>Strings are encoded as UTF-8 in place, after a header holding their encoded length</p>
+ *
+ * <p>Warning: the value graph must be acyclical</p>
+ *
+ * @author gareth bond
+ */
+public class MsgPackEncoder {
+
+    /**
+     * <p>Destination of the encoded data</p>
+     */
+    protected final RpcOutputBuffer out;
+
+    /**
+     * <p>Buffer a type byte and fixed size value are assembled in</p>
+     */
+    protected final byte[] scratch = new byte[9];
+
+    /**
+     * <p>Construct a new MsgPackEncoder writing to the given RpcOutputBuffer</p>
+     *
+     * @param out
+     */
+    public MsgPackEncoder(RpcOutputBuffer out) {
+        this.out = out;
+    }
+
+    /**
+     * <p>Write a value of any supported type</p>
+     *
+     * @param value
+     */
+    public void value(Object value) {
+        if(value == null || value.equals(null)) {
+            nil();
+        }
+        else if(value instanceof String) {
+            string((String) value);
+        }
+        else if(value instanceof Integer || value instanceof Long || value instanceof Short ||
+                value instanceof Byte) {
+            integer(((Number) value).longValue());
+        }
+        else if(value instanceof Float) {
+            float32(((Float) value).floatValue());
+        }
+        else if(value instanceof Number) {
+            float64(((Number) value).doubleValue());
+        }
+        else if(value instanceof Boolean) {
+            bool(((Boolean) value).booleanValue());
+        }
+        else if(value instanceof Map) {
+            map((Map) value);
+        }
+        else if(value instanceof Collection) {
+            collection((Collection) value);
+        }
+        else if(value instanceof JSONObject) {
+            jsonObject((JSONObject) value);
+        }
+        else if(value instanceof JSONArray) {
+            jsonArray((JSONArray) value);
+        }
+        else if(value instanceof byte[]) {
+            binary((byte[]) value);
+        }
+        else if(value.getClass().isArray()) {
+            array(value);
+        }
+        else {
+            string(value.toString());
+        }
+    }
+
+    /**
+     * <p>Write nil</p>
+     */
+    public void nil() {
+        out.writeByte(0xc0);
+    }
+
+    /**
+     * <p>Write a boolean</p>
+     *
+     * @param value
+     */
+    public void bool(boolean value) {
+        out.writeByte(value ? 0xc3 : 0xc2);
+    }
+
+    /**
+     * <p>Write an integer in the fewest bytes</p>
+     *
+     * @param value
+     */
+    public void integer(long value) {
+        if(value >= 0) {
+            if(value <= 0x7f) {
+                out.writeByte((int) value);
+            }
+            else if(value <= 0xff) {
+                header(0xcc, value, 1);
+            }
+            else if(value <= 0xffff) {
+                header(0xcd, value, 2);
+            }
+            else if(value <= 0xffffffffL) {
+                header(0xce, value, 4);
+            }
+            else {
+                header(0xcf, value, 8);
+            }
+        }
+        else {
+            if(value >= -32) {
+                out.writeByte((int) value);
+            }
+            else if(value >= Byte.MIN_VALUE) {
+                header(0xd0, value, 1);
+            }
+            else if(value >= Short.MIN_VALUE) {
+                header(0xd1, value, 2);
+            }
+            else if(value >= Integer.MIN_VALUE) {
+                header(0xd2, value, 4);
+            }
+            else {
+                header(0xd3, value, 8);
+            }
+        }
+    }
+
+    /**
+     * <p>Write a 32 bit float</p>
+     *
+     * @param value
+     */
+    public void float32(float value) {
+        header(0xca, Float.floatToIntBits(value), 4);
+    }
+
+    /**
+     * <p>Write a 64 bit float</p>
+     *
+     * @param value
+     */
+    public void float64(double value) {
+        header(0xcb, Double.doubleToLongBits(value), 8);
+    }
+
+    /**
+     * <p>Write a String as UTF-8</p>
+     *
+     * @param value
+     */
+    public void string(String value) {
+        int length = RpcUtf8.length(value);
+        if(length < 32) {
+            out.writeByte(0xa0 | length);
+        }
+        else if(length <= 0xff) {
+            header(0xd9, length, 1);
+        }
+        else if(length <= 0xffff) {
+            header(0xda, length, 2);
+        }
+        else {
+            header(0xdb, length, 4);
+        }
+        out.append(value);
+    }
+
+    /**
+     * <p>Write binary data</p>
+     *
+     * @param value
+     */
+    public void binary(byte[] value) {
+        if(value.length <= 0xff) {
+            header(0xc4, value.length, 1);
+        }
+        else if(value.length <= 0xffff) {
+            header(0xc5, value.length, 2);
+        }
+        else {
+            header(0xc6, value.length, 4);
+        }
+        out.writeBytes(value, 0, value.length);
+    }
+
+    /**
+     * <p>Write the header of an array, the elements must follow</p>
+     *
+     * @param size
+     */
+    public void arrayHeader(int size) {
+        if(size < 16) {
+            out.writeByte(0x90 | size);
+        }
+        else if(size <= 0xffff) {
+            header(0xdc, size, 2);
+        }
+        else {
+            header(0xdd, size, 4);
+        }
+    }
+
+    /**
+     * <p>Write the header of a map, the keys and values must follow</p>
+     *
+     * @param size
+     */
+    public void mapHeader(int size) {
+        if(size < 16) {
+            out.writeByte(0x80 | size);
+        }
+        else if(size <= 0xffff) {
+            header(0xde, size, 2);
+        }
+        else {
+            header(0xdf, size, 4);
+        }
+    }
+
+    /**
+     * <p>Write a Map as a map with String keys</p>
+     *
+     * @param map
+     */
+    public void map(Map map) {
+        mapHeader(map.size());
+        Iterator i = map.entrySet().iterator();
+        while(i.hasNext()) {
+            Map.Entry entry = (Map.Entry) i.next();
+            string(entry.getKey().toString());
+            value(entry.getValue());
+        }
+    }
+
+    /**
+     * <p>Write a Collection as an array</p>
+     *
+     * @param collection
+     */
+    public void collection(Collection collection) {
+        arrayHeader(collection.size());
+        Iterator i = collection.iterator();
+        while(i.hasNext()) {
+            value(i.next());
+        }
+    }
+
+    /**
+     * <p>Write an array of any component type as an array</p>
+     *
+     * @param array
+     */
+    public void array(Object array) {
+        int length = Array.getLength(array);
+        arrayHeader(length);
+        for(int i = 0; i < length;  ++ i) {
+            value(Array.get(array, i));
+        }
+    }
+
+    /**
+     * <p>Write a JSONObject as a map</p>
+     *
+     * @param object
+     */
+    public void jsonObject(JSONObject object) {
+        mapHeader(object.length());
+        Iterator i = object.keys();
+        while(i.hasNext()) {
+            String key = i.next().toString();
+            string(key);
+            value(object.opt(key));
+        }
+    }
+
+    /**
+     * <p>Write a JSONArray as an array</p>
+     *
+     * @param array
+     */
+    public void jsonArray(JSONArray array) {
+        int length = array.length();
+        arrayHeader(length);
+        for(int i = 0; i < length;  ++ i) {
+            value(array.opt(i));
+        }
+    }
+
+    /**
+     * <p>Write a type byte followed by the low bytes of a value in big endian order</p>
+     *
+     * @param type
+     * @param value
+     * @param length
+     */
+    protected void header(int type, long value, int length) {
+        scratch[0] = (byte) type;
+        for(int i = length; i > 0;  -- i) {
+            scratch[i] = (byte) value;
+            value >>= 8;
+        }
+        out.writeBytes(scratch, 0, length + 1);
+    }
+
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc.handlers.msgpack;
+
+import gizmo.uk.toolkit.rpc.RpcBufferPool;
+import gizmo.uk.toolkit.rpc.RpcContext;
+import gizmo.uk.toolkit.rpc.RpcEnvelope;
+import gizmo.uk.toolkit.rpc.RpcExceptionHandler;
+import gizmo.uk.toolkit.rpc.RpcMethod;
+import gizmo.uk.toolkit.rpc.RpcMimeTypes;
+import gizmo.uk.toolkit.rpc.RpcOutputBuffer;
+import gizmo.uk.toolkit.rpc.RpcTimestamp;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * <p>RpcExceptionHandler implementation that writes a Throwable as MessagePack</p>
+ *
+ * <p>The response is a map with the same keys as the JSON object JsonObjectExceptionHandler writes, with
+ * either an 'error' or 'exception' entry indicating the type of exception that was thrown</p>
+ *
+ * <p>The map is written by a MsgPackEncoder into a pooled RpcOutputBuffer and sent with an exact
+ * Content-Length and the content type application/x-msgpack</p>
+ *
+ * <p>The service and method entries are rendered once for each method and copied into every later
+ * response</p>
+ *
+ * <p>A compact response is the array [1, class, message] for an exception or [2, class, message] for an
+ * error, as described by RpcEnvelope</p>
+ *
+ * <p>Response format: </p>
+ * <pre>
+ * {
+ *  service : [servive-name],
+ *  method : [method-name],
+ *  timestamp : [yyyyMMddTHH:mm:s],
+ *  error / exception : {
+ *      class : [Java-Class],
+ *      message : [String],
+ *      cause : {
+ *          [etc.]
+ *      }
+ *  }
+ * }
+ * </pre>
+ *
+ * @author gareth bond
+ */
+public class MsgPackExceptionHandler implements RpcExceptionHandler {
+
+    /**
+     * <p>Content type of the response</p>
+     */
+    protected final String CONTENT_TYPE = RpcMimeTypes.MSGPACK;
+
+    /**
+     * <p>Map of methods corresponding to the rendered service and method entries of their responses</p>
+     */
+    protected final ConcurrentMap<RpcMethod, byte[]> envelopes = new ConcurrentHashMap<RpcMethod, byte[]>();
+
+    public boolean handleException(RpcContext context, Throwable exception)
+            throws IOException {
+
+        RpcOutputBuffer rendered = new RpcOutputBuffer(getBufferPool(), RpcBufferPool.DEFAULT_BUFFER_SIZE);
+        try {
+            MsgPackEncoder encoder = new MsgPackEncoder(rendered);
+            if(context.isCompact()) {
+                encoder.arrayHeader(3);
+                encoder.integer(RpcEnvelope.getStatus(exception));
+                encoder.string(exception.getClass().getName());
+                String message = exception.getMessage();
+                encoder.string(message == null ? "" : message);
+            }
+            else {
+                encoder.mapHeader(4);
+                byte[] envelope = getEnvelope(context);
+                rendered.writeBytes(envelope, 0, envelope.length);
+                encoder.string("timestamp");
+                encoder.string(getTimestamp());
+                encoder.string(exception instanceof Error ? "error" : "exception");
+                writeException(encoder, exception);
+            }
+            HttpServletResponse response = context.getResponse();
+            response.setContentType(CONTENT_TYPE);
+            rendered.writeTo(response);
+            return true;
+        }
+        finally {
+            rendered.release();
+        }
+    }
+
+    /**
+     * <p>Recursively write a map describing the exception and any cause exceptions</p>
+     *
+     * @param encoder
+     * @param exception
+     */
+    protected void writeException(MsgPackEncoder encoder, Throwable exception) {
+
+        Throwable cause = exception.getCause();
+        encoder.mapHeader(cause == null ? 2 : 3);
+        encoder.string("class");
+        encoder.string(exception.getClass().getName());
+        String message = exception.getMessage();
+        if(message == null) {
+            message = "";
+        }
+        encoder.string("message");
+        encoder.string(message);
+        if(cause != null) {
+            encoder.string("cause");
+            writeException(encoder, cause);
+        }
+    }
+
+    /**
+     * <p>Get the service and method entries of the response map as MessagePack</p>
+     *
+     * <p>The bytes are rendered the first time a method throws and kept for the method, the returned array
+     * must not be modified</p>
+     *
+     * @param context
+     */
+    protected byte[] getEnvelope(RpcContext context) {
+
+        RpcMethod method = context.getRpcMethod();
+        byte[] envelope = method == null ? null : envelopes.get(method);
+        if(envelope == null) {
+            RpcOutputBuffer rendered = new RpcOutputBuffer(getBufferPool(), RpcBufferPool.DEFAULT_BUFFER_SIZE);
+            try {
+                MsgPackEncoder encoder = new MsgPackEncoder(rendered);
+                encoder.string("service");
+                encoder.string(context.getService());
+                encoder.string("method");
+                encoder.string(getMethodDescription(context));
+                envelope = rendered.toByteArray();
+            }
+            finally {
+                rendered.release();
+            }
+            if(method != null) {
+                envelopes.put(method, envelope);
+            }
+        }
+        return envelope;
+    }
+
+    /**
+     * <p>Get the pool that response buffers are taken from</p>
+     *
+     * <p>Sub classes can override this to supply their own RpcBufferPool</p>
+     */
+    protected RpcBufferPool getBufferPool() {
+        return RpcBufferPool.getShared();
+    }
+
+    /**
+     * <p>Get a String description of the invoked method</p>
+     *
+     * <p>The description of a resolved method is computed once by its RpcMethod</p>
+     *
+     * @param context
+     */
+    protected String getMethodDescription(RpcContext context) {
+        RpcMethod method = context.getRpcMethod();
+        if(method != null) {
+            return method.getDescription();
+        }
+        String description = context.getInvoked().toGenericString();
+        int index = description.indexOf(context.getMethod());
+        description = description.substring(index);
+        return description;
+    }
+
+    /**
+     * <p>Generate a timestamp String in the format: yyyyMMddTHH:mm:ss
+     *
+     * <p>The timestamp is shared by all responses in the same second</p>
+     */
+    protected String getTimestamp() {
+        return RpcTimestamp.get();
+    }
+
+}
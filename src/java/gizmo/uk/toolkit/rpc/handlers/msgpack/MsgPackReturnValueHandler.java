@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc.handlers.msgpack;
+
+import gizmo.uk.toolkit.rpc.RpcBufferPool;
+import gizmo.uk.toolkit.rpc.RpcContext;
+import gizmo.uk.toolkit.rpc.RpcETag;
+import gizmo.uk.toolkit.rpc.RpcEnvelope;
+import gizmo.uk.toolkit.rpc.RpcMethod;
+import gizmo.uk.toolkit.rpc.RpcMimeTypes;
+import gizmo.uk.toolkit.rpc.RpcOutputBuffer;
+import gizmo.uk.toolkit.rpc.RpcTimestamp;
+import gizmo.uk.toolkit.rpc.RpcTypedReturnValueHandler;
+import gizmo.uk.toolkit.rpc.handlers.json.JsonTypes;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * <p>RpcReturnValueHandler implementation that writes return values as MessagePack</p>
+ *
+ * <p>It accepts the same types as JsonTypesReturnValueHandler: null, List, Map, boolean, String, long, double
+ * and int as well as the corresponding primitive wrappers</p>
+ *
+ * <p>The response is a map with the same keys as the JSON response object, written by a MsgPackEncoder into a
+ * pooled RpcOutputBuffer sized by what the invoked method has returned before and sent with an exact
+ * Content-Length and the content type application/x-msgpack</p>
+ *
+ * <p>Each response is sent with an ETag computed from everything but the timestamp, if the requests
+ * If-None-Match header matches it then HTTP 304 is sent with no response body</p>
+ *
+ * <p>The service and method entries are rendered once for each method and copied into every later
+ * response</p>
+ *
+ * <p>A compact response is the array [0, return-value], or [0] if the invocation returns no value, as
+ * described by RpcEnvelope</p>
+ *
+ * <p>Response format: </p>
+ * <pre>
+ * {
+ *  service : [servive-name],
+ *  method : [method-name],
+ *  return : [map / array / number / string / boolean / nil],
+ *  timestamp : [yyyyMMddTHH:mm:ss]
+ * }
+ * </pre>
+ *
+ * @author gareth bond
+ */
+public class MsgPackReturnValueHandler implements RpcTypedReturnValueHandler {
+
+    /**
+     * <p>Content type of the response</p>
+     */
+    protected final String CONTENT_TYPE = RpcMimeTypes.MSGPACK;
+
+    /**
+     * <p>Every return value of a method with a return type JsonTypes accepts is handled</p>
+     *
+     * @param returnType
+     */
+    public boolean handlesReturnType(Class returnType) {
+        return JsonTypes.isReturnType(returnType);
+    }
+
+    /**
+     * <p>Map of methods corresponding to the rendered service and method entries of their responses</p>
+     */
+    protected final ConcurrentMap<RpcMethod, byte[]> envelopes = new ConcurrentHashMap<RpcMethod, byte[]>();
+
+    public boolean handleReturnValue(RpcContext context, Object returnValue)
+            throws IOException {
+
+        boolean hasReturn;
+        if(JsonTypes.isReturnValue(returnValue)) {
+            hasReturn = true;
+        }
+        else if(returnValue.equals(Void.TYPE)) {
+            hasReturn = false;
+        }
+        else {
+            return false;
+        }
+        RpcMethod method = context.getRpcMethod();
+        RpcOutputBuffer rendered = new RpcOutputBuffer(getBufferPool(),
+                method == null ? RpcBufferPool.DEFAULT_BUFFER_SIZE : method.getResponseSizeHint());
+        try {
+            MsgPackEncoder encoder = new MsgPackEncoder(rendered);
+            if(context.isCompact()) {
+                encoder.arrayHeader(hasReturn ? 2 : 1);
+                encoder.integer(RpcEnvelope.STATUS_RETURN);
+                if(hasReturn) {
+                    encoder.value(returnValue);
+                }
+            }
+            else {
+                encoder.mapHeader(hasReturn ? 4 : 3);
+                byte[] envelope = getEnvelope(context);
+                rendered.writeBytes(envelope, 0, envelope.length);
+                if(hasReturn) {
+                    encoder.string("return");
+                    encoder.value(returnValue);
+                }
+            }
+            writeResponse(context, rendered, encoder);
+            return true;
+        }
+        finally {
+            rendered.release();
+        }
+    }
+
+    /**
+     * <p>Complete the rendered response map and write it to the HTTP response</p>
+     *
+     * <p>The response map is rendered up to, but not including, the timestamp so the ETag only changes when
+     * the response does, a matching If-None-Match header gets HTTP 304 and no body</p>
+     *
+     * <p>A compact response is already complete and has no timestamp</p>
+     *
+     * @param context
+     * @param rendered
+     * @param encoder
+     * @throws IOException
+     */
+    protected void writeResponse(RpcContext context, RpcOutputBuffer rendered, MsgPackEncoder encoder)
+            throws IOException {
+
+        HttpServletResponse response = context.getResponse();
+
+        //answer a conditional request the client already has the response for
+        String etag = RpcETag.compute(rendered.getBuffer(), 0, rendered.size());
+        response.setHeader(RpcETag.ETAG_HEADER, etag);
+        if(RpcETag.isNotModified(context.getRequest(), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        //complete the response map with the timestamp
+        if( ! context.isCompact()) {
+            encoder.string("timestamp");
+            encoder.string(getTimestamp());
+        }
+        if(context.getRpcMethod() != null) {
+            context.getRpcMethod().recordResponseSize(rendered.size());
+        }
+        response.setContentType(CONTENT_TYPE);
+        rendered.writeTo(response);
+    }
+
+    /**
+     * <p>Get the service and method entries of the response map as MessagePack</p>
+     *
+     * <p>The bytes are rendered the first time a method returns and kept for the method, the returned array
+     * must not be modified</p>
+     *
+     * @param context
+     */
+    protected byte[] getEnvelope(RpcContext context) {
+
+        RpcMethod method = context.getRpcMethod();
+        byte[] envelope = method == null ? null : envelopes.get(method);
+        if(envelope == null) {
+            RpcOutputBuffer rendered = new RpcOutputBuffer(getBufferPool(), RpcBufferPool.DEFAULT_BUFFER_SIZE);
+            try {
+                MsgPackEncoder encoder = new MsgPackEncoder(rendered);
+                encoder.string("service");
+                encoder.string(context.getService());
+                encoder.string("method");
+                encoder.string(getMethodDescription(context));
+                envelope = rendered.toByteArray();
+            }
+            finally {
+                rendered.release();
+            }
+            if(method != null) {
+                envelopes.put(method, envelope);
+            }
+        }
+        return envelope;
+    }
+
+    /**
+     * <p>Get the pool that response buffers are taken from</p>
+     *
+     * <p>Sub classes can override this to supply their own RpcBufferPool</p>
+     */
+    protected RpcBufferPool getBufferPool() {
+        return RpcBufferPool.getShared();
+    }
+
+    /**
+     * <p>Get a String description of the invoked method</p>
+     *
+     * <p>The description of a resolved method is computed once by its RpcMethod</p>
+     *
+     * @param context
+     */
+    protected String getMethodDescription(RpcContext context) {
+        RpcMethod method = context.getRpcMethod();
+        if(method != null) {
+            return method.getDescription();
+        }
+        String description = context.getInvoked().toGenericString();
+        int index = description.indexOf(context.getMethod());
+        description = description.substring(index);
+        return description;
+    }
+
+    /**
+     * <p>Generate a timestamp String in the format: yyyyMMddTHH:mm:ss
+     *
+     * <p>The timestamp is shared by all responses in the same second</p>
+     */
+    protected String getTimestamp() {
+        return RpcTimestamp.get();
+    }
+
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc.handlers.schema;
+
+import gizmo.uk.toolkit.rpc.RpcContext;
+import gizmo.uk.toolkit.rpc.RpcError;
+import gizmo.uk.toolkit.rpc.RpcMessages;
+import gizmo.uk.toolkit.rpc.RpcMethod;
+import gizmo.uk.toolkit.rpc.RpcMimeTypes;
+import gizmo.uk.toolkit.rpc.RpcRequestBody;
+import gizmo.uk.toolkit.rpc.handlers.json.JsonTypesArgumentsHandler;
+import gizmo.uk.toolkit.rpc.handlers.msgpack.MsgPackDecoder;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * <p>RpcArgumentsHandler implementation for calls made by method id with positional arguments</p>
+ *
+ * <p>The request must be posted to [servlet-mapping]/[service-name]/[method-id] with the content type
+ * application/x-rpc-schema, the body is a MessagePack array holding the schema version followed by the
+ * arguments in parameter order:</p>
+ * <pre>
+ * [[schema-version], [argument], [etc.]]
+ * </pre>
+ *
+ * <p>The method id names a single overload so each argument is converted straight to its parameter type,
+ * a whole number to an int, long, short or byte parameter and any number to a double or float parameter</p>
+ *
+ * <p>Throws an RpcError if the method was not requested by id, the schema version is not the services
+ * current one or an argument cannot be passed as its parameter type</p>
+ *
+ * <p>Returns null for requests of any other content type, so it is registered for its MIME type rather than
+ * added to the list of RpcArgumentsHandler instances</p>
+ *
+ * @author gareth bond
+ */
+public class SchemaArgumentsHandler extends JsonTypesArgumentsHandler {
+
+    public List<Object> getArguments(RpcContext context) {
+
+        HttpServletRequest request = context.getRequest();
+        if( ! RpcRequestBody.isContentType(request, RpcMimeTypes.SCHEMA)) {
+            return null;
+        }
+        RpcMethod method = context.getRpcMethod();
+        if(method == null) {
+            throw new RpcError(RpcMessages.getMessage("methodIdRequired", context.getMethod()));
+        }
+        List<Object> arguments;
+        try {
+            RpcRequestBody body = RpcRequestBody.readBytes(request, getBufferPool(),
+                    context.getMaxRequestBody());
+            try {
+                arguments = new MsgPackDecoder(body.getBytes(), 0, body.getLength()).decodeArray();
+            }
+            finally {
+                body.release();
+            }
+        }
+        catch(IOException e) {
+            throw new RpcError(e);
+        }
+
+        //the method ids must belong to the services current schema
+        int version = context.getDispatchTable().getSchemaVersion();
+        Object requested = arguments.isEmpty() ? null : arguments.remove(0);
+        if( ! (requested instanceof Number) || ((Number) requested).longValue() != version) {
+            throw new RpcError(RpcMessages.getMessage("schemaVersionMismatch", String.valueOf(requested)));
+        }
+
+        //convert each argument to its parameter type
+        if(arguments.size() == method.getArity()) {
+            for(int i = 0; i < arguments.size();  ++ i) {
+                Object value = coerce(arguments.get(i), method.getParameterType(i));
+                if(value == NO_MATCH) {
+                    throw new RpcError(RpcMessages.getMessage("invalidArgument", method.getSignature() + " " +
+                            i));
+                }
+                arguments.set(i, value);
+            }
+        }
+        return arguments;
+    }
+
+}
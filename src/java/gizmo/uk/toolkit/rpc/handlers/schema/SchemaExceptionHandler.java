@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc.handlers.schema;
+
+import gizmo.uk.toolkit.rpc.RpcBufferPool;
+import gizmo.uk.toolkit.rpc.RpcContext;
+import gizmo.uk.toolkit.rpc.RpcEnvelope;
+import gizmo.uk.toolkit.rpc.RpcExceptionHandler;
+import gizmo.uk.toolkit.rpc.RpcMimeTypes;
+import gizmo.uk.toolkit.rpc.RpcOutputBuffer;
+import gizmo.uk.toolkit.rpc.handlers.msgpack.MsgPackEncoder;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * <p>RpcExceptionHandler implementation for calls made by method id that writes a Throwable as a positional
+ * MessagePack array</p>
+ *
+ * <p>The response is always in the compact envelope described by RpcEnvelope, the status is 1 for an
+ * exception and 2 for an error, followed by the class and message of the Throwable:</p>
+ * <pre>
+ * [1 / 2, [Java-Class], [String]]
+ * </pre>
+ *
+ * <p>The array is sent with the content type application/x-rpc-schema</p>
+ *
+ * @author gareth bond
+ */
+public class SchemaExceptionHandler implements RpcExceptionHandler {
+
+    /**
+     * <p>Content type of the response</p>
+     */
+    protected final String CONTENT_TYPE = RpcMimeTypes.SCHEMA;
+
+    public boolean handleException(RpcContext context, Throwable exception)
+            throws IOException {
+
+        RpcOutputBuffer rendered = new RpcOutputBuffer(getBufferPool(), RpcBufferPool.DEFAULT_BUFFER_SIZE);
+        try {
+            MsgPackEncoder encoder = new MsgPackEncoder(rendered);
+            encoder.arrayHeader(3);
+            encoder.integer(RpcEnvelope.getStatus(exception));
+            encoder.string(exception.getClass().getName());
+            String message = exception.getMessage();
+            encoder.string(message == null ? "" : message);
+            HttpServletResponse response = context.getResponse();
+            response.setContentType(CONTENT_TYPE);
+            rendered.writeTo(response);
+            return true;
+        }
+        finally {
+            rendered.release();
+        }
+    }
+
+    /**
+     * <p>Get the pool that response buffers are taken from</p>
+     *
+     * <p>Sub classes can override this to supply their own RpcBufferPool</p>
+     */
+    protected RpcBufferPool getBufferPool() {
+        return RpcBufferPool.getShared();
+    }
+
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2009, Gareth Bond, http://www.gazbond.co.uk
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *   * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *     following disclaimer.
+ *   * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *     the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package gizmo.uk.toolkit.rpc.handlers.schema;
+
+import gizmo.uk.toolkit.rpc.RpcBufferPool;
+import gizmo.uk.toolkit.rpc.RpcContext;
+import gizmo.uk.toolkit.rpc.RpcETag;
+import gizmo.uk.toolkit.rpc.RpcEnvelope;
+import gizmo.uk.toolkit.rpc.RpcMethod;
+import gizmo.uk.toolkit.rpc.RpcMimeTypes;
+import gizmo.uk.toolkit.rpc.RpcOutputBuffer;
+import gizmo.uk.toolkit.rpc.RpcTypedReturnValueHandler;
+import gizmo.uk.toolkit.rpc.handlers.json.JsonTypes;
+import gizmo.uk.toolkit.rpc.handlers.msgpack.MsgPackEncoder;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * <p>RpcReturnValueHandler implementation for calls made by method id that writes the return value as a
+ * positional MessagePack array</p>
+ *
+ * <p>It accepts the same types as JsonTypesReturnValueHandler: null, List, Map, boolean, String, long, double
+ * and int as well as the corresponding primitive wrappers</p>
+ *
+ * <p>The client already knows which method it called from the schema, so the response is always in the
+ * compact envelope described by RpcEnvelope, a status of 0 followed by the return value unless the method is
+ * void:</p>
+ * <pre>
+ * [0, [map / array / number / string / boolean / nil]]
+ * </pre>
+ *
+ * <p>Each response is sent with an ETag and the content type application/x-rpc-schema, if the requests
+ * If-None-Match header matches the ETag then HTTP 304 is sent with no response body</p>
+ *
+ * @author gareth bond
+ */
+public class SchemaReturnValueHandler implements RpcTypedReturnValueHandler {
+
+    /**
+     * <p>Every return value of a method with a return type JsonTypes accepts is handled</p>
+     *
+     * @param returnType
+     */
+    public boolean handlesReturnType(Class returnType) {
+        return JsonTypes.isReturnType(returnType);
+    }
+
+    /**
+     * <p>Content type of the response</p>
+     */
+    protected final String CONTENT_TYPE = RpcMimeTypes.SCHEMA;
+
+    public boolean handleReturnValue(RpcContext context, Object returnValue)
+            throws IOException {
+
+        boolean hasReturn;
+        if(JsonTypes.isReturnValue(returnValue)) {
+            hasReturn = true;
+        }
+        else if(returnValue.equals(Void.TYPE)) {
+            hasReturn = false;
+        }
+        else {
+            return false;
+        }
+        RpcMethod method = context.getRpcMethod();
+        RpcOutputBuffer rendered = new RpcOutputBuffer(getBufferPool(),
+                method == null ? RpcBufferPool.DEFAULT_BUFFER_SIZE : method.getResponseSizeHint());
+        try {
+            MsgPackEncoder encoder = new MsgPackEncoder(rendered);
+            encoder.arrayHeader(hasReturn ? 2 : 1);
+            encoder.integer(RpcEnvelope.STATUS_RETURN);
+            if(hasReturn) {
+                encoder.value(returnValue);
+            }
+            HttpServletResponse response = context.getResponse();
+
+            //answer a conditional request the client already has the response for
+            String etag = RpcETag.compute(rendered.getBuffer(), 0, rendered.size());
+            response.setHeader(RpcETag.ETAG_HEADER, etag);
+            if(RpcETag.isNotModified(context.getRequest(), etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
+            if(method != null) {
+                method.recordResponseSize(rendered.size());
+            }
+            response.setContentType(CONTENT_TYPE);
+            rendered.writeTo(response);
+            return true;
+        }
+        finally {
+            rendered.release();
+        }
+    }
+
+    /**
+     * <p>Get the pool that response buffers are taken from</p>
+     *
+     * <p>Sub classes can override this to supply their own RpcBufferPool</p>
+     */
+    protected RpcBufferPool getBufferPool() {
+        return RpcBufferPool.getShared();
+    }
+
+}
@@ -22,10 +22,18 @@
 package gizmo.uk.toolkit.rpc.services;
 
 import gizmo.uk.toolkit.rpc.RpcHandlers;
+import gizmo.uk.toolkit.rpc.RpcLockPolicy;
+import gizmo.uk.toolkit.rpc.RpcMimeTypes;
 import gizmo.uk.toolkit.rpc.handlers.ApplicationScopeTargetHandler;
 import gizmo.uk.toolkit.rpc.handlers.json.JsonObjectExceptionHandler;
 import gizmo.uk.toolkit.rpc.handlers.json.JsonTypesArgumentsHandler;
 import gizmo.uk.toolkit.rpc.handlers.json.JsonTypesReturnValueHandler;
+import gizmo.uk.toolkit.rpc.handlers.msgpack.MsgPackArgumentsHandler;
+import gizmo.uk.toolkit.rpc.handlers.msgpack.MsgPackExceptionHandler;
+import gizmo.uk.toolkit.rpc.handlers.msgpack.MsgPackReturnValueHandler;
+import gizmo.uk.toolkit.rpc.handlers.schema.SchemaArgumentsHandler;
+import gizmo.uk.toolkit.rpc.handlers.schema.SchemaExceptionHandler;
+import gizmo.uk.toolkit.rpc.handlers.schema.SchemaReturnValueHandler;
 
 import java.lang.reflect.Method;
 
@@ -45,15 +53,41 @@ public class BaseJsonApplicationScopeService {
      * <p>Configures the service to use the following handlers: JsonTypesArgumentsHandler,
      * ApplicationScopeTargetHandler, JsonTypesReturnValueHandler and JsonObjectExceptionHandler</p>
      *
+     * <p>The ApplicationScopeTargetHandler is also used as the services RpcLockHandler and locks invocations
+     * using RpcLockPolicy.EXCLUSIVE</p>
+     *
+     * <p>The JSON handlers are also registered for application/json and MsgPackArgumentsHandler,
+     * MsgPackReturnValueHandler and MsgPackExceptionHandler for application/x-msgpack, so the handler for a
+     * requests format is looked up directly. The Schema handlers are registered for application/x-rpc-schema
+     * for calls made by method id</p>
+     *
      * <p>Also filters out Java Object methods that should not usually be exposed</p>
      *
      * <p>The filtered methods are: _configure, clone, equals, finalize, hashCode, notify, notifyAll, wait and
      * getClass</p>
      *
+     * <p>_describe is declared as a read method and, as a services description does not change, its responses
+     * are cached for an hour</p>
+     *
      * @param handlers
      */
     public static void _configure(RpcHandlers handlers) {
 
+        _configure(handlers, RpcLockPolicy.EXCLUSIVE);
+    }
+
+    /**
+     * <p>Configures the service as _configure(RpcHandlers) does but with the given RpcLockPolicy for the
+     * ApplicationScopeTargetHandler</p>
+     *
+     * <p>Sub classes can use this from their own static '_configure' method to choose how concurrent
+     * invocations on the shared service object are locked</p>
+     *
+     * @param handlers
+     * @param lockPolicy
+     */
+    public static void _configure(RpcHandlers handlers, RpcLockPolicy lockPolicy) {
+
         handlers.addFilterMethod("_configure");
         handlers.addFilterMethod("clone");
         handlers.addFilterMethod("equals");
@@ -63,10 +97,26 @@ public class BaseJsonApplicationScopeService {
         handlers.addFilterMethod("notifyAll");
         handlers.addFilterMethod("wait");
         handlers.addFilterMethod("getClass");
-        handlers.addArgumentsHandler(new JsonTypesArgumentsHandler());
-        handlers.addTargetHandler(new ApplicationScopeTargetHandler());
-        handlers.addReturnValueHandler(new JsonTypesReturnValueHandler());
-        handlers.addExceptionHandler(new JsonObjectExceptionHandler());
+        handlers.addReadMethod("_describe");
+        handlers.addCacheMethod("_describe", 60 * 60 * 1000);
+        JsonTypesArgumentsHandler argumentsHandler = new JsonTypesArgumentsHandler();
+        handlers.addArgumentsHandler(argumentsHandler);
+        handlers.addArgumentsHandler(RpcMimeTypes.JSON, argumentsHandler);
+        handlers.addArgumentsHandler(RpcMimeTypes.MSGPACK, new MsgPackArgumentsHandler());
+        handlers.addArgumentsHandler(RpcMimeTypes.SCHEMA, new SchemaArgumentsHandler());
+        ApplicationScopeTargetHandler targetHandler = new ApplicationScopeTargetHandler(lockPolicy);
+        handlers.addTargetHandler(targetHandler);
+        handlers.setLockHandler(targetHandler);
+        JsonTypesReturnValueHandler returnValueHandler = new JsonTypesReturnValueHandler();
+        handlers.addReturnValueHandler(returnValueHandler);
+        handlers.addReturnValueHandler(RpcMimeTypes.JSON, returnValueHandler);
+        handlers.addReturnValueHandler(RpcMimeTypes.MSGPACK, new MsgPackReturnValueHandler());
+        handlers.addReturnValueHandler(RpcMimeTypes.SCHEMA, new SchemaReturnValueHandler());
+        JsonObjectExceptionHandler exceptionHandler = new JsonObjectExceptionHandler();
+        handlers.addExceptionHandler(exceptionHandler);
+        handlers.addExceptionHandler(RpcMimeTypes.JSON, exceptionHandler);
+        handlers.addExceptionHandler(RpcMimeTypes.MSGPACK, new MsgPackExceptionHandler());
+        handlers.addExceptionHandler(RpcMimeTypes.SCHEMA, new SchemaExceptionHandler());
     }
 
     /**
@@ -22,10 +22,17 @@
 package gizmo.uk.toolkit.rpc.services;
 
 import gizmo.uk.toolkit.rpc.RpcHandlers;
+import gizmo.uk.toolkit.rpc.RpcMimeTypes;
 import gizmo.uk.toolkit.rpc.handlers.SessionScopeTargetHandler;
 import gizmo.uk.toolkit.rpc.handlers.json.JsonObjectExceptionHandler;
 import gizmo.uk.toolkit.rpc.handlers.json.JsonTypesArgumentsHandler;
 import gizmo.uk.toolkit.rpc.handlers.json.JsonTypesReturnValueHandler;
+import gizmo.uk.toolkit.rpc.handlers.msgpack.MsgPackArgumentsHandler;
+import gizmo.uk.toolkit.rpc.handlers.msgpack.MsgPackExceptionHandler;
+import gizmo.uk.toolkit.rpc.handlers.msgpack.MsgPackReturnValueHandler;
+import gizmo.uk.toolkit.rpc.handlers.schema.SchemaArgumentsHandler;
+import gizmo.uk.toolkit.rpc.handlers.schema.SchemaExceptionHandler;
+import gizmo.uk.toolkit.rpc.handlers.schema.SchemaReturnValueHandler;
 
 import java.lang.reflect.Method;
 
@@ -45,11 +52,21 @@ public class BaseJsonSessionScopeService {
      * <p>Configures the service to use the following handlers: JsonTypesArgumentsHandler,
      * SessionScopeTargetHandler, JsonTypesReturnValueHandler and JsonObjectExceptionHandler</p>
      *
+     * <p>The SessionScopeTargetHandler is also used as the services RpcLockHandler</p>
+     *
+     * <p>The JSON handlers are also registered for application/json and MsgPackArgumentsHandler,
+     * MsgPackReturnValueHandler and MsgPackExceptionHandler for application/x-msgpack, so the handler for a
+     * requests format is looked up directly. The Schema handlers are registered for application/x-rpc-schema
+     * for calls made by method id</p>
+     *
      * <p>Also filters out Java Object methods that should not usually be exposed</p>
      *
      * <p>The filtered methods are: _configure, clone, equals, finalize, hashCode, notify, notifyAll, wait and
      * getClass</p>
      *
+     * <p>_describe is declared as a read method and, as a services description does not change, its responses
+     * are cached for an hour</p>
+     *
      * @param handlers
      */
     public static void _configure(RpcHandlers handlers) {
@@ -63,10 +80,26 @@ public class BaseJsonSessionScopeService {
         handlers.addFilterMethod("notifyAll");
         handlers.addFilterMethod("wait");
         handlers.addFilterMethod("getClass");
-        handlers.addArgumentsHandler(new JsonTypesArgumentsHandler());
-        handlers.addTargetHandler(new SessionScopeTargetHandler());
-        handlers.addReturnValueHandler(new JsonTypesReturnValueHandler());
-        handlers.addExceptionHandler(new JsonObjectExceptionHandler());
+        handlers.addReadMethod("_describe");
+        handlers.addCacheMethod("_describe", 60 * 60 * 1000);
+        JsonTypesArgumentsHandler argumentsHandler = new JsonTypesArgumentsHandler();
+        handlers.addArgumentsHandler(argumentsHandler);
+        handlers.addArgumentsHandler(RpcMimeTypes.JSON, argumentsHandler);
+        handlers.addArgumentsHandler(RpcMimeTypes.MSGPACK, new MsgPackArgumentsHandler());
+        handlers.addArgumentsHandler(RpcMimeTypes.SCHEMA, new SchemaArgumentsHandler());
+        SessionScopeTargetHandler targetHandler = new SessionScopeTargetHandler();
+        handlers.addTargetHandler(targetHandler);
+        handlers.setLockHandler(targetHandler);
+        JsonTypesReturnValueHandler returnValueHandler = new JsonTypesReturnValueHandler();
+        handlers.addReturnValueHandler(returnValueHandler);
+        handlers.addReturnValueHandler(RpcMimeTypes.JSON, returnValueHandler);
+        handlers.addReturnValueHandler(RpcMimeTypes.MSGPACK, new MsgPackReturnValueHandler());
+        handlers.addReturnValueHandler(RpcMimeTypes.SCHEMA, new SchemaReturnValueHandler());
+        JsonObjectExceptionHandler exceptionHandler = new JsonObjectExceptionHandler();
+        handlers.addExceptionHandler(exceptionHandler);
+        handlers.addExceptionHandler(RpcMimeTypes.JSON, exceptionHandler);
+        handlers.addExceptionHandler(RpcMimeTypes.MSGPACK, new MsgPackExceptionHandler());
+        handlers.addExceptionHandler(RpcMimeTypes.SCHEMA, new SchemaExceptionHandler());
     }
 
     /**
@@ -21,8 +21,11 @@
  */
 package gizmo.uk.toolkit.rpc.services.examples;
 
+import gizmo.uk.toolkit.rpc.RpcHandlers;
+import gizmo.uk.toolkit.rpc.RpcLockPolicy;
 import gizmo.uk.toolkit.rpc.services.BaseJsonApplicationScopeService;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.HashMap;
@@ -33,6 +36,8 @@ import java.util.Map;
  * <p>ChatService is a JSON-RPC service for handling communications between web based clients</p>
  * <p>It is a sub class of BaseJsonApplicationScopeService and therefore connects client messages
  * via application scoped Maps</p>
+ * <p>Lists of posts are returned as copies as return values are written to the response after the
+ * invocation lock has been released</p>
  * 
  * @author gareth bond
  */
@@ -53,6 +58,33 @@ public class ChatService extends BaseJsonApplicationScopeService {
      */
     Map<String, LinkedList<String>> usersBackup = new HashMap<String, LinkedList<String>>();
 
+    /**
+     * <p>Configures the service with RpcLockPolicy.READ_WRITE so that the read methods validUsername,
+     * getPosts and getUsers run concurrently while login, logout and post run exclusively</p>
+     *
+     * <p>getPosts and getUsers are polled by every chat client so identical concurrent calls are
+     * coalesced and their responses cached, the cached responses read the 'posts' and 'users' tags which
+     * post, login and logout invalidate</p>
+     *
+     * @param handlers
+     */
+    public static void _configure(RpcHandlers handlers) {
+
+        BaseJsonApplicationScopeService._configure(handlers, RpcLockPolicy.READ_WRITE);
+        handlers.addReadMethod("validUsername");
+        handlers.addReadMethod("getPosts");
+        handlers.addReadMethod("getUsers");
+        handlers.addCoalesceMethod("getPosts");
+        handlers.addCoalesceMethod("getUsers");
+        handlers.addCacheMethod("getPosts", 60 * 1000);
+        handlers.addCacheMethod("getUsers", 60 * 1000);
+        handlers.addCacheTags("getPosts", "posts");
+        handlers.addCacheTags("getUsers", "users");
+        handlers.addInvalidateTags("post", "posts", "users");
+        handlers.addInvalidateTags("login", "posts", "users");
+        handlers.addInvalidateTags("logout", "posts", "users");
+    }
+
     /**
      * <p>Checks whether a username is currently in use</p>
      * 
@@ -147,7 +179,7 @@ public class ChatService extends BaseJsonApplicationScopeService {
         else if(end > posts.size()) {
             end = posts.size();
         }
-        List selection = posts.subList(start, end);
+        List selection = new ArrayList(posts.subList(start, end));
         return selection;
 
     }
@@ -175,7 +207,7 @@ public class ChatService extends BaseJsonApplicationScopeService {
             else if(end > userPosts.size()) {
                 end = userPosts.size();
             }
-            List selection = userPosts.subList(start, end);
+            List selection = new ArrayList(userPosts.subList(start, end));
             return selection;
         }
         else {
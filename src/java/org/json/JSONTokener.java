@@ -1,9 +1,7 @@
 package org.json;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
-import java.io.StringReader;
 
 /*
 Copyright (c) 2002 JSON.org
@@ -32,24 +30,41 @@ SOFTWARE.
  * A JSONTokener takes a source string and extracts characters and tokens from
  * it. It is used by the JSONObject and JSONArray constructors to parse
  * JSON source strings.
+ * <p>
+ * The source is read from a character buffer. String and char array sources
+ * are scanned in place, a Reader source is read into the buffer in blocks.
+ * Strings and unquoted values are scanned straight out of the buffer rather
+ * than one character at a time.
  * @author JSON.org
  * @version 2008-09-18
  */
 public class JSONTokener {
 
+    /**
+     * The number of characters read from a Reader source at a time.
+     */
+    private static final int BUFFER_SIZE = 1024;
+
     private int index;
     private Reader reader;
-    private char lastChar;
-    private boolean useLastChar;
+    private char[] buffer;
+    private int position;
+    private int end;
+    private int mark;
+    private boolean backed;
+    private boolean eof;
 
     /**
-     * Construct a JSONTokener from a string.
+     * Construct a JSONTokener from a reader.
      *
      * @param reader     A reader.
      */
     public JSONTokener(Reader reader) {
-        this.reader = reader.markSupported() ? reader : new BufferedReader(reader);
-        this.useLastChar = false;
+        this.reader = reader;
+        this.buffer = new char[BUFFER_SIZE];
+        this.position = 0;
+        this.end = 0;
+        this.mark = -1;
         this.index = 0;
     }
 
@@ -59,7 +74,24 @@ public class JSONTokener {
      * @param s     A source string.
      */
     public JSONTokener(String s) {
-        this(new StringReader(s));
+        this(s.toCharArray(), 0, s.length());
+    }
+
+    /**
+     * Construct a JSONTokener from a range of a character array. The array
+     * is not copied and must not be modified while it is being parsed.
+     *
+     * @param chars     The source characters.
+     * @param offset    The index of the first source character.
+     * @param length    The number of source characters.
+     */
+    public JSONTokener(char[] chars, int offset, int length) {
+        this.reader = null;
+        this.buffer = chars;
+        this.position = offset;
+        this.end = offset + length;
+        this.mark = -1;
+        this.index = 0;
     }
 
     /**
@@ -68,11 +100,14 @@ public class JSONTokener {
      * the next number or identifier.
      */
     public void back() throws JSONException {
-        if(useLastChar || index <= 0) {
+        if(backed || index <= 0) {
             throw new JSONException("Stepping back two steps is not supported");
         }
         index -= 1;
-        useLastChar = true;
+        backed = true;
+        if( ! eof) {
+            position -= 1;
+        }
     }
 
     /**
@@ -100,7 +135,7 @@ public class JSONTokener {
      * @return true if not yet at the end of the source.
      */
     public boolean more() throws JSONException {
-        char nextChar = next();
+        char nextChar = read();
         if(nextChar == 0) {
             return false;
         }
@@ -114,28 +149,7 @@ public class JSONTokener {
      * @return The next character, or 0 if past the end of the source string.
      */
     public char next() throws JSONException {
-        if(this.useLastChar) {
-            this.useLastChar = false;
-            if(this.lastChar != 0) {
-                this.index += 1;
-            }
-            return this.lastChar;
-        }
-        int c;
-        try {
-            c = this.reader.read();
-        }
-        catch(IOException exc) {
-            throw new JSONException(exc);
-        }
-
-        if(c <= 0) { // End of stream
-            this.lastChar = 0;
-            return 0;
-        }
-        this.index += 1;
-        this.lastChar = (char) c;
-        return this.lastChar;
+        return read();
     }
 
     /**
@@ -146,7 +160,7 @@ public class JSONTokener {
      * @throws JSONException if the character does not match.
      */
     public char next(char c) throws JSONException {
-        char n = next();
+        char n = read();
         if(n != c) {
             throw syntaxError("Expected '" + c + "' and instead saw '" +
                               n + "'");
@@ -167,33 +181,19 @@ public class JSONTokener {
         if(n == 0) {
             return "";
         }
-
-        char[] buffer = new char[n];
-        int pos = 0;
-
-        if(this.useLastChar) {
-            this.useLastChar = false;
-            buffer[0] = this.lastChar;
-            pos = 1;
-        }
-
-        try {
-            int len;
-            while((pos < n) && ((len = reader.read(buffer, pos, n - pos)) != -1)) {
-                pos += len;
+        this.backed = false;
+        while(this.end - this.position < n) {
+            if( ! fill()) {
+                this.index += this.end - this.position;
+                this.position = this.end;
+                throw syntaxError("Substring bounds error");
             }
         }
-        catch(IOException exc) {
-            throw new JSONException(exc);
-        }
-        this.index += pos;
-
-        if(pos < n) {
-            throw syntaxError("Substring bounds error");
-        }
-
-        this.lastChar = buffer[n - 1];
-        return new String(buffer);
+        String s = new String(this.buffer, this.position, n);
+        this.position += n;
+        this.index += n;
+        this.eof = false;
+        return s;
     }
 
     /**
@@ -203,7 +203,7 @@ public class JSONTokener {
      */
     public char nextClean() throws JSONException {
         for(;;) {
-            char c = next();
+            char c = read();
             if(c == 0 || c > ' ') {
                 return c;
             }
@@ -222,52 +222,76 @@ public class JSONTokener {
      * @throws JSONException Unterminated string.
      */
     public String nextString(char quote) throws JSONException {
-        char c;
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = null;
+        this.backed = false;
+        this.eof = false;
+        this.mark = this.position;
         for(;;) {
-            c = next();
+            if(this.position == this.end && ! fill()) {
+                this.index += this.position - this.mark;
+                this.mark = -1;
+                throw syntaxError("Unterminated string");
+            }
+            char c = this.buffer[this.position];
+            if(c != quote && c != '\\' && c != '\n' && c != '\r' && c != 0) {
+                this.position += 1;
+                continue;
+            }
+
+            /*
+             * Consume the run of plain characters scanned so far together
+             * with the character that ended it.
+             */
+
+            int length = this.position - this.mark;
+            this.index += length + 1;
+            this.position += 1;
+            if(c == quote) {
+                String s = sb == null ?
+                           new String(this.buffer, this.mark, length) :
+                           sb.append(this.buffer, this.mark, length).toString();
+                this.mark = -1;
+                return s;
+            }
+            if(c != '\\') {
+                this.mark = -1;
+                throw syntaxError("Unterminated string");
+            }
+            if(sb == null) {
+                sb = new StringBuilder(length + 16);
+            }
+            sb.append(this.buffer, this.mark, length);
+            this.mark = -1;
+            c = read();
             switch(c) {
-                case 0:
-                case '\n':
-                case '\r':
-                    throw syntaxError("Unterminated string");
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 'u':
+                    sb.append((char) Integer.parseInt(next(4), 16));
+                    break;
+                case '"':
+                case '\'':
                 case '\\':
-                    c = next();
-                    switch(c) {
-                        case 'b':
-                            sb.append('\b');
-                            break;
-                        case 't':
-                            sb.append('\t');
-                            break;
-                        case 'n':
-                            sb.append('\n');
-                            break;
-                        case 'f':
-                            sb.append('\f');
-                            break;
-                        case 'r':
-                            sb.append('\r');
-                            break;
-                        case 'u':
-                            sb.append((char) Integer.parseInt(next(4), 16));
-                            break;
-                        case '"':
-                        case '\'':
-                        case '\\':
-                        case '/':
-                            sb.append(c);
-                            break;
-                        default:
-                            throw syntaxError("Illegal escape.");
-                    }
+                case '/':
+                    sb.append(c);
                     break;
                 default:
-                    if(c == quote) {
-                        return sb.toString();
-                    }
-                    sb.append(c);
+                    throw syntaxError("Illegal escape.");
             }
+            this.mark = this.position;
         }
     }
 
@@ -278,9 +302,9 @@ public class JSONTokener {
      * @return   A string.
      */
     public String nextTo(char d) throws JSONException {
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = new StringBuilder();
         for(;;) {
-            char c = next();
+            char c = read();
             if(c == d || c == 0 || c == '\n' || c == '\r') {
                 if(c != 0) {
                     back();
@@ -299,9 +323,9 @@ public class JSONTokener {
      */
     public String nextTo(String delimiters) throws JSONException {
         char c;
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = new StringBuilder();
         for(;;) {
-            c = next();
+            c = read();
             if(delimiters.indexOf(c) >= 0 || c == 0 ||
                c == '\n' || c == '\r') {
                 if(c != 0) {
@@ -322,7 +346,6 @@ public class JSONTokener {
      */
     public Object nextValue() throws JSONException {
         char c = nextClean();
-        String s;
 
         switch(c) {
             case '"':
@@ -342,21 +365,30 @@ public class JSONTokener {
          * null, or it can be a number. An implementation (such as this one)
          * is allowed to also accept non-standard forms.
          *
-         * Accumulate characters until we reach the end of the text or a
-         * formatting character.
+         * Scan characters until we reach the end of the text or a
+         * formatting character. The first character has already been
+         * read so the value starts one character back.
          */
 
-        StringBuffer sb = new StringBuffer();
-        while(c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
-            sb.append(c);
-            c = next();
-        }
-        back();
-
-        s = sb.toString().trim();
-        if(s.equals("")) {
+        if(c < ' ' || isFormatting(c)) {
+            back();
             throw syntaxError("Missing value");
         }
+        this.mark = this.position - 1;
+        for(;;) {
+            if(this.position == this.end && ! fill()) {
+                break;
+            }
+            c = this.buffer[this.position];
+            if(c < ' ' || isFormatting(c)) {
+                break;
+            }
+            this.position += 1;
+        }
+        int length = this.position - this.mark;
+        this.index += length - 1;
+        String s = new String(this.buffer, this.mark, length).trim();
+        this.mark = -1;
         return JSONObject.stringToValue(s);
     }
 
@@ -369,23 +401,20 @@ public class JSONTokener {
      */
     public char skipTo(char to) throws JSONException {
         char c;
-        try {
-            int startIndex = this.index;
-            reader.mark(Integer.MAX_VALUE);
-            do {
-                c = next();
-                if(c == 0) {
-                    reader.reset();
-                    this.index = startIndex;
-                    return c;
-                }
+        int startIndex = this.index;
+        this.mark = this.position;
+        do {
+            c = read();
+            if(c == 0) {
+                this.position = this.mark;
+                this.mark = -1;
+                this.index = startIndex;
+                this.eof = false;
+                return c;
             }
-            while(c != to);
-        }
-        catch(IOException exc) {
-            throw new JSONException(exc);
         }
-
+        while(c != to);
+        this.mark = -1;
         back();
         return c;
     }
@@ -409,4 +438,87 @@ public class JSONTokener {
         return " at character " + index;
     }
 
+    /**
+     * Read the next character from the buffer, filling it from the reader
+     * when it runs out.
+     *
+     * @return The next character, or 0 if past the end of the source.
+     */
+    private char read() throws JSONException {
+        this.backed = false;
+        if(this.position == this.end && ! fill()) {
+            this.eof = true;
+            return 0;
+        }
+        this.eof = false;
+        this.index += 1;
+        return this.buffer[this.position++];
+    }
+
+    /**
+     * Read more characters from the reader into the buffer. The last
+     * character read is kept so that back() still works, as is everything
+     * from the mark onwards while a value is being scanned. The buffer
+     * grows when there is no room left to read into.
+     *
+     * @return true if more characters were read.
+     */
+    private boolean fill() throws JSONException {
+        if(this.reader == null) {
+            return false;
+        }
+        int keep = this.position > 0 ? this.position - 1 : 0;
+        if(this.mark >= 0 && this.mark < keep) {
+            keep = this.mark;
+        }
+        int length = this.end - keep;
+        if(keep > 0) {
+            System.arraycopy(this.buffer, keep, this.buffer, 0, length);
+        }
+        else if(length == this.buffer.length) {
+            char[] grown = new char[this.buffer.length * 2];
+            System.arraycopy(this.buffer, 0, grown, 0, length);
+            this.buffer = grown;
+        }
+        this.position -= keep;
+        this.end = length;
+        if(this.mark >= 0) {
+            this.mark -= keep;
+        }
+        int read;
+        try {
+            read = this.reader.read(this.buffer, this.end, this.buffer.length - this.end);
+        }
+        catch(IOException exc) {
+            throw new JSONException(exc);
+        }
+        if(read <= 0) {
+            return false;
+        }
+        this.end += read;
+        return true;
+    }
+
+    /**
+     * Is the character one that ends an unquoted value.
+     */
+    private static boolean isFormatting(char c) {
+        switch(c) {
+            case ',':
+            case ':':
+            case ']':
+            case '}':
+            case '/':
+            case '\\':
+            case '"':
+            case '[':
+            case '{':
+            case ';':
+            case '=':
+            case '#':
+                return true;
+        }
+        return false;
+    }
+
 }
@@ -35,9 +35,15 @@
 
     /**
      * Param name for arguments array.
+     * Only used by servers that do not accept JSON request bodies, arguments are posted as the request body.
      */
     $.rpc.ARGS_PARAM = 'a';
 
+    /**
+     * Content type of the request body.
+     */
+    $.rpc.CONTENT_TYPE = 'application/json; charset=UTF-8';
+
     /**
      * Response format.
      */
@@ -62,19 +68,351 @@
         //append method to url is needed
         if(method != null) url += method;
 
-        //data to post
-        var data = {};
+        //body to post
+        var body = null;
 
-        //add params to data if present
+        //add params to body if present
         if(params != null) {
 
             //params must be an array
             if(!(params instanceof Array)) params = [params];
-            data[this.ARGS_PARAM] = JSON.stringify(params);
+            body = JSON.stringify(params);
         }
 
         //execute HTTP POST request
-        $.post(url, data, callback, this.RESP_TYPE);
+        this.post(url, body, callback);
+    };
+
+    /**
+     * Post a JSON body as is, without form encoding it.
+     *
+     * @param url, URL to post to
+     * @param body, JSON text to post or null for an empty body
+     * @param callback, function to handle the response
+     */
+    $.rpc.post = function(url, body, callback) {
+
+        $.ajax({
+            type: 'POST',
+            url: url,
+            contentType: this.CONTENT_TYPE,
+            processData: false,
+            data: body,
+            success: callback,
+            dataType: this.RESP_TYPE
+        });
+    };
+
+    /**
+     * Path of the batch endpoint relative to the servlet mapping.
+     */
+    $.rpc.BATCH_PATH = '_batch';
+
+    /**
+     * Invoke several methods in one request.
+     * Each call is an object with service, method and params properties, params follow the same rules as
+     * for $.rpc.invoke.
+     * The callback receives an array holding the response for each call in the order they were given.
+     *
+     * @param url, URL of the servlet mapping e.g. 'services'
+     * @param calls, array of calls to invoke
+     * @param callback, function to handle the responses
+     */
+    $.rpc.batch = function(url, calls, callback) {
+
+        //add forward slash if needed
+        if(url.charAt(url.length -1) != '/') url += '/';
+        url += this.BATCH_PATH;
+
+        //build the batch
+        var batch = [];
+        for(var i = 0; i < calls.length; i++) {
+            var params = calls[i].params;
+            if(params != null && !(params instanceof Array)) params = [params];
+            batch.push({service: calls[i].service, method: calls[i].method, args: params});
+        }
+
+        //execute HTTP POST request
+        this.post(url, JSON.stringify(batch), callback);
+    };
+
+    /**
+     * Content type of MessagePack request and response bodies.
+     */
+    $.rpc.MSGPACK_CONTENT_TYPE = 'application/x-msgpack';
+
+    /**
+     * Invoke a method with the supplied params, posting them and receiving the response as MessagePack.
+     * Params follow the same rules as for $.rpc.invoke and the callback receives the same response object.
+     * Needs a browser with typed arrays.
+     *
+     * @param url, URL of the RPC service
+     * @param method, method name to invoke
+     * @param params, params to pass to the remote method
+     * @param callback, function to handle the response
+     */
+    $.rpc.invokeMsgPack = function(url, method, params, callback) {
+
+        //add forward slash if needed
+        if(url.charAt(url.length -1) != '/') url += '/';
+
+        //append method to url is needed
+        if(method != null) url += method;
+
+        //params must be an array
+        if(params != null && !(params instanceof Array)) params = [params];
+
+        //execute HTTP POST request, jQuery cannot receive binary responses so XMLHttpRequest is used directly
+        var xhr = new XMLHttpRequest();
+        xhr.open('POST', url, true);
+        xhr.responseType = 'arraybuffer';
+        xhr.setRequestHeader('Content-Type', this.MSGPACK_CONTENT_TYPE);
+        xhr.setRequestHeader('Accept', this.MSGPACK_CONTENT_TYPE);
+        xhr.onload = function() {
+            if(xhr.status == 200 && callback) callback($.rpc.msgpack.decode(xhr.response));
+        };
+        xhr.send(params == null ? null : this.msgpack.encode(params));
+    };
+
+    /**
+     * MessagePack encoder and decoder.
+     * Whole numbers are encoded as integers and other numbers as 64 bit floats, objects become maps with
+     * string keys and Uint8Array values become binary data, which decodes to Uint8Array.
+     */
+    $.rpc.msgpack = {
+
+        /**
+         * Encode a value as MessagePack.
+         *
+         * @param data, value to encode
+         * @return Uint8Array holding the encoded value
+         */
+        encode: function(data) {
+
+            var bytes = new Uint8Array(256);
+            var view = new DataView(bytes.buffer);
+            var length = 0;
+
+            //make room for a number of bytes, doubling the buffer if needed
+            function ensure(count) {
+                if(length + count > bytes.length) {
+                    var grown = new Uint8Array(Math.max(bytes.length * 2, length + count));
+                    grown.set(bytes);
+                    bytes = grown;
+                    view = new DataView(bytes.buffer);
+                }
+            }
+
+            function byte(b) {
+                ensure(1);
+                bytes[length++] = b;
+            }
+
+            //write a type byte followed by a big endian unsigned value of 1, 2 or 4 bytes
+            function header(type, n, size) {
+                ensure(size + 1);
+                bytes[length++] = type;
+                if(size == 1) view.setUint8(length, n);
+                else if(size == 2) view.setUint16(length, n);
+                else view.setUint32(length, n);
+                length += size;
+            }
+
+            function integer(n) {
+                if(n >= 0) {
+                    if(n <= 0x7f) byte(n);
+                    else if(n <= 0xff) header(0xcc, n, 1);
+                    else if(n <= 0xffff) header(0xcd, n, 2);
+                    else if(n <= 0xffffffff) header(0xce, n, 4);
+                    else {
+                        header(0xcf, Math.floor(n / 0x100000000), 4);
+                        ensure(4);
+                        view.setUint32(length, n % 0x100000000);
+                        length += 4;
+                    }
+                }
+                else {
+                    if(n >= -32) byte(n & 0xff);
+                    else if(n >= -0x80) { byte(0xd0); byte(n & 0xff); }
+                    else if(n >= -0x8000) { ensure(3); bytes[length++] = 0xd1; view.setInt16(length, n); length += 2; }
+                    else if(n >= -0x80000000) { ensure(5); bytes[length++] = 0xd2; view.setInt32(length, n); length += 4; }
+                    else {
+                        ensure(9);
+                        bytes[length++] = 0xd3;
+                        var high = Math.floor(n / 0x100000000);
+                        view.setInt32(length, high);
+                        view.setUint32(length + 4, n - high * 0x100000000);
+                        length += 8;
+                    }
+                }
+            }
+
+            function string(s) {
+
+                //encode the chars first as the header holds the encoded length
+                var utf8 = [];
+                for(var i = 0; i < s.length; i++) {
+                    var c = s.charCodeAt(i);
+                    if(c >= 0xd800 && c <= 0xdbff && i + 1 < s.length) {
+                        var low = s.charCodeAt(i + 1);
+                        if(low >= 0xdc00 && low <= 0xdfff) {
+                            c = 0x10000 + ((c - 0xd800) << 10) + (low - 0xdc00);
+                            i++;
+                        }
+                    }
+                    if(c >= 0xd800 && c <= 0xdfff) c = 0xfffd;
+                    if(c < 0x80) utf8.push(c);
+                    else if(c < 0x800) utf8.push(0xc0 | (c >> 6), 0x80 | (c & 0x3f));
+                    else if(c < 0x10000) utf8.push(0xe0 | (c >> 12), 0x80 | ((c >> 6) & 0x3f), 0x80 | (c & 0x3f));
+                    else utf8.push(0xf0 | (c >> 18), 0x80 | ((c >> 12) & 0x3f), 0x80 | ((c >> 6) & 0x3f), 0x80 | (c & 0x3f));
+                }
+                if(utf8.length < 32) byte(0xa0 | utf8.length);
+                else if(utf8.length <= 0xff) header(0xd9, utf8.length, 1);
+                else if(utf8.length <= 0xffff) header(0xda, utf8.length, 2);
+                else header(0xdb, utf8.length, 4);
+                ensure(utf8.length);
+                bytes.set(utf8, length);
+                length += utf8.length;
+            }
+
+            function value(v) {
+                if(v == null) byte(0xc0);
+                else if(v === true) byte(0xc3);
+                else if(v === false) byte(0xc2);
+                else if(typeof v == 'number') {
+                    if(Math.floor(v) === v && Math.abs(v) <= 9007199254740991) integer(v);
+                    else { ensure(9); bytes[length++] = 0xcb; view.setFloat64(length, v); length += 8; }
+                }
+                else if(typeof v == 'string') string(v);
+                else if(v instanceof Uint8Array) {
+                    if(v.length <= 0xff) header(0xc4, v.length, 1);
+                    else if(v.length <= 0xffff) header(0xc5, v.length, 2);
+                    else header(0xc6, v.length, 4);
+                    ensure(v.length);
+                    bytes.set(v, length);
+                    length += v.length;
+                }
+                else if(v instanceof Array) {
+                    if(v.length < 16) byte(0x90 | v.length);
+                    else if(v.length <= 0xffff) header(0xdc, v.length, 2);
+                    else header(0xdd, v.length, 4);
+                    for(var i = 0; i < v.length; i++) value(v[i]);
+                }
+                else if(typeof v.toJSON == 'function') value(v.toJSON());
+                else {
+                    var keys = [];
+                    for(var key in v) {
+                        if(v.hasOwnProperty(key) && typeof v[key] != 'function' && v[key] !== undefined) keys.push(key);
+                    }
+                    if(keys.length < 16) byte(0x80 | keys.length);
+                    else if(keys.length <= 0xffff) header(0xde, keys.length, 2);
+                    else header(0xdf, keys.length, 4);
+                    for(var i = 0; i < keys.length; i++) {
+                        string(keys[i]);
+                        value(v[keys[i]]);
+                    }
+                }
+            }
+
+            value(data);
+            return bytes.subarray(0, length);
+        },
+
+        /**
+         * Decode MessagePack data.
+         *
+         * @param data, ArrayBuffer or Uint8Array holding the data
+         * @return the decoded value
+         */
+        decode: function(data) {
+
+            var bytes = data instanceof Uint8Array ? data : new Uint8Array(data);
+            var view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength);
+            var index = 0;
+
+            function string(size) {
+                var s = '';
+                var end = index + size;
+                while(index < end) {
+                    var c = bytes[index++];
+                    if(c >= 0xf0) {
+                        c = ((c & 0x07) << 18) | ((bytes[index++] & 0x3f) << 12) | ((bytes[index++] & 0x3f) << 6) |
+                            (bytes[index++] & 0x3f);
+                        c -= 0x10000;
+                        s += String.fromCharCode(0xd800 + (c >> 10), 0xdc00 + (c & 0x3ff));
+                        continue;
+                    }
+                    if(c >= 0xe0) c = ((c & 0x0f) << 12) | ((bytes[index++] & 0x3f) << 6) | (bytes[index++] & 0x3f);
+                    else if(c >= 0xc0) c = ((c & 0x1f) << 6) | (bytes[index++] & 0x3f);
+                    s += String.fromCharCode(c);
+                }
+                return s;
+            }
+
+            function array(size) {
+                var a = [];
+                for(var i = 0; i < size; i++) a.push(value());
+                return a;
+            }
+
+            function map(size) {
+                var m = {};
+                for(var i = 0; i < size; i++) {
+                    var key = value();
+                    m[key] = value();
+                }
+                return m;
+            }
+
+            function binary(size) {
+                index += size;
+                return bytes.slice(index - size, index);
+            }
+
+            //read a big endian value and move past it
+            function read(get, size) {
+                var v = view[get](index);
+                index += size;
+                return v;
+            }
+
+            function value() {
+                var b = bytes[index++];
+                if(b <= 0x7f) return b;
+                if(b >= 0xe0) return b - 0x100;
+                if((b & 0xf0) == 0x80) return map(b & 0x0f);
+                if((b & 0xf0) == 0x90) return array(b & 0x0f);
+                if((b & 0xe0) == 0xa0) return string(b & 0x1f);
+                switch(b) {
+                    case 0xc0: return null;
+                    case 0xc2: return false;
+                    case 0xc3: return true;
+                    case 0xc4: return binary(read('getUint8', 1));
+                    case 0xc5: return binary(read('getUint16', 2));
+                    case 0xc6: return binary(read('getUint32', 4));
+                    case 0xca: return read('getFloat32', 4);
+                    case 0xcb: return read('getFloat64', 8);
+                    case 0xcc: return read('getUint8', 1);
+                    case 0xcd: return read('getUint16', 2);
+                    case 0xce: return read('getUint32', 4);
+                    case 0xcf: return read('getUint32', 4) * 0x100000000 + read('getUint32', 4);
+                    case 0xd0: return read('getInt8', 1);
+                    case 0xd1: return read('getInt16', 2);
+                    case 0xd2: return read('getInt32', 4);
+                    case 0xd3: return read('getInt32', 4) * 0x100000000 + read('getUint32', 4);
+                    case 0xd9: return string(read('getUint8', 1));
+                    case 0xda: return string(read('getUint16', 2));
+                    case 0xdb: return string(read('getUint32', 4));
+                    case 0xdc: return array(read('getUint16', 2));
+                    case 0xdd: return array(read('getUint32', 4));
+                    case 0xde: return map(read('getUint16', 2));
+                    case 0xdf: return map(read('getUint32', 4));
+                }
+                throw new Error('Unsupported MessagePack type 0x' + b.toString(16));
+            }
+
+            return value();
+        }
     };
     
 })(jQuery);
\ No newline at end of file